@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.stress;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.ClaimStrategy;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.OverflowPolicy;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.HeapMemory;
+import org.openjdk.jcstress.annotations.*;
+import org.openjdk.jcstress.infra.results.II_Result;
+import org.openjdk.jcstress.infra.results.I_Result;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE_INTERESTING;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * producer and consumer interleavings on a {@link Queue}, they hold with the release stores of the length word
+ * and the acquire loads of the length word and the cursors.
+ *
+ * a payload is 16 bytes of the same value, a reader that sees the length word ahead of the payload gets a mix.
+ *
+ * @author cuiyi
+ */
+public class QueueStress {
+
+    private static final int PAYLOAD = 16;
+    private static final int TORN = 0;
+    private static final int EMPTY = -1;
+
+    private static Block block(int value) {
+        byte[] payload = new byte[PAYLOAD];
+        Arrays.fill(payload, (byte) value);
+        return new Block(payload);
+    }
+
+    /**
+     * the value of a polled block, {@link #EMPTY} for none, {@link #TORN} for a mix
+     */
+    private static int value(Block block) {
+        if (block == null) {
+            return EMPTY;
+        }
+        byte[] payload = block.getPayload();
+        if (payload.length != PAYLOAD) {
+            return TORN;
+        }
+        for (byte b : payload) {
+            if (b != payload[0]) {
+                return TORN;
+            }
+        }
+        return payload[0];
+    }
+
+    private static Queue queue(Options options) {
+        return Queue.map(HeapMemory.allocate(1024), options);
+    }
+
+    @JCStressTest
+    @Outcome(id = "-1", expect = ACCEPTABLE, desc = "not published yet")
+    @Outcome(id = "1", expect = ACCEPTABLE, desc = "the whole block")
+    @Outcome(expect = FORBIDDEN, desc = "the length word was seen before the payload")
+    @State
+    public static class Publish {
+
+        private final Queue queue = queue(new Options());
+
+        @Actor
+        public void producer() {
+            queue.offer(block(1));
+        }
+
+        @Actor
+        public void consumer(I_Result r) {
+            r.r1 = value(queue.poll());
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = "-1", expect = ACCEPTABLE, desc = "not published yet")
+    @Outcome(id = "1", expect = ACCEPTABLE, desc = "the whole block")
+    @Outcome(expect = FORBIDDEN, desc = "the length word was seen before the payload")
+    @State
+    public static class ClaimPublish {
+
+        private final Queue queue = queue(new Options().claimStrategy(ClaimStrategy.XADD));
+
+        @Actor
+        public void producer() {
+            queue.offer(block(1));
+        }
+
+        @Actor
+        public void consumer(I_Result r) {
+            r.r1 = value(queue.poll());
+        }
+    }
+
+    /**
+     * r1 the producers whose offer succeeded, r2 the blocks taken by the consumer and the arbiter,
+     * 1 for the first producer, 2 for the second, 8 is added for a duplicate and 16 for a torn block
+     */
+    @JCStressTest
+    @Outcome(id = "1, 1", expect = ACCEPTABLE_INTERESTING, desc = "the second producer lost the race")
+    @Outcome(id = "2, 2", expect = ACCEPTABLE_INTERESTING, desc = "the first producer lost the race")
+    @Outcome(id = "3, 3", expect = ACCEPTABLE, desc = "both blocks taken once")
+    @Outcome(expect = FORBIDDEN, desc = "a block lost, duplicated or torn")
+    @State
+    public static class TwoProducers {
+
+        private final Queue queue = queue(new Options());
+        private int offered1;
+        private int offered2;
+        private int seen;
+
+        @Actor
+        public void producer1() {
+            offered1 = queue.offer(block(1)) ? 1 : 0;
+        }
+
+        @Actor
+        public void producer2() {
+            offered2 = queue.offer(block(2)) ? 2 : 0;
+        }
+
+        @Actor
+        public void consumer() {
+            take(value(queue.poll()));
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            int value;
+            while ((value = value(queue.poll())) != EMPTY) {
+                take(value);
+            }
+            r.r1 = offered1 | offered2;
+            r.r2 = seen;
+        }
+
+        private void take(int value) {
+            if (value == TORN) {
+                seen += 16;
+            } else if (value != EMPTY) {
+                seen += (seen & value) != 0 ? 8 : value;
+            }
+        }
+    }
+
+    /**
+     * the same with fetch-and-add claims, no producer loses a race on an empty ring
+     */
+    @JCStressTest
+    @Outcome(id = "3, 3", expect = ACCEPTABLE, desc = "both blocks taken once")
+    @Outcome(expect = FORBIDDEN, desc = "a block lost, duplicated or torn")
+    @State
+    public static class TwoClaimingProducers {
+
+        private final Queue queue = queue(new Options().claimStrategy(ClaimStrategy.XADD));
+        private int offered1;
+        private int offered2;
+        private int seen;
+
+        @Actor
+        public void producer1() {
+            offered1 = queue.offer(block(1)) ? 1 : 0;
+        }
+
+        @Actor
+        public void producer2() {
+            offered2 = queue.offer(block(2)) ? 2 : 0;
+        }
+
+        @Actor
+        public void consumer() {
+            take(value(queue.poll()));
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            int value;
+            while ((value = value(queue.poll())) != EMPTY) {
+                take(value);
+            }
+            r.r1 = offered1 | offered2;
+            r.r2 = seen;
+        }
+
+        private void take(int value) {
+            if (value == TORN) {
+                seen += 16;
+            } else if (value != EMPTY) {
+                seen += (seen & value) != 0 ? 8 : value;
+            }
+        }
+    }
+
+    /**
+     * the same on a recoverable ring, where the producers lock the slot before they move the write cursor
+     */
+    @JCStressTest
+    @Outcome(id = "1, 1", expect = ACCEPTABLE_INTERESTING, desc = "the second producer lost the race")
+    @Outcome(id = "2, 2", expect = ACCEPTABLE_INTERESTING, desc = "the first producer lost the race")
+    @Outcome(id = "3, 3", expect = ACCEPTABLE, desc = "both blocks taken once")
+    @Outcome(expect = FORBIDDEN, desc = "a block lost, duplicated or torn")
+    @State
+    public static class TwoRecoverableProducers {
+
+        private final Queue queue = queue(new Options().recovery(1, TimeUnit.SECONDS));
+        private int offered1;
+        private int offered2;
+        private int seen;
+
+        @Actor
+        public void producer1() {
+            offered1 = queue.offer(block(1)) ? 1 : 0;
+        }
+
+        @Actor
+        public void producer2() {
+            offered2 = queue.offer(block(2)) ? 2 : 0;
+        }
+
+        @Actor
+        public void consumer() {
+            take(value(queue.poll()));
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            int value;
+            while ((value = value(queue.poll())) != EMPTY) {
+                take(value);
+            }
+            r.r1 = offered1 | offered2;
+            r.r2 = seen;
+        }
+
+        private void take(int value) {
+            if (value == TORN) {
+                seen += 16;
+            } else if (value != EMPTY) {
+                seen += (seen & value) != 0 ? 8 : value;
+            }
+        }
+    }
+
+    /**
+     * two consumers compete for one block
+     */
+    @JCStressTest
+    @Outcome(id = "1, -1", expect = ACCEPTABLE, desc = "the first consumer won")
+    @Outcome(id = "-1, 1", expect = ACCEPTABLE, desc = "the second consumer won")
+    @Outcome(expect = FORBIDDEN, desc = "the block taken twice, lost or torn")
+    @State
+    public static class TwoConsumers {
+
+        private final Queue queue = queue(new Options());
+
+        public TwoConsumers() {
+            queue.offer(block(1));
+        }
+
+        @Actor
+        public void consumer1(II_Result r) {
+            r.r1 = value(queue.poll());
+        }
+
+        @Actor
+        public void consumer2(II_Result r) {
+            r.r2 = value(queue.poll());
+        }
+    }
+
+    /**
+     * the producer of an overwrite ring laps a reader, the reader gets an intact block or nothing.
+     * the ring of 64 bytes holds three blocks of 20, the fourth overwrites the first
+     */
+    @JCStressTest
+    @Outcome(id = "-1", expect = ACCEPTABLE, desc = "not published yet")
+    @Outcome(id = "1", expect = ACCEPTABLE, desc = "the oldest block before the lap")
+    @Outcome(id = "2", expect = ACCEPTABLE_INTERESTING, desc = "lapped, resynced to the oldest intact block")
+    @Outcome(expect = FORBIDDEN, desc = "a torn or skipped block")
+    @State
+    public static class Overwrite {
+
+        private final Queue queue = Queue.map(HeapMemory.allocate(256 + 64),
+                new Options().overflowPolicy(OverflowPolicy.overwrite()));
+
+        public Overwrite() {
+            queue.offer(block(1));
+            queue.offer(block(2));
+            queue.offer(block(3));
+        }
+
+        @Actor
+        public void producer() {
+            queue.offer(block(4));
+        }
+
+        @Actor
+        public void consumer(I_Result r) {
+            r.r1 = value(queue.poll());
+        }
+    }
+
+    /**
+     * two consumers and a producer wrap the ring, a consumer that read the cursor before the lap
+     * finds the block of the next lap at the same offset and must leave it to the reader of that lap.
+     * the ring of 60 bytes holds blocks of 20 at the offsets 0, 20 and 40, the fourth lands on the first
+     */
+    @JCStressTest
+    @Outcome(id = "1", expect = ACCEPTABLE, desc = "every block taken once")
+    @Outcome(expect = FORBIDDEN, desc = "a block lost, duplicated or torn")
+    @State
+    public static class Wrap {
+
+        private final Queue queue = Queue.map(HeapMemory.allocate(256 + 60), new Options());
+        private final AtomicIntegerArray taken = new AtomicIntegerArray(5);
+        private int offered = 2;
+
+        public Wrap() {
+            queue.offer(block(1));
+            queue.offer(block(2));
+        }
+
+        private void take(Block block) {
+            int value = value(block);
+            if (value != EMPTY) {
+                taken.incrementAndGet(value);
+            }
+        }
+
+        @Actor
+        public void producer() {
+            if (queue.offer(block(3))) {
+                offered++;
+                if (queue.offer(block(4))) {
+                    offered++;
+                }
+            }
+        }
+
+        @Actor
+        public void consumer1() {
+            take(queue.poll());
+        }
+
+        @Actor
+        public void consumer2() {
+            take(queue.poll());
+            take(queue.poll());
+        }
+
+        @Arbiter
+        public void arbiter(I_Result r) {
+            for (Block block; (block = queue.poll()) != null; ) {
+                take(block);
+            }
+            boolean once = taken.get(TORN) == 0;
+            for (int value = 1; value < taken.length(); value++) {
+                once &= taken.get(value) == (value <= offered ? 1 : 0);
+            }
+            r.r1 = once ? 1 : 0;
+        }
+    }
+
+    /**
+     * the mixed sizes of {@link Wrap}: a producer and two consumers wrap a ring of 60 bytes with blocks of
+     * 28, 12, 16, 16 and 8 bytes, so the header of the fifth lands at 12, in the payload of the first.
+     * a consumer that read the cursor before the others moved it must neither take nor write to that block
+     */
+    @JCStressTest
+    @Outcome(id = "1", expect = ACCEPTABLE, desc = "every block taken once and whole")
+    @Outcome(expect = FORBIDDEN, desc = "a block lost, duplicated or torn")
+    @State
+    public static class MixedWrap {
+
+        private static final int[] LENGTHS = {0, 24, 8, 12, 12, 4};
+
+        private final Queue queue = Queue.map(HeapMemory.allocate(256 + 60), new Options());
+        private final AtomicIntegerArray taken = new AtomicIntegerArray(LENGTHS.length);
+        private int offered = 2;
+
+        public MixedWrap() {
+            queue.offer(block(1));
+            queue.offer(block(2));
+        }
+
+        private static Block block(int value) {
+            byte[] payload = new byte[LENGTHS[value]];
+            Arrays.fill(payload, (byte) value);
+            return new Block(payload);
+        }
+
+        private void take(Block block) {
+            if (block == null) {
+                return;
+            }
+            byte[] payload = block.getPayload();
+            int value = payload.length > 0 && payload[0] > 0 && payload[0] < LENGTHS.length ? payload[0] : TORN;
+            if (value != TORN && payload.length != LENGTHS[value]) {
+                value = TORN;
+            }
+            for (byte b : payload) {
+                if (b != value) {
+                    value = TORN;
+                    break;
+                }
+            }
+            taken.incrementAndGet(value);
+        }
+
+        @Actor
+        public void producer() {
+            for (int value = 3; value < LENGTHS.length && queue.offer(block(value)); value++) {
+                offered++;
+            }
+        }
+
+        @Actor
+        public void consumer1() {
+            take(queue.poll());
+        }
+
+        @Actor
+        public void consumer2() {
+            take(queue.poll());
+            take(queue.poll());
+        }
+
+        @Arbiter
+        public void arbiter(I_Result r) {
+            for (Block block; (block = queue.poll()) != null; ) {
+                take(block);
+            }
+            boolean once = taken.get(TORN) == 0;
+            for (int value = 1; value < taken.length(); value++) {
+                once &= taken.get(value) == (value <= offered ? 1 : 0);
+            }
+            r.r1 = once ? 1 : 0;
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2018 the original author or authors.
+ * Copyright (c) 2020 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,8 +16,12 @@
 
 package io.traffic.shm.async;
 
+import io.traffic.shm.memory.Accessor;
 import io.traffic.util.*;
 
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
 
 /**
  *
@@ -28,96 +32,439 @@ import io.traffic.util.*;
  *  | --- length -- | ---------- payload ---------- |
  *  | ------------------- block ------------------- |
  *
+ *  the length word is the commit word of a block:
+ *  0 means not yet published, a negative value -n is a padding of n bytes the reader skips.
+ *  it is written after the payload and cleared, together with the payload, once the block is consumed.
+ *  the header of a block of the next lap may land anywhere in the bytes of the previous one,
+ *  and a reader looks at it as soon as the write cursor has moved over it,
+ *  so every consumed byte is cleared and a reader never takes the leftovers of the previous lap for a block.
+ *  a reader takes a block by setting {@link Metadata#TAKEN} in the read cursor, which is still at the block,
+ *  and clears it before it moves the cursor past it, see {@code Queue#take}.
+ *  the length word is published with a release store and observed with an acquire load,
+ *  which orders the payload before it without the full fence of a volatile store.
+ *
+ *  when the length word reaches the end of the ring, the payload continues from {@link Metadata#ORIGIN_OFFSET}.
+ *
+ *  a ring created with {@link Options#latency(boolean)} puts an 8 bytes timestamp between the length word and the payload,
+ *  as two 4 bytes words so that it may wrap like the payload does. the length word still holds the payload length.
+ *
+ *  a ring created with {@link Options#recovery(long, java.util.concurrent.TimeUnit)} puts the pid of the producer
+ *  in a 4 bytes owner word right after the length word, ahead of the timestamp.
+ *  its producers mark the slot as soon as the write cursor has moved over it, the owner word first,
+ *  then the length word with a pending value that carries the size of the slot, see {@link #isPending(int)}.
+ *  a pending slot whose owner is gone is turned into a padding, so a crashed producer never stalls the ring.
+ *
+ *  a ring created with {@link Options#checksumPolicy(ChecksumPolicy)} puts a CRC32C of the payload in a 4 bytes word
+ *  behind the owner word and ahead of the timestamp, written before the length word is published.
+ *
+ *  a ring created with {@link Options#codec(Codec, int)} puts a 4 bytes codec word behind the checksum word:
+ *  0 for a payload stored as it is, {@link #ENCODED} | the length before encoding for an encoded one.
+ *  the length word and the checksum are those of the payload in the ring.
+ *
+ *  a ring created with {@link Options#fragmentation(int)} puts two 4 bytes words behind the codec word:
+ *  the frame word, {@link #BEGIN} and {@link #END} flags and the id of the message the fragment belongs to,
+ *  and the offset of the fragment in the message. a message that is not fragmented is a single fragment
+ *  with both flags. the codec word of a fragment is the one of its whole message.
+ *  a producer that gives up on a message ends it with a fragment at {@link #ABORTED}.
  *
  * @author cuiyi
  */
 public final class Block {
 
+    private static final int PENDING = Integer.MIN_VALUE;
+    private static final int PENDING_MASK = 0xC0000000;
+    private static final int SIZE_MASK = ~PENDING_MASK;
+
+    /**
+     * the largest slot of a recoverable ring, larger ones would not fit in a pending length word
+     */
+    static final long MAX_PENDING_SIZE = SIZE_MASK;
+
+    /**
+     * the flag of an encoded payload in the codec word
+     */
+    static final int ENCODED = Integer.MIN_VALUE;
+
+    /**
+     * the flags of the first and the last fragment of a message in the frame word, the rest is the id of the message
+     */
+    static final int BEGIN = Integer.MIN_VALUE;
+    static final int END = 0x40000000;
+    static final int WHOLE = BEGIN | END;
+    static final int MESSAGE_MASK = ~WHOLE;
+
+    /**
+     * the offset of the last fragment of a message its producer gave up on,
+     * it never matches the bytes reassembled so far and the consumer drops the message
+     */
+    static final int ABORTED = -1;
+
     private final int length;
-    private final byte[] payload;
+    private final int from;
+    private final int codec;
+    private final int frame;
+    private final int at;
+    private final byte[][] arrays;
+    private final ByteBuffer[] buffers;
+    private byte[] payload;
 
     public Block(byte[] payload) {
+        this(payload, 0);
+    }
+
+    /**
+     * a payload encoded by a {@link Codec}, with its codec word
+     */
+    Block(byte[] payload, int codec) {
         Assert.notEmpty(payload);
         this.length = payload.length;
         this.payload = payload;
+        this.from = 0;
+        this.codec = codec;
+        this.frame = WHOLE;
+        this.at = 0;
+        this.arrays = null;
+        this.buffers = null;
     }
 
-    public void serialize(long capacity, long address, long offset) {
-        long available = capacity - offset;
+    /**
+     * the concatenation of the parts, each one copied straight into the ring
+     */
+    Block(byte[][] parts) {
+        long length = 0;
+        for (byte[] part : parts) {
+            Assert.notNull(part, "The part must not be null");
+            length += part.length;
+        }
+        Assert.isTrue(length > 0 && length <= Integer.MAX_VALUE, "Illegal length of the parts, length = " + length);
+        this.length = (int) length;
+        this.from = 0;
+        this.codec = 0;
+        this.frame = WHOLE;
+        this.at = 0;
+        this.arrays = parts;
+        this.buffers = null;
+    }
 
-        if (available >= sizeof()) {
-            // no overflow
-            serialize(address, offset, available, capacity);
-        } else {
-            if (available < Constant.INT_SIZE) {
-                // whole block overflow
-                serialize(address, Metadata.ORIGIN_OFFSET, available, capacity);
-            } else if (available == Constant.INT_SIZE) {
-                // put length in, but payload overflow
-                serialize(address, offset, available, capacity);
-            } else {
-                // payload overflow
-                withLength(address, offset);
-                offset += Constant.INT_SIZE;
-                available -= Constant.INT_SIZE;
+    /**
+     * the concatenation of the remaining bytes of the buffers, their positions are left unchanged
+     */
+    Block(ByteBuffer[] parts) {
+        long length = 0;
+        for (ByteBuffer part : parts) {
+            Assert.notNull(part, "The part must not be null");
+            length += part.remaining();
+        }
+        Assert.isTrue(length > 0 && length <= Integer.MAX_VALUE, "Illegal length of the parts, length = " + length);
+        this.length = (int) length;
+        this.from = 0;
+        this.codec = 0;
+        this.frame = WHOLE;
+        this.at = 0;
+        this.arrays = null;
+        this.buffers = parts;
+    }
 
-                if (available > 0) {
-                    UNSAFE.setBytes(payload, address + offset, available);
-                }
-                UNSAFE.setBytes(payload, available, address + Metadata.ORIGIN_OFFSET, length - available);
+    /**
+     * a fragment of a message, [from, from + length) of the payload, at is where it starts in the message
+     */
+    Block(byte[] payload, int from, int length, int codec, int frame, int at) {
+        Assert.notEmpty(payload);
+        Assert.isTrue(length > 0 && from + length <= payload.length, "Illegal fragment");
+        this.length = length;
+        this.payload = payload;
+        this.from = from;
+        this.codec = codec;
+        this.frame = frame;
+        this.at = at;
+        this.arrays = null;
+        this.buffers = null;
+    }
+
+    public void serialize(long capacity, Accessor accessor, long offset) {
+        offset = head(capacity, offset);
+        write(capacity, accessor, next(capacity, offset));
+        // publish
+        accessor.putOrderedInt(offset, this.length);
+    }
+
+    /**
+     * serialize behind the owner word of a recoverable ring, which is already written
+     */
+    void serialize(long capacity, Accessor accessor, long offset, int skip) {
+        offset = head(capacity, offset);
+        write(capacity, accessor, skip(capacity, next(capacity, offset), skip));
+        // publish
+        accessor.putOrderedInt(offset, this.length);
+    }
+
+    /**
+     * serialize with a timestamp in front of the payload, skip is the size of the owner word if any
+     */
+    void serialize(long capacity, Accessor accessor, long offset, int skip, long timestamp) {
+        offset = head(capacity, offset);
+        long position = skip(capacity, next(capacity, offset), skip);
+        accessor.putInt(position, (int) (timestamp >>> 32));
+        position = next(capacity, position);
+        accessor.putInt(position, (int) timestamp);
+        write(capacity, accessor, next(capacity, position));
+        // publish
+        accessor.putOrderedInt(offset, this.length);
+    }
+
+    /**
+     * write the checksum of the payload behind the owner word, skip is its size if any
+     */
+    void sign(long capacity, Accessor accessor, long offset, int skip) {
+        accessor.putInt(skip(capacity, next(capacity, head(capacity, offset)), skip), checksum());
+    }
+
+    /**
+     * write the codec word behind the owner and the checksum words, skip is their size
+     */
+    void code(long capacity, Accessor accessor, long offset, int skip) {
+        accessor.putInt(skip(capacity, next(capacity, head(capacity, offset)), skip), codec);
+    }
+
+    /**
+     * write the frame word and the offset of the fragment behind the owner, the checksum and the codec words
+     */
+    void fragment(long capacity, Accessor accessor, long offset, int skip) {
+        long position = skip(capacity, next(capacity, head(capacity, offset)), skip);
+        accessor.putInt(position, frame);
+        accessor.putInt(next(capacity, position), at);
+    }
+
+    /**
+     * the CRC32C of the payload
+     */
+    int checksum() {
+        CRC32C crc = new CRC32C();
+        if (arrays != null) {
+            for (byte[] part : arrays) {
+                crc.update(part, 0, part.length);
+            }
+        } else if (buffers != null) {
+            for (ByteBuffer part : buffers) {
+                crc.update(part.duplicate());
             }
+        } else {
+            crc.update(payload, from, length);
         }
+        return (int) crc.getValue();
     }
 
-    public void serialize(long address, long offset, long available, long capacity) {
-        withLength(address, offset);
-        offset += Constant.INT_SIZE;
-        if (available == Constant.INT_SIZE) {
-            withPayload(address, Metadata.ORIGIN_OFFSET);
+    private void write(long capacity, Accessor accessor, long position) {
+        if (arrays != null) {
+            for (byte[] part : arrays) {
+                position = write(capacity, accessor, position, part, 0, part.length);
+            }
+        } else if (buffers != null) {
+            for (ByteBuffer part : buffers) {
+                position = write(capacity, accessor, position, part, part.remaining());
+            }
         } else {
-            withPayload(address, offset);
+            write(capacity, accessor, position, payload, from, length);
         }
     }
 
-    private void withLength(long address, long offset) {
-        UNSAFE.putIntVolatile(address + offset, this.length);
-    }
+    /**
+     * @return the position after the bytes
+     */
+    private static long write(long capacity, Accessor accessor, long position, byte[] src, int from, int length) {
+        long available = capacity - position;
 
-    private void withPayload(long address, long offset) {
-        UNSAFE.setBytes(this.payload, address + offset, this.length);
+        if (available >= length) {
+            // no overflow
+            accessor.setBytes(src, from, position, length);
+            return position + length;
+        }
+        // payload overflow
+        accessor.setBytes(src, from, position, available);
+        accessor.setBytes(src, from + available, Metadata.ORIGIN_OFFSET, length - available);
+        return Metadata.ORIGIN_OFFSET + length - available;
     }
 
-    public static Block deserialize(long capacity, long address, long offset) {
-        long available = capacity - offset;
-        if (available < Constant.INT_SIZE) {
-            return deserialize(address, Metadata.ORIGIN_OFFSET, capacity - Metadata.ORIGIN_OFFSET, capacity);
-        } else {
-            return deserialize(address, offset, available, capacity);
+    private static long write(long capacity, Accessor accessor, long position, ByteBuffer src, int length) {
+        long available = capacity - position;
+
+        if (available >= length) {
+            accessor.setBytes(src, 0, position, length);
+            return position + length;
         }
+        accessor.setBytes(src, 0, position, available);
+        accessor.setBytes(src, available, Metadata.ORIGIN_OFFSET, length - available);
+        return Metadata.ORIGIN_OFFSET + length - available;
     }
 
-    private static Block deserialize(long address, long offset, long available, long capacity) {
-        int length = UNSAFE.getIntVolatile(address + offset);
-
+    /**
+     * read the block at offset without consuming it, null if it is not published or a padding
+     */
+    public static Block deserialize(long capacity, Accessor accessor, long offset) {
+        int length = length(capacity, accessor, offset);
         if (length <= 0 || length > capacity) {
             return null;
         }
-        offset += Constant.INT_SIZE;
-        available -= Constant.INT_SIZE;
+        return deserialize(capacity, accessor, offset, length, 0);
+    }
+
+    /**
+     * read the payload behind the owner word and the timestamp, skip is their size
+     */
+    static Block deserialize(long capacity, Accessor accessor, long offset, int length, int skip) {
+        return read(capacity, accessor, skip(capacity, next(capacity, head(capacity, offset)), skip), length);
+    }
+
+    /**
+     * the timestamp of a block that has one, skip is the size of the owner word if any
+     */
+    static long stamp(long capacity, Accessor accessor, long offset, int skip) {
+        long position = skip(capacity, next(capacity, head(capacity, offset)), skip);
+        long high = accessor.getInt(position);
+        long low = accessor.getInt(next(capacity, position)) & 0xFFFFFFFFL;
+        return high << 32 | low;
+    }
+
+    /**
+     * the checksum of a block that has one, skip is the size of the owner word if any
+     */
+    static int checksum(long capacity, Accessor accessor, long offset, int skip) {
+        return accessor.getInt(skip(capacity, next(capacity, head(capacity, offset)), skip));
+    }
+
+    /**
+     * the codec word of a block that has one, skip is the size of the owner and the checksum words
+     */
+    static int codec(long capacity, Accessor accessor, long offset, int skip) {
+        return accessor.getInt(skip(capacity, next(capacity, head(capacity, offset)), skip));
+    }
+
+    /**
+     * the frame word of a block that has one, skip is the size of the owner, the checksum and the codec words
+     */
+    static int frame(long capacity, Accessor accessor, long offset, int skip) {
+        return accessor.getInt(skip(capacity, next(capacity, head(capacity, offset)), skip));
+    }
+
+    /**
+     * the offset of a fragment in its message, skip is the size of the words in front of the frame word
+     */
+    static int at(long capacity, Accessor accessor, long offset, int skip) {
+        return accessor.getInt(next(capacity, skip(capacity, next(capacity, head(capacity, offset)), skip)));
+    }
+
+    private static Block read(long capacity, Accessor accessor, long position, int length) {
+        long available = capacity - position;
 
         byte[] payload = new byte[length];
 
         if (available >= length) {
-            UNSAFE.getBytes(address + offset, payload, length);
+            accessor.getBytes(position, payload, 0, length);
         } else {
-            if (available > 0) {
-                UNSAFE.getBytes(address + offset, payload, available);
-            }
-            UNSAFE.getBytes(address + Metadata.ORIGIN_OFFSET, payload, available, length - available);
+            accessor.getBytes(position, payload, 0, available);
+            accessor.getBytes(Metadata.ORIGIN_OFFSET, payload, available, length - available);
         }
         return new Block(payload);
     }
 
+    /**
+     * the length word of the block at offset
+     */
+    static int length(long capacity, Accessor accessor, long offset) {
+        return accessor.getIntAcquire(head(capacity, offset));
+    }
+
+    /**
+     * fill [offset, offset + size) with a padding the reader skips
+     */
+    static void pad(long capacity, Accessor accessor, long offset, long size) {
+        accessor.putOrderedInt(head(capacity, offset), (int) -size);
+    }
+
+    /**
+     * turn the first block of a released batch into a padding over the whole batch,
+     * a volatile store since the releasing consumer looks at the read cursor right after it
+     */
+    static void release(long capacity, Accessor accessor, long offset, long size) {
+        accessor.putIntVolatile(head(capacity, offset), (int) -size);
+    }
+
+    /**
+     * mark a slot the write cursor has moved over as pending, the owner word is ordered before the length word.
+     * nothing is written to a slot before it is claimed, a producer that loaded the cursor before a lap
+     * loses the claim and never reaches the bytes of the blocks of that lap
+     */
+    static void reserve(long capacity, Accessor accessor, long offset, long size, int owner) {
+        offset = head(capacity, offset);
+        accessor.putInt(next(capacity, offset), owner);
+        accessor.putOrderedInt(offset, pending(size));
+    }
+
+    /**
+     * turn the pending slot of a producer that is gone into a padding the readers skip
+     */
+    static boolean abandon(long capacity, Accessor accessor, long offset, int pending) {
+        return accessor.compareAndSwapInt(head(capacity, offset), pending, -pendingSize(pending));
+    }
+
+    /**
+     * whether a length word is held by a producer of a recoverable ring,
+     * a padding is never larger than {@link #MAX_PENDING_SIZE} so the two never meet
+     */
+    static boolean isPending(int length) {
+        return (length & PENDING_MASK) == PENDING;
+    }
+
+    static int pending(long size) {
+        return PENDING | (int) size;
+    }
+
+    static int pendingSize(int pending) {
+        return pending & SIZE_MASK;
+    }
+
+    /**
+     * the pid of the producer of a recoverable ring, written before its slot is marked pending
+     */
+    static int owner(long capacity, Accessor accessor, long offset) {
+        return accessor.getIntVolatile(next(capacity, head(capacity, offset)));
+    }
+
+    /**
+     * zero [offset, offset + size) once the block is consumed.
+     * a producer moves the write cursor before it writes the length word, in either claim strategy,
+     * so any word of the range may be read as a header of the next lap and none can be left out.
+     * it costs 10% to 35% of a roundtrip against clearing the length word alone
+     * (TestBenchmark.roundtrip, DIRECT, 1 MiB, 64 B to 64 KiB payloads)
+     */
+    static void clear(long capacity, Accessor accessor, long offset, long size) {
+        long available = capacity - offset;
+        if (available >= size) {
+            accessor.setMemory(offset, size, (byte) 0);
+        } else {
+            accessor.setMemory(offset, available, (byte) 0);
+            accessor.setMemory(Metadata.ORIGIN_OFFSET, size - available, (byte) 0);
+        }
+    }
+
+    private static long head(long capacity, long offset) {
+        // whole block overflow
+        return capacity - offset < Constant.INT_SIZE ? Metadata.ORIGIN_OFFSET : offset;
+    }
+
+    private static long next(long capacity, long offset) {
+        offset += Constant.INT_SIZE;
+        // put length in, but payload overflow
+        return offset == capacity ? Metadata.ORIGIN_OFFSET : offset;
+    }
+
+    private static long skip(long capacity, long offset, int bytes) {
+        for (int i = 0; i < bytes; i += Constant.INT_SIZE) {
+            offset = next(capacity, offset);
+        }
+        return offset;
+    }
+
     public long sizeof() {
         return cost(length);
     }
@@ -126,11 +473,47 @@ public final class Block {
         return Util.align(length, Constant.SIZE);
     }
 
-    private static long cost(long length) {
+    static long cost(long length) {
         return Constant.INT_SIZE + align(length);
     }
 
+    /**
+     * the payload, the parts of a gathered block are concatenated on the first call
+     */
     public byte[] getPayload() {
+        if (payload == null) {
+            byte[] bytes = new byte[length];
+            int position = 0;
+            if (arrays != null) {
+                for (byte[] part : arrays) {
+                    System.arraycopy(part, 0, bytes, position, part.length);
+                    position += part.length;
+                }
+            } else {
+                for (ByteBuffer part : buffers) {
+                    int remaining = part.remaining();
+                    part.duplicate().get(bytes, position, remaining);
+                    position += remaining;
+                }
+            }
+            payload = bytes;
+        }
         return payload;
     }
+
+    int length() {
+        return length;
+    }
+
+    int codec() {
+        return codec;
+    }
+
+    int frame() {
+        return frame;
+    }
+
+    int at() {
+        return at;
+    }
 }
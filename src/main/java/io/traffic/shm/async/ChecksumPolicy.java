@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.async;
+
+/**
+ * Integrity policy of a {@link Queue}.
+ *
+ * <ul>
+ * <li>{@link #none()}: blocks carry no checksum (default)</li>
+ * <li>{@link #skip()}: every block carries a CRC32C of its payload, a block that does not match it is dropped</li>
+ * <li>{@link #fail()}: every block carries a CRC32C of its payload, a block that does not match it fails the poll</li>
+ * </ul>
+ *
+ * The checksum word sits in front of the payload of every block, a queue attached to a ring
+ * whose blocks carry one verifies them with {@link #fail()} unless it asks for {@link #skip()}.
+ * {@link java.util.zip.CRC32C} is an intrinsic on SSE4.2 and ARMv8, it costs about a cycle per 8 bytes on each side.
+ *
+ * @author cuiyi
+ */
+public final class ChecksumPolicy {
+
+    enum Mode {
+        NONE, SKIP, FAIL
+    }
+
+    private static final ChecksumPolicy NONE = new ChecksumPolicy(Mode.NONE);
+    private static final ChecksumPolicy SKIP = new ChecksumPolicy(Mode.SKIP);
+    private static final ChecksumPolicy FAIL = new ChecksumPolicy(Mode.FAIL);
+
+    private final Mode mode;
+
+    private ChecksumPolicy(Mode mode) {
+        this.mode = mode;
+    }
+
+    public static ChecksumPolicy none() {
+        return NONE;
+    }
+
+    public static ChecksumPolicy skip() {
+        return SKIP;
+    }
+
+    public static ChecksumPolicy fail() {
+        return FAIL;
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    @Override
+    public String toString() {
+        return "ChecksumPolicy{mode=" + mode + "}";
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.async;
+
+/**
+ * How a producer claims space on the write cursor.
+ *
+ * @author cuiyi
+ */
+public enum ClaimStrategy {
+
+    /**
+     * compare-and-swap the write cursor, a producer losing the race fails the offer
+     */
+    CAS,
+
+    /**
+     * fetch-and-add the write cursor, every producer claims its space in one atomic step.
+     *
+     * a producer only claims when the ring keeps 1/8 of its capacity free besides its block,
+     * so that the claims of concurrent producers fit as well.
+     * a claim that still overshoots is rolled back, or turned into a padding once the reader makes room
+     * if other producers have claimed after it.
+     *
+     * best combined with a native byte order, otherwise the fetch-and-add is a CAS loop over swapped values.
+     */
+    XADD
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.async;
+
+import io.traffic.util.LZ4;
+
+/**
+ * How a {@link Queue} encodes large payloads on offer and decodes them on poll, see {@link Options#codec(Codec, int)}.
+ *
+ * A codec is stateless, one instance is shared by every producer and consumer of a queue.
+ * The consumers must use the codec of the producers, the ring only records that a block is encoded.
+ *
+ * @author cuiyi
+ */
+public interface Codec {
+
+    /**
+     * @return the encoded payload, null if it is not smaller than the payload
+     */
+    byte[] encode(byte[] payload);
+
+    /**
+     * @param length the length of the payload before it was encoded
+     */
+    byte[] decode(byte[] encoded, int length);
+
+    /**
+     * the LZ4 block format, a few hundred MB/s per core on text such as JSON
+     */
+    static Codec lz4() {
+        return new Codec() {
+            @Override
+            public byte[] encode(byte[] payload) {
+                byte[] encoded = new byte[payload.length - 1];
+                int length = LZ4.compress(payload, payload.length, encoded);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] trimmed = new byte[length];
+                System.arraycopy(encoded, 0, trimmed, 0, length);
+                return trimmed;
+            }
+
+            @Override
+            public byte[] decode(byte[] encoded, int length) {
+                byte[] payload = new byte[length];
+                LZ4.decompress(encoded, encoded.length, payload, length);
+                return payload;
+            }
+
+            @Override
+            public String toString() {
+                return "Codec{lz4}";
+            }
+        };
+    }
+}
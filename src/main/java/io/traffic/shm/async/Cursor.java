@@ -16,18 +16,18 @@
 
 package io.traffic.shm.async;
 
-import io.traffic.util.UNSAFE;
+import io.traffic.shm.memory.Accessor;
 
 /**
  * @author cuiyi
  */
 public class Cursor {
 
-    private final long address;
+    private final Accessor accessor;
     private final int offset;
 
-    public Cursor(long address, int offset) {
-        this.address = address;
+    public Cursor(Accessor accessor, int offset) {
+        this.accessor = accessor;
         this.offset = offset;
     }
 
@@ -41,10 +41,24 @@ public class Cursor {
     }
 
     public boolean update(long expected, long value) {
-        return UNSAFE.compareAndSwapLong(address + offset, expected, value);
+        return accessor.compareAndSwapLong(offset, expected, value);
     }
 
+    /**
+     * a release store, for the one who holds the cursor, e.g. the reader that took the block at it
+     */
+    public void set(long value) {
+        accessor.putOrderedLong(offset, value);
+    }
+
+    public long getAndAdd(long delta) {
+        return accessor.getAndAddLong(offset, delta);
+    }
+
+    /**
+     * an acquire load, the cursors only move by compare-and-swap or get-and-add, which publish what precedes them
+     */
     public long offset() {
-        return UNSAFE.getLongVolatile(address + offset);
+        return accessor.getLongAcquire(offset);
     }
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.async;
+
+import io.traffic.util.Assert;
+import io.traffic.util.Tracer;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One thread that serves any number of {@link QueuePublisher}s and {@link QueueSubscriber}s.
+ *
+ * Every round runs each registered task once, a task moves at most one batch so the queues share the thread fairly.
+ * The thread waits with the idle strategy after a round without progress,
+ * and a new demand or a block parked by a full ring wakes it up.
+ *
+ * @author cuiyi
+ */
+public final class FlowScheduler implements Runnable {
+
+    /**
+     * a unit of work run once per round
+     */
+    interface Task {
+
+        /**
+         * @return the number of blocks moved, 0 if none
+         */
+        int execute();
+    }
+
+    private final CopyOnWriteArrayList<Task> tasks = new CopyOnWriteArrayList<Task>();
+    private final IdleStrategy idleStrategy;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    private FlowScheduler(IdleStrategy idleStrategy) {
+        this.idleStrategy = idleStrategy;
+    }
+
+    public static FlowScheduler start() {
+        return start(IdleStrategy.backoff());
+    }
+
+    public static FlowScheduler start(IdleStrategy idleStrategy) {
+        Assert.notNull(idleStrategy, "IdleStrategy must not be null");
+        FlowScheduler scheduler = new FlowScheduler(idleStrategy);
+        scheduler.running = true;
+        Thread t = new Thread(scheduler, "traffic-shm-flow");
+        t.setDaemon(true);
+        scheduler.thread = t;
+        t.start();
+        return scheduler;
+    }
+
+    void register(Task task) {
+        Assert.isTrue(running, "The scheduler is closed");
+        tasks.add(task);
+        wakeup();
+    }
+
+    void deregister(Task task) {
+        tasks.remove(task);
+    }
+
+    void wakeup() {
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * stop the thread, the tasks still registered are dropped without a signal
+     */
+    public void close() {
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(t);
+        if (t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        thread = null;
+        tasks.clear();
+    }
+
+    /**
+     * the number of registered tasks
+     */
+    public int size() {
+        return tasks.size();
+    }
+
+    @Override
+    public void run() {
+        int attempt = 0;
+        while (running) {
+            int moved = 0;
+            for (Task task : tasks) {
+                try {
+                    moved += task.execute();
+                } catch (RuntimeException ex) {
+                    Tracer.println("flow task failed: " + ex);
+                    tasks.remove(task);
+                }
+            }
+            if (moved > 0) {
+                attempt = 0;
+            } else {
+                idleStrategy.idle(attempt);
+                // the thread lives as long as the process, the count must not wrap around
+                attempt = Math.min(attempt + 1, Integer.MAX_VALUE - 1);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FlowScheduler{tasks=" + tasks.size() + ", running=" + running + "}";
+    }
+}
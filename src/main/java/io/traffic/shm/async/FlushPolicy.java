@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.async;
+
+import io.traffic.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durability policy of a {@link Queue}.
+ *
+ * <ul>
+ * <li>{@link #none()}: never msync, for files on tmpfs such as /dev/shm</li>
+ * <li>{@link #onClose()}: msync the whole file once when the queue is closed (default)</li>
+ * <li>{@link #periodic(long, TimeUnit)}: a background thread flushes the dirty range periodically</li>
+ * <li>{@link #every(long, long)}: a background thread flushes the dirty range every N messages or bytes</li>
+ * <li>{@link #sync()}: the producer flushes its own block before offer returns</li>
+ * </ul>
+ *
+ * Only {@link #sync()} ever blocks a producer on the storage device.
+ *
+ * @author cuiyi
+ */
+public final class FlushPolicy {
+
+    enum Mode {
+        NONE, CLOSE, PERIODIC, THRESHOLD, SYNC
+    }
+
+    private static final FlushPolicy NONE = new FlushPolicy(Mode.NONE, 0, Long.MAX_VALUE, Long.MAX_VALUE);
+    private static final FlushPolicy CLOSE = new FlushPolicy(Mode.CLOSE, 0, Long.MAX_VALUE, Long.MAX_VALUE);
+    private static final FlushPolicy SYNC = new FlushPolicy(Mode.SYNC, 0, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private final Mode mode;
+    private final long intervalNanos;
+    private final long messages;
+    private final long bytes;
+
+    private FlushPolicy(Mode mode, long intervalNanos, long messages, long bytes) {
+        this.mode = mode;
+        this.intervalNanos = intervalNanos;
+        this.messages = messages;
+        this.bytes = bytes;
+    }
+
+    public static FlushPolicy none() {
+        return NONE;
+    }
+
+    public static FlushPolicy onClose() {
+        return CLOSE;
+    }
+
+    public static FlushPolicy sync() {
+        return SYNC;
+    }
+
+    public static FlushPolicy periodic(long interval, TimeUnit unit) {
+        Assert.isTrue(interval > 0, "The flush interval must greater than 0");
+        Assert.notNull(unit, "TimeUnit must not be null");
+        return new FlushPolicy(Mode.PERIODIC, unit.toNanos(interval), Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param messages flush after this many messages, 0 to disable
+     * @param bytes flush after this many bytes, 0 to disable
+     */
+    public static FlushPolicy every(long messages, long bytes) {
+        Assert.isTrue(messages >= 0 && bytes >= 0, "The flush threshold must not be negative");
+        Assert.isTrue(messages > 0 || bytes > 0, "At least one flush threshold must be specified");
+        return new FlushPolicy(Mode.THRESHOLD, 0,
+                messages > 0 ? messages : Long.MAX_VALUE,
+                bytes > 0 ? bytes : Long.MAX_VALUE);
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    long getMessages() {
+        return messages;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    boolean isBackground() {
+        return mode == Mode.PERIODIC || mode == Mode.THRESHOLD;
+    }
+
+    boolean isDurable() {
+        return mode != Mode.NONE;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushPolicy{mode=" + mode + ", intervalNanos=" + intervalNanos
+                + ", messages=" + messages + ", bytes=" + bytes + "}";
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.async;
+
+import io.traffic.shm.memory.Memory;
+import io.traffic.util.Tracer;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the dirty range of a queue back to the storage device off the producer's path.
+ *
+ * The range between the last flushed position and the write cursor is flushed on every round,
+ * starting from the write cursor at {@link #start()}.
+ * A block may still be in flight when its position is claimed, so each round starts from
+ * the position observed one round earlier and every byte is written back at least twice.
+ * The range the readers have cleared since the last round is flushed as well, so the free space on the device
+ * reads as zeros like in memory and a ring reopened after a crash never takes the leftovers of a block for a header.
+ * The blocks are cleared before the read cursor moves, so that range needs a single round.
+ *
+ * A failed background flush is counted and the first failure is thrown by {@link #stop()},
+ * a {@link FlushPolicy#sync()} flush throws on the spot.
+ *
+ * @author cuiyi
+ */
+class Flusher implements Runnable {
+
+    private final Memory memory;
+    private final FlushPolicy policy;
+    private final Cursor writeCursor;
+    private final Cursor readCursor;
+    private final long capacity;
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile RuntimeException failure;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    private long from;
+    private long mark;
+    private long cleared;
+
+    Flusher(Memory memory, FlushPolicy policy, Cursor writeCursor, Cursor readCursor, long capacity) {
+        this.memory = memory;
+        this.policy = policy;
+        this.writeCursor = writeCursor;
+        this.readCursor = readCursor;
+        this.capacity = capacity;
+    }
+
+    void start() {
+        if (!policy.isBackground()) {
+            return;
+        }
+        from = mark = writeCursor.offset() & ~Metadata.SEALED;
+        cleared = readCursor.offset() & ~Metadata.TAKEN;
+        running = true;
+        Thread t = new Thread(this, "traffic-shm-flusher");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    /**
+     * @throws IOException the first background flush that failed
+     */
+    void stop() throws IOException {
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(t);
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        RuntimeException ex = failure;
+        if (ex != null) {
+            throw new IOException("The queue was not flushed", ex);
+        }
+    }
+
+    /**
+     * the number of background flushes that failed
+     */
+    long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * called by the producer once a block of the given size is serialized
+     */
+    void written(long write, long size) {
+        switch (policy.getMode()) {
+            case SYNC:
+                flush(write, write + size);
+                break;
+            case THRESHOLD:
+                long m = messages.incrementAndGet();
+                long b = bytes.addAndGet(size);
+                if (m >= policy.getMessages() || b >= policy.getBytes()) {
+                    LockSupport.unpark(thread);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * called by the reader once a block of the given size is cleared, before the read cursor moves past it
+     */
+    void cleared(long read, long size) {
+        if (policy.getMode() == FlushPolicy.Mode.SYNC) {
+            flush(read, read + size);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            if (policy.getMode() == FlushPolicy.Mode.PERIODIC) {
+                LockSupport.parkNanos(this, policy.getIntervalNanos());
+            } else {
+                LockSupport.park(this);
+            }
+            try {
+                flush();
+            } catch (RuntimeException ex) {
+                failures.incrementAndGet();
+                if (failure == null) {
+                    failure = ex;
+                }
+                Tracer.println("flush failed: " + ex);
+            }
+        }
+    }
+
+    private void flush() {
+        messages.set(0);
+        bytes.set(0);
+
+        long write = writeCursor.offset() & ~Metadata.SEALED;
+        long read = readCursor.offset() & ~Metadata.TAKEN;
+        force(cleared, read);
+        flush(from, write);
+        from = mark;
+        mark = write;
+        cleared = read;
+    }
+
+    private void flush(long from, long to) {
+        force(from, to);
+        // the cursors live in the first page
+        memory.force(0, Metadata.ORIGIN_OFFSET);
+    }
+
+    private void force(long from, long to) {
+        if (to > from) {
+            long length = capacity - Metadata.ORIGIN_OFFSET;
+            if (to - from >= length) {
+                memory.force(Metadata.ORIGIN_OFFSET, length);
+            } else {
+                long start = rescale(from);
+                long end = rescale(to);
+                if (start < end) {
+                    memory.force(start, end - start);
+                } else {
+                    memory.force(start, capacity - start);
+                    memory.force(Metadata.ORIGIN_OFFSET, end - Metadata.ORIGIN_OFFSET);
+                }
+            }
+        }
+    }
+
+    private long rescale(long value) {
+        return Cursor.rescale(value, Metadata.ORIGIN_OFFSET, this.capacity);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.async;
+
+/**
+ * Receives the fragments of the messages of a {@link Queue} as they arrive, see {@link Queue#poll(FragmentHandler)},
+ * so a message larger than the memory at hand can be written out piece by piece.
+ *
+ * The fragments of one message arrive in order, those of different producers may interleave.
+ * A message that is not fragmented, or that is encoded by a {@link Codec}, arrives as a single fragment.
+ *
+ * @author cuiyi
+ */
+public interface FragmentHandler {
+
+    /**
+     * @param message the id of the message, 0 for a message that is not fragmented
+     * @param fragment the bytes of the fragment, owned by the handler
+     * @param offset where the fragment starts in the message
+     * @param last whether the fragment ends the message
+     */
+    void onFragment(int message, byte[] fragment, int offset, boolean last);
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.async;
+
+import io.traffic.util.Assert;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * A member of the group of competing consumers of a {@link Queue}.
+ *
+ * The members share a claim cursor in the metadata and take a whole batch of published blocks
+ * with a single CAS on it, so they contend once per batch instead of once per block
+ * and copy their blocks out of the ring in parallel.
+ * A released batch becomes one padding, and the read cursor, which the producers wait on,
+ * moves over the released batches at its head in claim order.
+ *
+ * A queue consumed by a group must not be polled with {@link Queue#poll()} nor use {@link OverflowPolicy#overwrite()}.
+ * A member holds the space of its batch until it releases it, a member that dies holding a batch
+ * stops the read cursor there.
+ *
+ * Each member keeps its own counters, it is meant to be used by a single thread.
+ *
+ * @author cuiyi
+ */
+public final class GroupConsumer {
+
+    final Queue.Stall stall = new Queue.Stall();
+
+    private Queue ring;
+
+    private long batches;
+    private long records;
+    private long bytes;
+    private long emptyClaims;
+    private long retries;
+
+    private GroupConsumer(Queue ring) {
+        this.ring = ring;
+    }
+
+    public static GroupConsumer join(Queue queue) {
+        Assert.notNull(queue, "Queue must not be null");
+        return new GroupConsumer(queue.head());
+    }
+
+    public Batch claim(int maxRecords) {
+        return claim(maxRecords, Long.MAX_VALUE);
+    }
+
+    /**
+     * claim up to maxRecords blocks and maxBytes of payload, a batch holds at least one block
+     *
+     * @return null if nothing is published
+     */
+    public Batch claim(int maxRecords, long maxBytes) {
+        Assert.isTrue(maxRecords > 0, "maxRecords must greater than 0");
+        Assert.isTrue(maxBytes > 0, "maxBytes must greater than 0");
+        for (;;) {
+            Batch batch = ring.claim(this, maxRecords, maxBytes);
+            if (batch == null) {
+                Queue successor;
+                if (ring.isClaimed() && (successor = ring.successor()) != null) {
+                    ring = successor;
+                    continue;
+                }
+                emptyClaims++;
+                return null;
+            }
+            if (batch.size() == 0) {
+                // a padding
+                release(batch);
+                continue;
+            }
+            batches++;
+            records += batch.size();
+            bytes += batch.bytes();
+            return batch;
+        }
+    }
+
+    public void release(Batch batch) {
+        Assert.notNull(batch, "Batch must not be null");
+        Assert.isTrue(!batch.released, "The batch is already released");
+        batch.released = true;
+        batch.ring.release(batch);
+    }
+
+    /**
+     * claim a batch, hand its blocks to the handler and release it
+     *
+     * @return the number of blocks handled
+     */
+    public int poll(int maxRecords, Consumer<Block> handler) {
+        Assert.notNull(handler, "Handler must not be null");
+        Batch batch = claim(maxRecords);
+        if (batch == null) {
+            return 0;
+        }
+        try {
+            for (Block block : batch) {
+                handler.accept(block);
+            }
+        } finally {
+            release(batch);
+        }
+        return batch.size();
+    }
+
+    void retried() {
+        retries++;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getEmptyClaims() {
+        return emptyClaims;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    @Override
+    public String toString() {
+        return "GroupConsumer{batches=" + batches + ", records=" + records + ", bytes=" + bytes
+                + ", emptyClaims=" + emptyClaims + ", retries=" + retries + "}";
+    }
+
+    /**
+     * The blocks claimed by one member, copied out of the ring as they are iterated.
+     */
+    public static final class Batch implements Iterable<Block> {
+
+        final Queue ring;
+        final long start;
+        final long end;
+        private final int count;
+        private final long bytes;
+
+        private boolean released;
+
+        Batch(Queue ring, long start, long end, int count, long bytes) {
+            this.ring = ring;
+            this.start = start;
+            this.end = end;
+            this.count = count;
+            this.bytes = bytes;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * the payload bytes of the batch
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        @Override
+        public Iterator<Block> iterator() {
+            return new Iterator<Block>() {
+                private long position = start;
+                private Block next = advance();
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Block next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Block block = next;
+                    next = advance();
+                    return block;
+                }
+
+                private Block advance() {
+                    while (position < end && !released) {
+                        long at = position;
+                        position += ring.sizeAt(at);
+                        // paddings, and blocks dropped by ChecksumPolicy.skip()
+                        Block block = ring.blockAt(at);
+                        if (block != null) {
+                            return block;
+                        }
+                    }
+                    return null;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.async;
+
+import io.traffic.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Online capacity growth of a file based {@link Queue}.
+ *
+ * When the ring stays full for a while, the producer creates a successor file twice as large,
+ * named after the first file with the generation as suffix, e.g. /dev/shm/ashm.1, and seals the full ring.
+ * New blocks go to the successor, readers drain the sealed ring and then switch over.
+ *
+ * @author cuiyi
+ */
+public final class GrowthPolicy {
+
+    private static final GrowthPolicy NONE = new GrowthPolicy(0, 0);
+
+    private final long maxSize;
+    private final long fullNanos;
+
+    private GrowthPolicy(long maxSize, long fullNanos) {
+        this.maxSize = maxSize;
+        this.fullNanos = fullNanos;
+    }
+
+    public static GrowthPolicy none() {
+        return NONE;
+    }
+
+    /**
+     * @param maxSize the size a successor never exceeds
+     * @param fullFor how long the ring must stay full before it grows
+     */
+    public static GrowthPolicy doubling(long maxSize, long fullFor, TimeUnit unit) {
+        Assert.isTrue(maxSize > 0, "The max size must greater than 0");
+        Assert.isTrue(fullFor >= 0, "The full duration must not be negative");
+        Assert.notNull(unit, "TimeUnit must not be null");
+        return new GrowthPolicy(maxSize, unit.toNanos(fullFor));
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    long getFullNanos() {
+        return fullNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "GrowthPolicy{maxSize=" + maxSize + ", fullNanos=" + fullNanos + "}";
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.async;
+
+import io.traffic.shm.memory.Accessor;
+import io.traffic.shm.memory.HeapMemory;
+import io.traffic.util.Constant;
+import io.traffic.util.Util;
+
+/**
+ * A log-linear histogram of nanosecond latencies in shared memory, in the manner of HdrHistogram.
+ *
+ * Values below 64 have a bucket each, above that every power of two is split into 32 linear buckets,
+ * so a value is known within 1/32 (about 3%) over the whole positive long range.
+ * Recording is one atomic add on a bucket and never allocates.
+ *
+ *  | -- max -- | --------------------- 1888 buckets of 8 bytes --------------------- |
+ *  0           64
+ *
+ * @author cuiyi
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR = SUB_COUNT << 1;
+    private static final int LINEAR_BITS = SUB_BITS + 1;
+
+    public static final int BUCKETS = LINEAR + (Long.SIZE - 1 - LINEAR_BITS) * SUB_COUNT;
+
+    public static final long SIZE = Constant.CACHE_LINE_SIZE
+            + Util.align((long) BUCKETS * Constant.LONG_SIZE, Constant.CACHE_LINE_SIZE);
+
+    private static final int MAX_OFFSET = 0;
+    private static final int BUCKETS_OFFSET = Constant.CACHE_LINE_SIZE;
+
+    private final Accessor accessor;
+    private final long offset;
+
+
+    Histogram(Accessor accessor, long offset) {
+        this.accessor = accessor;
+        this.offset = offset;
+    }
+
+    /**
+     * a histogram on the java heap, private to this process
+     */
+    public static Histogram allocate() {
+        return new Histogram(new Accessor(HeapMemory.allocate(SIZE)), 0);
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) {
+            return (int) Math.max(value, 0);
+        }
+        int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BITS;
+        return LINEAR + (magnitude - LINEAR_BITS) * SUB_COUNT + (int) ((value >>> shift) & (SUB_COUNT - 1));
+    }
+
+    static long lowest(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_COUNT + 1;
+        return (long) (SUB_COUNT + (index - LINEAR) % SUB_COUNT) << shift;
+    }
+
+    static long highest(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_COUNT + 1;
+        return lowest(index) + (1L << shift) - 1;
+    }
+
+    public void record(long value) {
+        accessor.getAndAddLong(offset + BUCKETS_OFFSET + (long) index(value) * Constant.LONG_SIZE, 1);
+        long max;
+        while (value > (max = accessor.getLongVolatile(offset + MAX_OFFSET))) {
+            if (accessor.compareAndSwapLong(offset + MAX_OFFSET, max, value)) {
+                return;
+            }
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = accessor.getLongVolatile(offset + BUCKETS_OFFSET + (long) i * Constant.LONG_SIZE);
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, accessor.getLongVolatile(offset + MAX_OFFSET));
+    }
+
+    /**
+     * the counts at one moment, the difference of two snapshots covers the interval between them
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.max = max;
+        }
+
+        public Snapshot minus(Snapshot earlier) {
+            long[] interval = new long[BUCKETS];
+            long total = 0;
+            int top = -1;
+            for (int i = 0; i < BUCKETS; i++) {
+                interval[i] = counts[i] - earlier.counts[i];
+                total += interval[i];
+                if (interval[i] > 0) {
+                    top = i;
+                }
+            }
+            // the exact maximum is only known for the whole history
+            return new Snapshot(interval, total, top < 0 ? 0 : Math.min(highest(top), max));
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        /**
+         * the highest value of the bucket the percentile falls in, 0 if nothing was recorded
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highest(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " p50=" + percentile(50) + " p99=" + percentile(99)
+                    + " p99.9=" + percentile(99.9) + " max=" + max;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.async;
+
+import io.traffic.util.Assert;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits for a queue to make progress.
+ *
+ * The strategies are stateless, the caller counts its unsuccessful attempts since the last progress,
+ * so one instance can be shared by any number of threads.
+ *
+ * @author cuiyi
+ */
+public interface IdleStrategy {
+
+    /**
+     * @param attempt the number of unsuccessful attempts before this one, 0 after progress
+     */
+    void idle(int attempt);
+
+    static IdleStrategy busySpin() {
+        return attempt -> Thread.onSpinWait();
+    }
+
+    static IdleStrategy yielding() {
+        return attempt -> Thread.yield();
+    }
+
+    static IdleStrategy parking(long nanos) {
+        Assert.isTrue(nanos > 0, "The park time must greater than 0");
+        return attempt -> LockSupport.parkNanos(nanos);
+    }
+
+    /**
+     * spin, then yield, then park with an exponentially growing time
+     */
+    static IdleStrategy backoff(int spins, int yields, long minParkNanos, long maxParkNanos) {
+        Assert.isTrue(spins >= 0 && yields >= 0, "The spins and yields must not be negative");
+        Assert.isTrue(minParkNanos > 0 && maxParkNanos >= minParkNanos, "Illegal park time");
+        return attempt -> {
+            if (attempt < spins) {
+                Thread.onSpinWait();
+            } else if (attempt < (long) spins + yields) {
+                Thread.yield();
+            } else {
+                // the widest shift that keeps the time positive, beyond it the time is capped anyway
+                long shift = Math.min((long) attempt - spins - yields, Long.numberOfLeadingZeros(minParkNanos) - 1);
+                LockSupport.parkNanos(Math.min(minParkNanos << shift, maxParkNanos));
+            }
+        };
+    }
+
+    static IdleStrategy backoff() {
+        return backoff(100, 10, 1000L, 1000000L);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.async;
+
+import io.traffic.shm.memory.Accessor;
+import io.traffic.util.Constant;
+import io.traffic.util.Util;
+
+/**
+ * The shared header of a {@link LaneQueue} file.
+ *
+ *  | ----------- metadata ----------- | ------- lane table ------- | --- lane 0 --- | --- lane 1 --- | ...
+ *  0                                  256
+ *
+ *  the header keeps the layout of {@link Metadata} (magic number, version, id, index, byte order),
+ *  byte 48 holds the number of lanes (int) and the lane table the size of every lane (long).
+ *  each lane is a complete ring with its own metadata and cursor pair, aligned to a cache line.
+ *
+ * @author cuiyi
+ */
+public class LaneMetadata extends Metadata {
+
+    public static final int MAX_LANES = 32;
+
+    private static final int LANES_OFFSET = 48;
+    private static final int TABLE_OFFSET = ORIGIN_OFFSET;
+
+    private final Accessor accessor;
+
+
+    public LaneMetadata(long capacity, Accessor accessor) {
+        super(capacity, accessor);
+        this.accessor = accessor;
+    }
+
+
+    public static long headerSize(int lanes) {
+        return TABLE_OFFSET + Util.align((long) lanes * Constant.LONG_SIZE, Constant.CACHE_LINE_SIZE);
+    }
+
+    /**
+     * the bytes a file with lanes of the given sizes takes
+     */
+    public static long sizeOf(long[] laneSizes) {
+        long size = headerSize(laneSizes.length);
+        for (long laneSize : laneSizes) {
+            size += Util.align(laneSize, Constant.CACHE_LINE_SIZE);
+        }
+        return size;
+    }
+
+    /**
+     * the number of lanes is published last, a process that reads it sees the table and the header
+     */
+    public void initialize(int id, int index, long[] laneSizes) {
+        boolean initialized = isInitialized();
+        if (!initialized) {
+            for (int lane = 0; lane < laneSizes.length; lane++) {
+                accessor.putLong(TABLE_OFFSET + lane * Constant.LONG_SIZE,
+                        Util.align(laneSizes[lane], Constant.CACHE_LINE_SIZE));
+            }
+        }
+        initialize(id, index);
+        if (!initialized) {
+            accessor.putOrderedInt(LANES_OFFSET, laneSizes.length);
+        }
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return super.isInitialized() && getLanes() > 0;
+    }
+
+    public int getLanes() {
+        return accessor.getIntAcquire(LANES_OFFSET);
+    }
+
+    public long getLaneSize(int lane) {
+        return accessor.getLong(TABLE_OFFSET + lane * Constant.LONG_SIZE);
+    }
+
+    public long getLaneOffset(int lane) {
+        long offset = headerSize(getLanes());
+        for (int i = 0; i < lane; i++) {
+            offset += getLaneSize(i);
+        }
+        return offset;
+    }
+}
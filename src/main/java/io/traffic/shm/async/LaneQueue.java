@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.async;
+
+import io.traffic.shm.file.MappedFile;
+import io.traffic.shm.memory.Accessor;
+import io.traffic.shm.memory.Memory;
+import io.traffic.shm.memory.Slice;
+import io.traffic.util.Assert;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Several rings in one file, one per priority, see {@link LaneMetadata} for the layout.
+ *
+ * Lane 0 is the most urgent. The consumer drains the lanes in order, but a lane that has delivered
+ * {@link Options#starvationLimit(int)} blocks in a row yields one turn to the lanes below it,
+ * so urgent blocks never wait behind bulk traffic and bulk traffic is never starved.
+ *
+ * <pre class="code">
+ * LaneQueue queue = LaneQueue.map("/dev/shm/lanes", 2, 1 << 20);
+ * queue.offer(cancel, 0);
+ * queue.offer(data, 1);</pre>
+ *
+ * @author cuiyi
+ */
+public class LaneQueue implements Closeable {
+
+    private final Memory memory;
+    private final LaneMetadata metadata;
+    private final Queue[] lanes;
+    private final int starvationLimit;
+    // per instance, a race between consumers only shifts a turn
+    private final int[] served;
+
+
+    private LaneQueue(String file, Memory memory, Options options, long[] laneSizes) {
+        Assert.notNull(memory, "Memory must not be null");
+        Assert.notNull(options, "Options must not be null");
+        Accessor accessor = new Accessor(memory, Metadata.byteOrder(memory, options.getByteOrder()));
+        this.memory = memory;
+        this.metadata = new LaneMetadata(memory.size(), accessor);
+        if (laneSizes != null) {
+            metadata.initialize(options.getId(), options.getIndex(), laneSizes);
+        }
+        Assert.isTrue(metadata.isInitialized(), "The memory is not a lane queue");
+
+        int count = metadata.getLanes();
+        Assert.isTrue(count > 0 && count <= LaneMetadata.MAX_LANES, "Illegal number of lanes: " + count);
+        this.lanes = new Queue[count];
+        for (int lane = 0; lane < count; lane++) {
+            Slice slice = Slice.of(memory, metadata.getLaneOffset(lane), metadata.getLaneSize(lane));
+            String name = file != null ? laneOf(file, lane) : null;
+            this.lanes[lane] = laneSizes != null ? Queue.map(slice, options, name) : Queue.attach(slice, options, name);
+        }
+        this.starvationLimit = options.getStarvationLimit();
+        this.served = new int[count];
+    }
+
+    public static LaneQueue map(String file, int lanes, long laneSize) {
+        return map(file, lanes, laneSize, new Options());
+    }
+
+    public static LaneQueue map(String file, int lanes, long laneSize, Options options) {
+        Assert.isTrue(lanes > 0 && lanes <= LaneMetadata.MAX_LANES, "The number of lanes must between 1 and " + LaneMetadata.MAX_LANES);
+        long[] laneSizes = new long[lanes];
+        Arrays.fill(laneSizes, laneSize);
+        return map(file, laneSizes, options);
+    }
+
+    public static LaneQueue map(String file, long[] laneSizes, Options options) {
+        check(laneSizes);
+        return new LaneQueue(file, MappedFile.with(file, LaneMetadata.sizeOf(laneSizes)), options, laneSizes);
+    }
+
+    /**
+     * an initialized region keeps the lanes it was created with
+     */
+    public static LaneQueue map(Memory memory, long[] laneSizes, Options options) {
+        check(laneSizes);
+        Assert.isTrue(memory.size() >= LaneMetadata.sizeOf(laneSizes),
+                "The memory size must not less than " + LaneMetadata.sizeOf(laneSizes));
+        return new LaneQueue(null, memory, options, laneSizes);
+    }
+
+    public static LaneQueue attach(String file) {
+        return attach(file, new Options());
+    }
+
+    public static LaneQueue attach(String file, Options options) {
+        return new LaneQueue(file, MappedFile.as(file), options, null);
+    }
+
+    public static LaneQueue attach(Memory memory, Options options) {
+        return new LaneQueue(null, memory, options, null);
+    }
+
+    /**
+     * the name the statistics of a lane are kept under, e.g. /dev/shm/lanes.0.stats,
+     * read them with {@link Stats#attach(String)}
+     */
+    public static String laneOf(String file, int lane) {
+        return file + "." + lane;
+    }
+
+    private static void check(long[] laneSizes) {
+        Assert.notNull(laneSizes, "The lane sizes must not be null");
+        Assert.isTrue(laneSizes.length > 0 && laneSizes.length <= LaneMetadata.MAX_LANES,
+                "The number of lanes must between 1 and " + LaneMetadata.MAX_LANES);
+        for (long laneSize : laneSizes) {
+            Assert.isTrue(laneSize > Metadata.ORIGIN_OFFSET, "The lane size must greater than " + Metadata.ORIGIN_OFFSET);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Queue lane : lanes) {
+            lane.close();
+        }
+        memory.release();
+    }
+
+    public boolean offer(Block block, int priority) {
+        return lane(priority).offer(block);
+    }
+
+    public boolean add(Block block, int priority) {
+        return lane(priority).add(block);
+    }
+
+    public Block poll() {
+        for (int lane = 0; lane < lanes.length; lane++) {
+            if (served[lane] >= starvationLimit) {
+                served[lane] = 0;
+                Block block = poll(lane + 1);
+                if (block != null) {
+                    return block;
+                }
+            }
+            Block block = lanes[lane].poll();
+            if (block != null) {
+                served[lane]++;
+                return block;
+            }
+            served[lane] = 0;
+        }
+        return null;
+    }
+
+    /**
+     * the first block of the lanes from the given one down, without starvation accounting
+     */
+    private Block poll(int from) {
+        for (int lane = from; lane < lanes.length; lane++) {
+            Block block = lanes[lane].poll();
+            if (block != null) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    public Queue lane(int priority) {
+        Assert.isTrue(priority >= 0 && priority < lanes.length, "No such lane: " + priority);
+        return lanes[priority];
+    }
+
+    public int lanes() {
+        return lanes.length;
+    }
+
+    public LaneMetadata getMetadata() {
+        return metadata;
+    }
+}
@@ -16,9 +16,12 @@
 
 package io.traffic.shm.async;
 
+import io.traffic.shm.memory.Accessor;
+import io.traffic.shm.memory.Memory;
 import io.traffic.util.CRC16;
 import io.traffic.util.Constant;
-import io.traffic.util.UNSAFE;
+
+import java.nio.ByteOrder;
 
 import static io.traffic.util.Constant.CACHE_LINE_SIZE;
 
@@ -33,41 +36,109 @@ import static io.traffic.util.Constant.CACHE_LINE_SIZE;
  *  |             | -- version -- |               |
  *  0             4               8               12              16
  *
+ *  byte 16 is the byte order of every multi-byte field of the file, 0 big-endian (default), 1 little-endian.
+ *  it is a single byte so it can be read before the order is known.
+ *  byte 17 holds flags, 0x1 marks an overwrite ring, see {@link OverflowPolicy#overwrite()},
+ *  0x2 a ring whose blocks carry a timestamp, see {@link Options#latency(boolean)},
+ *  0x4 a ring that counts its messages, see {@link Options#messageCount(boolean)},
+ *  0x8 a ring whose blocks carry the pid of their producer, see {@link Options#recovery(long, java.util.concurrent.TimeUnit)},
+ *  0x10 a ring whose blocks carry a checksum, see {@link Options#checksumPolicy(ChecksumPolicy)},
+ *  0x20 a ring whose blocks may be encoded, see {@link Options#codec(Codec, int)},
+ *  0x40 a ring whose blocks may be fragments of a message, see {@link Options#fragmentation(int)}.
+ *  the count of published blocks follows the write cursor at byte 200 and the count of consumed blocks
+ *  follows the read cursor at byte 72, so each side only updates the cache line it already owns.
+ *  the producer of an overwrite ring keeps the position of the oldest intact block at byte 40 (long).
+ *  the producers of a fragmenting ring take the id of each fragmented message from the counter at byte 56 (int).
+ *
+ *  the claim cursor of the consumers of a {@link GroupConsumer} group is on its own cache line at byte 128 (long),
+ *  between the read and the write cursors, 0 until the first member joins.
+ *
+ *  bytes 20-39 chain a ring to its successor when the queue grows, see {@link GrowthPolicy}:
+ *  20 generation (int), 24 size of the successor (long, -1 while it is being created),
+ *  32 the write position at which this ring was sealed (long).
+ *  a sealed ring also carries {@link #SEALED} in its write cursor, so no producer can claim past the seal.
+ *  the read cursor carries {@link #TAKEN} while a reader copies and clears the block at it.
+ *
  * @author cuiyi
  */
 public class Metadata {
 
     public static final int ORIGIN_OFFSET = CACHE_LINE_SIZE * 4;
 
+    public static final long SEALED = 1L << 62;
+
+    /**
+     * set in the read cursor by the reader that takes the block at it, until the block is cleared and the cursor moves on
+     */
+    public static final long TAKEN = 1L << 61;
+
     private static final int MAGIC_NUMBER = 0x414E4E41;
     private static final int MAGIC_NUMBER_OFFSET = 0;
     private static final int MINOR_VERSION_OFFSET = 4;
     private static final int MAJOR_VERSION_OFFSET = 6;
     private static final int ID_OFFSET = 8;
     private static final int INDEX_OFFSET = 12;
+    private static final int BYTE_ORDER_OFFSET = 16;
+    private static final int FLAGS_OFFSET = 17;
+    private static final int GENERATION_OFFSET = 20;
+    private static final int NEXT_OFFSET = 24;
+    private static final int SEALED_OFFSET = 32;
+    private static final int OLDEST_OFFSET = 40;
+    private static final int MESSAGE_OFFSET = 56;
     private static final int READ_OFFSET = CACHE_LINE_SIZE;
+    private static final int CLAIM_OFFSET = CACHE_LINE_SIZE * 2;
     private static final int WRITE_OFFSET = CACHE_LINE_SIZE * 3;
+    private static final int CONSUMED_OFFSET = READ_OFFSET + Constant.LONG_SIZE;
+    private static final int PRODUCED_OFFSET = WRITE_OFFSET + Constant.LONG_SIZE;
 
     private static final int READ_INITIAL_VALUE = ORIGIN_OFFSET;
     private static final int WRITE_INITIAL_VALUE = ORIGIN_OFFSET;
 
+    private static final byte BIG_ENDIAN = 0;
+    private static final byte LITTLE_ENDIAN = 1;
+
+    private static final byte OVERWRITE = 0x1;
+    private static final byte TIMESTAMPED = 0x2;
+    private static final byte COUNTED = 0x4;
+    private static final byte RECOVERABLE = 0x8;
+    private static final byte CHECKSUMMED = 0x10;
+    private static final byte ENCODED = 0x20;
+    private static final byte FRAGMENTED = 0x40;
+
     private final long capacity;
-    private final long address;
+    private final Accessor accessor;
     private final Cursor read;
     private final Cursor write;
+    private final Cursor oldest;
+    private final Cursor claim;
 
 
-    public Metadata(long capacity, long address) {
+    public Metadata(long capacity, Accessor accessor) {
         this.capacity = capacity;
-        this.address = address;
-        this.read = new Cursor(this.address, READ_OFFSET);
-        this.write = new Cursor(this.address, WRITE_OFFSET);
+        this.accessor = accessor;
+        this.read = new Cursor(this.accessor, READ_OFFSET);
+        this.write = new Cursor(this.accessor, WRITE_OFFSET);
+        this.oldest = new Cursor(this.accessor, OLDEST_OFFSET);
+        this.claim = new Cursor(this.accessor, CLAIM_OFFSET);
     }
 
 
+    /**
+     * the byte order of an initialized region, or the preferred one for a fresh region
+     */
+    public static ByteOrder byteOrder(Memory memory, ByteOrder preferred) {
+        Accessor accessor = new Accessor(memory);
+        // the magic number is a palindrome, it reads the same in both orders
+        if (accessor.getIntVolatile(MAGIC_NUMBER_OFFSET) != MAGIC_NUMBER) {
+            return preferred;
+        }
+        return accessor.getByte(BYTE_ORDER_OFFSET) == LITTLE_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+    }
+
     public void initialize(int id, int index) {
-        UNSAFE.putInt(address + MAGIC_NUMBER_OFFSET, MAGIC_NUMBER);
-        UNSAFE.putUnsignedShort(address + MAJOR_VERSION_OFFSET, CRC16.hash(Constant.MAJOR_VERSION_ASYNC));
+        accessor.putByte(BYTE_ORDER_OFFSET, accessor.order() == ByteOrder.LITTLE_ENDIAN ? LITTLE_ENDIAN : BIG_ENDIAN);
+        accessor.putInt(MAGIC_NUMBER_OFFSET, MAGIC_NUMBER);
+        accessor.putUnsignedShort(MAJOR_VERSION_OFFSET, CRC16.hash(Constant.MAJOR_VERSION_ASYNC));
 
         if (setId(id) && setIndex(index)
                 && read.update(0, Metadata.READ_INITIAL_VALUE)
@@ -76,27 +147,192 @@ public class Metadata {
     }
 
     public boolean setId(int id) {
-        return UNSAFE.compareAndSwapInt(address + ID_OFFSET, 0, id);
+        return accessor.compareAndSwapInt(ID_OFFSET, 0, id);
     }
 
     public int getId() {
-        return UNSAFE.getIntVolatile(address + ID_OFFSET);
+        return accessor.getIntVolatile(ID_OFFSET);
     }
 
     public boolean setIndex(int index) {
-        return UNSAFE.compareAndSwapInt(address + INDEX_OFFSET, 0, index);
+        return accessor.compareAndSwapInt(INDEX_OFFSET, 0, index);
     }
 
     public int getIndex() {
-        return UNSAFE.getIntVolatile(address + INDEX_OFFSET);
+        return accessor.getIntVolatile(INDEX_OFFSET);
     }
 
     public String getVersion() {
-        int minor = UNSAFE.getUnsignedShort(address + MINOR_VERSION_OFFSET);
-        int major = UNSAFE.getUnsignedShort(address + MAJOR_VERSION_OFFSET);
+        int minor = accessor.getUnsignedShort(MINOR_VERSION_OFFSET);
+        int major = accessor.getUnsignedShort(MAJOR_VERSION_OFFSET);
         return major + "." + minor;
     }
 
+    public int getMagic() {
+        return accessor.getIntVolatile(MAGIC_NUMBER_OFFSET);
+    }
+
+    public boolean isInitialized() {
+        return accessor.getIntVolatile(MAGIC_NUMBER_OFFSET) == MAGIC_NUMBER;
+    }
+
+    public void setOverwrite() {
+        accessor.putByte(FLAGS_OFFSET, (byte) (accessor.getByte(FLAGS_OFFSET) | OVERWRITE));
+        oldest.update(0, ORIGIN_OFFSET);
+    }
+
+    public boolean isOverwrite() {
+        return (accessor.getByte(FLAGS_OFFSET) & OVERWRITE) != 0;
+    }
+
+    public void setTimestamped() {
+        accessor.putByte(FLAGS_OFFSET, (byte) (accessor.getByte(FLAGS_OFFSET) | TIMESTAMPED));
+    }
+
+    public boolean isTimestamped() {
+        return (accessor.getByte(FLAGS_OFFSET) & TIMESTAMPED) != 0;
+    }
+
+    /**
+     * whether an initialized region carries timestamps, readable before the byte order is known
+     */
+    public static boolean isTimestamped(Memory memory) {
+        Accessor accessor = new Accessor(memory);
+        return accessor.getIntVolatile(MAGIC_NUMBER_OFFSET) == MAGIC_NUMBER
+                && (accessor.getByte(FLAGS_OFFSET) & TIMESTAMPED) != 0;
+    }
+
+    public void setCounted() {
+        accessor.putByte(FLAGS_OFFSET, (byte) (accessor.getByte(FLAGS_OFFSET) | COUNTED));
+    }
+
+    public boolean isCounted() {
+        return (accessor.getByte(FLAGS_OFFSET) & COUNTED) != 0;
+    }
+
+    public void setRecoverable() {
+        accessor.putByte(FLAGS_OFFSET, (byte) (accessor.getByte(FLAGS_OFFSET) | RECOVERABLE));
+    }
+
+    public boolean isRecoverable() {
+        return (accessor.getByte(FLAGS_OFFSET) & RECOVERABLE) != 0;
+    }
+
+    public void setChecksummed() {
+        accessor.putByte(FLAGS_OFFSET, (byte) (accessor.getByte(FLAGS_OFFSET) | CHECKSUMMED));
+    }
+
+    public boolean isChecksummed() {
+        return (accessor.getByte(FLAGS_OFFSET) & CHECKSUMMED) != 0;
+    }
+
+    public void setEncoded() {
+        accessor.putByte(FLAGS_OFFSET, (byte) (accessor.getByte(FLAGS_OFFSET) | ENCODED));
+    }
+
+    public boolean isEncoded() {
+        return (accessor.getByte(FLAGS_OFFSET) & ENCODED) != 0;
+    }
+
+    public void setFragmented() {
+        accessor.putByte(FLAGS_OFFSET, (byte) (accessor.getByte(FLAGS_OFFSET) | FRAGMENTED));
+    }
+
+    public boolean isFragmented() {
+        return (accessor.getByte(FLAGS_OFFSET) & FRAGMENTED) != 0;
+    }
+
+    /**
+     * a new id for a fragmented message, unique among the messages in flight
+     */
+    public int nextMessage() {
+        return accessor.getAndAddInt(MESSAGE_OFFSET, 1) + 1;
+    }
+
+    public void produced() {
+        accessor.getAndAddLong(PRODUCED_OFFSET, 1);
+    }
+
+    public void consumed() {
+        accessor.getAndAddLong(CONSUMED_OFFSET, 1);
+    }
+
+    public void consumed(long count) {
+        accessor.getAndAddLong(CONSUMED_OFFSET, count);
+    }
+
+    /**
+     * the number of messages in the ring of a counted ring, approximate while producers and consumers are active
+     */
+    public long getCount() {
+        long consumed = accessor.getLongVolatile(CONSUMED_OFFSET);
+        return Math.max(accessor.getLongVolatile(PRODUCED_OFFSET) - consumed, 0);
+    }
+
+    public boolean setGeneration(int generation) {
+        return accessor.compareAndSwapInt(GENERATION_OFFSET, 0, generation);
+    }
+
+    public int getGeneration() {
+        return accessor.getIntVolatile(GENERATION_OFFSET);
+    }
+
+    /**
+     * elects the process that creates the successor
+     */
+    public boolean claimNext() {
+        return accessor.compareAndSwapLong(NEXT_OFFSET, 0, -1);
+    }
+
+    public void setNext(long size) {
+        accessor.putLongVolatile(NEXT_OFFSET, size);
+    }
+
+    /**
+     * the size of the successor, 0 if there is none, -1 while it is being created
+     */
+    public long getNext() {
+        return accessor.getLongVolatile(NEXT_OFFSET);
+    }
+
+    /**
+     * stops the producers at the current write position
+     */
+    public long seal() {
+        long position;
+        do {
+            position = write.offset();
+            if ((position & SEALED) != 0) {
+                return getSealed();
+            }
+        } while (!write.update(position, position | SEALED));
+        accessor.putLongVolatile(SEALED_OFFSET, position);
+        return position;
+    }
+
+    /**
+     * move the seal back from the end of a slot claimed past the room of the ring to its start,
+     * false if the seal is elsewhere or not published yet
+     */
+    public boolean unseal(long from, long to) {
+        return accessor.compareAndSwapLong(SEALED_OFFSET, from, to);
+    }
+
+    public boolean isSealed() {
+        return (write.offset() & SEALED) != 0;
+    }
+
+    /**
+     * the write position of a sealed ring, 0 if it is not sealed or the seal is not published yet
+     */
+    public long getSealed() {
+        return accessor.getLongVolatile(SEALED_OFFSET);
+    }
+
+    public ByteOrder getByteOrder() {
+        return accessor.order();
+    }
+
     public Cursor readCursor() {
         return read;
     }
@@ -104,4 +340,12 @@ public class Metadata {
     public Cursor writeCursor() {
         return write;
     }
+
+    public Cursor oldestCursor() {
+        return oldest;
+    }
+
+    public Cursor claimCursor() {
+        return claim;
+    }
 }
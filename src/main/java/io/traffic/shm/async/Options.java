@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.async;
+
+import io.traffic.util.Assert;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options of a {@link Queue}.
+ *
+ * <pre class="code">
+ * Queue queue = Queue.map("/dev/shm/ashm", 1 << 20, new Options()
+ *         .byteOrder(ByteOrder.nativeOrder())
+ *         .flushPolicy(FlushPolicy.none()));</pre>
+ *
+ * The layout options, such as the byte order, only take effect when the file is initialized,
+ * a queue attached to an existing file always follows the layout recorded in its {@link Metadata}.
+ *
+ * @author cuiyi
+ */
+public final class Options {
+
+    private int id;
+    private int index;
+    private FlushPolicy flushPolicy = FlushPolicy.onClose();
+    private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
+    private ClaimStrategy claimStrategy = ClaimStrategy.CAS;
+    private GrowthPolicy growthPolicy = GrowthPolicy.none();
+    private OverflowPolicy overflowPolicy = OverflowPolicy.fail();
+    private int starvationLimit = 64;
+    private boolean stats;
+    private boolean latency;
+    private boolean messageCount;
+    private long recoveryNanos;
+    private ChecksumPolicy checksumPolicy = ChecksumPolicy.none();
+    private Codec codec;
+    private int codecThreshold;
+    private int fragmentSize;
+    private long fragmentNanos;
+
+    public Options id(int id) {
+        this.id = id;
+        return this;
+    }
+
+    public Options index(int index) {
+        this.index = index;
+        return this;
+    }
+
+    public Options flushPolicy(FlushPolicy flushPolicy) {
+        Assert.notNull(flushPolicy, "FlushPolicy must not be null");
+        this.flushPolicy = flushPolicy;
+        return this;
+    }
+
+    /**
+     * {@link ByteOrder#BIG_ENDIAN} (default) keeps the file portable between heterogeneous machines,
+     * {@link ByteOrder#nativeOrder()} avoids swapping the bytes of every length word and cursor.
+     */
+    public Options byteOrder(ByteOrder byteOrder) {
+        Assert.notNull(byteOrder, "ByteOrder must not be null");
+        this.byteOrder = byteOrder;
+        return this;
+    }
+
+    public Options claimStrategy(ClaimStrategy claimStrategy) {
+        Assert.notNull(claimStrategy, "ClaimStrategy must not be null");
+        this.claimStrategy = claimStrategy;
+        return this;
+    }
+
+    /**
+     * only applies to queues mapped by file name
+     */
+    public Options growthPolicy(GrowthPolicy growthPolicy) {
+        Assert.notNull(growthPolicy, "GrowthPolicy must not be null");
+        this.growthPolicy = growthPolicy;
+        return this;
+    }
+
+    public Options overflowPolicy(OverflowPolicy overflowPolicy) {
+        Assert.notNull(overflowPolicy, "OverflowPolicy must not be null");
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * how many blocks a lane of a {@link LaneQueue} may deliver in a row before the lanes below it get a turn,
+     * {@link Integer#MAX_VALUE} for strict priority
+     */
+    public Options starvationLimit(int starvationLimit) {
+        Assert.isTrue(starvationLimit > 0, "The starvation limit must greater than 0");
+        this.starvationLimit = starvationLimit;
+        return this;
+    }
+
+    /**
+     * keep {@link Stats} in a sidecar file, or in the heap for a queue that has no file
+     */
+    public Options stats(boolean stats) {
+        this.stats = stats;
+        return this;
+    }
+
+    /**
+     * stamp every block with {@link System#nanoTime()} on offer and record the latency on poll
+     * into the {@link Stats#getLatency()} histogram, implies {@link #stats(boolean)}.
+     * the timestamps are part of the layout, a consumer follows the ring it attaches to.
+     * nanoTime is the monotonic clock of the machine on Linux, so it is comparable between processes.
+     */
+    public Options latency(boolean latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * count the messages in the metadata for {@link Queue#size()}, it costs an atomic add on offer and on poll
+     * on the cache line of the cursor that is updated anyway. a queue attached to a counted ring keeps counting.
+     */
+    public Options messageCount(boolean messageCount) {
+        this.messageCount = messageCount;
+        return this;
+    }
+
+    /**
+     * survive a producer that dies between claiming a slot and publishing it: each block records the pid of its producer,
+     * and a slot left pending by a process that is gone is skipped once it has been pending for the timeout.
+     * it costs 4 bytes per block and an ordered store on offer, and covers a producer from the moment its slot is marked,
+     * two stores after the claim, in both claim strategies.
+     * a queue attached to a recoverable ring writes and skips the pid words too, with its own timeout, one second by default.
+     */
+    public Options recovery(long timeout, TimeUnit unit) {
+        Assert.isTrue(timeout > 0, "The recovery timeout must greater than 0");
+        Assert.notNull(unit, "TimeUnit must not be null");
+        this.recoveryNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * put a CRC32C of the payload in front of every block and verify it on poll,
+     * it costs 4 bytes per block and a pass over the payload on each side.
+     */
+    public Options checksumPolicy(ChecksumPolicy checksumPolicy) {
+        Assert.notNull(checksumPolicy, "ChecksumPolicy must not be null");
+        this.checksumPolicy = checksumPolicy;
+        return this;
+    }
+
+    /**
+     * encode the payloads of at least threshold bytes with the codec on offer and decode them on poll,
+     * a payload the codec does not shrink is stored as it is. it costs a 4 bytes header word per block,
+     * which a queue attached to such a ring reads as well, decoding with {@link Codec#lz4()} unless it is given a codec.
+     */
+    public Options codec(Codec codec, int threshold) {
+        Assert.notNull(codec, "Codec must not be null");
+        Assert.isTrue(threshold > 0, "The codec threshold must greater than 0");
+        this.codec = codec;
+        this.codecThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * split a payload larger than fragmentSize into fragments of at most that size, so a message larger than the ring
+     * can be sent and the small messages of other producers pass between the fragments of a large one.
+     * {@link Queue#poll()} reassembles the message, {@link Queue#poll(FragmentHandler)} streams the fragments.
+     * it costs an 8 bytes fragment header per block, which a queue attached to a fragmented ring reads as well.
+     * the threads polling a fragmented ring take turns, and a producer that has sent the first fragment of a message
+     * waits for room for the others, ten seconds by default, see {@link #fragmentation(int, long, TimeUnit)}.
+     */
+    public Options fragmentation(int fragmentSize) {
+        Assert.isTrue(fragmentSize > 0, "The fragment size must greater than 0");
+        this.fragmentSize = fragmentSize;
+        return this;
+    }
+
+    /**
+     * like {@link #fragmentation(int)}, a producer waits at most the timeout for room for each of the fragments
+     * after the first one, then aborts the message, which the consumer drops, and the offer fails.
+     */
+    public Options fragmentation(int fragmentSize, long timeout, TimeUnit unit) {
+        Assert.isTrue(timeout > 0, "The fragment timeout must greater than 0");
+        Assert.notNull(unit, "TimeUnit must not be null");
+        this.fragmentNanos = unit.toNanos(timeout);
+        return fragmentation(fragmentSize);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    ByteOrder getByteOrder() {
+        return byteOrder;
+    }
+
+    ClaimStrategy getClaimStrategy() {
+        return claimStrategy;
+    }
+
+    GrowthPolicy getGrowthPolicy() {
+        return growthPolicy;
+    }
+
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    int getStarvationLimit() {
+        return starvationLimit;
+    }
+
+    boolean isStats() {
+        return stats;
+    }
+
+    boolean isLatency() {
+        return latency;
+    }
+
+    boolean isMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * 0 if recovery was not asked for
+     */
+    long getRecoveryNanos() {
+        return recoveryNanos;
+    }
+
+    ChecksumPolicy getChecksumPolicy() {
+        return checksumPolicy;
+    }
+
+    /**
+     * null if no codec was asked for
+     */
+    Codec getCodec() {
+        return codec;
+    }
+
+    int getCodecThreshold() {
+        return codecThreshold;
+    }
+
+    /**
+     * 0 if fragmentation was not asked for
+     */
+    int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * 0 if no fragment timeout was asked for
+     */
+    long getFragmentNanos() {
+        return fragmentNanos;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.async;
+
+import io.traffic.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@link Queue#offer(Block)} does when the ring is full.
+ *
+ * <ul>
+ * <li>{@link #fail()}: return false at once (default)</li>
+ * <li>{@link #block(IdleStrategy, long, TimeUnit)}: wait for room with the idle strategy, return false on timeout</li>
+ * <li>{@link #dropNewest()}: discard the offered block and count it</li>
+ * <li>{@link #dropOldest()}: the producer consumes and discards the oldest blocks until the offered one fits</li>
+ * <li>{@link #overwrite()}: the producer never looks at the readers, a lapped reader detects it and
+ * resyncs to the oldest intact block, the oldest one the producer has not overwritten yet.
+ * the ring must have a single producer, and the mode is recorded in the metadata so every attached side follows it</li>
+ * </ul>
+ *
+ * The drop and overwrite policies never block the producer, which suits metrics and telemetry channels.
+ *
+ * @author cuiyi
+ */
+public final class OverflowPolicy {
+
+    enum Mode {
+        FAIL, BLOCK, DROP_NEWEST, DROP_OLDEST, OVERWRITE
+    }
+
+    private static final OverflowPolicy FAIL = new OverflowPolicy(Mode.FAIL, null, 0);
+    private static final OverflowPolicy DROP_NEWEST = new OverflowPolicy(Mode.DROP_NEWEST, null, 0);
+    private static final OverflowPolicy DROP_OLDEST = new OverflowPolicy(Mode.DROP_OLDEST, null, 0);
+    private static final OverflowPolicy OVERWRITE = new OverflowPolicy(Mode.OVERWRITE, null, 0);
+
+    private final Mode mode;
+    private final IdleStrategy idleStrategy;
+    private final long timeoutNanos;
+
+    private OverflowPolicy(Mode mode, IdleStrategy idleStrategy, long timeoutNanos) {
+        this.mode = mode;
+        this.idleStrategy = idleStrategy;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    public static OverflowPolicy fail() {
+        return FAIL;
+    }
+
+    public static OverflowPolicy block(long timeout, TimeUnit unit) {
+        return block(IdleStrategy.backoff(), timeout, unit);
+    }
+
+    public static OverflowPolicy block(IdleStrategy idleStrategy, long timeout, TimeUnit unit) {
+        Assert.notNull(idleStrategy, "IdleStrategy must not be null");
+        Assert.isTrue(timeout >= 0, "The timeout must not be negative");
+        Assert.notNull(unit, "TimeUnit must not be null");
+        return new OverflowPolicy(Mode.BLOCK, idleStrategy, unit.toNanos(timeout));
+    }
+
+    public static OverflowPolicy dropNewest() {
+        return DROP_NEWEST;
+    }
+
+    public static OverflowPolicy dropOldest() {
+        return DROP_OLDEST;
+    }
+
+    public static OverflowPolicy overwrite() {
+        return OVERWRITE;
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    IdleStrategy getIdleStrategy() {
+        return idleStrategy;
+    }
+
+    long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "OverflowPolicy{mode=" + mode + ", timeoutNanos=" + timeoutNanos + "}";
+    }
+}
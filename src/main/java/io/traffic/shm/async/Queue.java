@@ -17,72 +17,699 @@
 package io.traffic.shm.async;
 
 import io.traffic.shm.file.MappedFile;
+import io.traffic.shm.memory.Accessor;
+import io.traffic.shm.memory.Memory;
 import io.traffic.util.Assert;
 import io.traffic.util.Constant;
 import io.traffic.util.Tracer;
+import io.traffic.util.UNSAFE;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * A queue mapped by file name may grow, see {@link GrowthPolicy}.
+ * It is then a chain of rings, producers append to the newest ring and consumers drain the oldest one.
+ *
  * @author cuiyi
  */
 public class Queue implements Closeable {
 
-    private final MappedFile mappedFile;
+    private static final Block PADDING = new Block(new byte[1]);
+
+    private static final int OWNER = (int) ProcessHandle.current().pid();
+    private static final long DEFAULT_RECOVERY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final IdleStrategy FRAGMENT_IDLE = IdleStrategy.backoff();
+    private static final long DEFAULT_FRAGMENT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int ASSEMBLY_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_ASSEMBLIES = 4;
+
+    private final String file;
+    private final Options options;
+    private final Memory memory;
     private final int id;
     private final int index;
     private final long capacity;
-    private final long address;
+    private final Accessor accessor;
     private final Metadata metadata;
     private final Cursor readCursor;
     private final Cursor writeCursor;
+    private final FlushPolicy flushPolicy;
+    private final Flusher flusher;
+    private final ClaimStrategy claimStrategy;
+    private final long headroom;
+    private final GrowthPolicy growthPolicy;
+    private final OverflowPolicy overflowPolicy;
+    private final boolean overwrite;
+    private final boolean stamped;
+    private final int stampSize;
+    private final boolean counted;
+    private final boolean recoverable;
+    private final int ownerSize;
+    private final long recoveryNanos;
+    private final boolean checksummed;
+    private final int checksumSize;
+    private final ChecksumPolicy.Mode checksumMode;
+    private final boolean coded;
+    private final int codecSize;
+    private final Codec codec;
+    private final int codecThreshold;
+    private final boolean fragmented;
+    private final int frameSize;
+    private final int fragmentSize;
+    private final long fragmentNanos;
+    // the header words in front of the timestamp, and in front of the payload
+    private final int stampSkip;
+    private final int payloadSkip;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong lapped = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final AtomicLong corrupted = new AtomicLong();
+    private final AtomicLong incomplete = new AtomicLong();
+    private final Map<Integer, Assembly> assemblies = new HashMap<Integer, Assembly>();
+    private final ArrayDeque<byte[]> buffers = new ArrayDeque<byte[]>();
+    private final Stall readStall = new Stall();
+    private final Stats stats;
 
+    private volatile Queue head = this;
+    private volatile Queue tail = this;
+    private volatile Queue next;
+    private long fullSince;
 
 
-    private Queue(MappedFile mappedFile, int id, int index) {
-        this.mappedFile = mappedFile;
-        this.id = id;
-        this.index = index;
-        this.capacity = mappedFile.getSize();
-        this.address = mappedFile.getAddress();
-        this.metadata = new Metadata(this.capacity, this.address);
+    private Queue(String file, Memory memory, Options options, Stats stats) {
+        Assert.notNull(memory, "Memory must not be null");
+        Assert.notNull(options, "Options must not be null");
+        Assert.isTrue(memory.size() > Metadata.ORIGIN_OFFSET, "The memory size must greater than " + Metadata.ORIGIN_OFFSET);
+        this.file = file;
+        this.options = options;
+        this.memory = memory;
+        this.id = options.getId();
+        this.index = options.getIndex();
+        this.capacity = memory.size();
+        this.accessor = new Accessor(memory, Metadata.byteOrder(memory, options.getByteOrder()));
+        this.metadata = new Metadata(this.capacity, this.accessor);
         this.readCursor = this.metadata.readCursor();
         this.writeCursor = this.metadata.writeCursor();
+        this.flushPolicy = options.getFlushPolicy();
+        this.flusher = new Flusher(memory, flushPolicy, this.writeCursor, this.readCursor, this.capacity);
+        this.claimStrategy = options.getClaimStrategy();
+        this.headroom = claimStrategy == ClaimStrategy.XADD ? (capacity - Metadata.ORIGIN_OFFSET) >> 3 : 0;
+        this.growthPolicy = options.getGrowthPolicy();
+        this.overflowPolicy = options.getOverflowPolicy();
+        this.stats = stats;
+        // an initialized ring keeps the mode it was created with
+        this.overwrite = metadata.isInitialized() ? metadata.isOverwrite()
+                : overflowPolicy.getMode() == OverflowPolicy.Mode.OVERWRITE;
+        this.stamped = metadata.isInitialized() ? metadata.isTimestamped() : options.isLatency();
+        this.stampSize = stamped ? Constant.LONG_SIZE : 0;
+        // an overwrite ring loses blocks without a consumer ever seeing them
+        this.counted = !overwrite && (metadata.isInitialized() ? metadata.isCounted() : options.isMessageCount());
+        // the producer of an overwrite ring never waits for anyone
+        this.recoverable = !overwrite
+                && (metadata.isInitialized() ? metadata.isRecoverable() : options.getRecoveryNanos() > 0);
+        this.ownerSize = recoverable ? Constant.INT_SIZE : 0;
+        this.recoveryNanos = options.getRecoveryNanos() > 0 ? options.getRecoveryNanos() : DEFAULT_RECOVERY_NANOS;
+        ChecksumPolicy.Mode checksumMode = options.getChecksumPolicy().getMode();
+        this.checksummed = metadata.isInitialized() ? metadata.isChecksummed() : checksumMode != ChecksumPolicy.Mode.NONE;
+        this.checksumSize = checksummed ? Constant.INT_SIZE : 0;
+        this.checksumMode = checksumMode == ChecksumPolicy.Mode.NONE ? ChecksumPolicy.Mode.FAIL : checksumMode;
+        this.coded = metadata.isInitialized() ? metadata.isEncoded() : options.getCodec() != null;
+        this.codecSize = coded ? Constant.INT_SIZE : 0;
+        this.codec = options.getCodec() != null ? options.getCodec() : Codec.lz4();
+        // a side attached without a codec only decodes
+        this.codecThreshold = options.getCodec() != null ? options.getCodecThreshold() : Integer.MAX_VALUE;
+        // the consumer of an overwrite ring may miss any fragment
+        this.fragmented = !overwrite
+                && (metadata.isInitialized() ? metadata.isFragmented() : options.getFragmentSize() > 0);
+        this.frameSize = fragmented ? Constant.INT_SIZE * 2 : 0;
+        this.stampSkip = ownerSize + checksumSize + codecSize + frameSize;
+        this.payloadSkip = stampSkip + stampSize;
+        this.fragmentSize = fragmented && options.getFragmentSize() > 0 ? options.getFragmentSize() : Integer.MAX_VALUE;
+        Assert.isTrue(fragmentSize == Integer.MAX_VALUE || cost(fragmentSize) * 2 <= capacity - Metadata.ORIGIN_OFFSET,
+                "A fragment must fit twice in the ring, fragment size = " + fragmentSize);
+        this.fragmentNanos = options.getFragmentNanos() > 0 ? options.getFragmentNanos() : DEFAULT_FRAGMENT_NANOS;
     }
 
     public static Queue map(String file, long size) {
-        return map(file, size, 0, 0);
+        return map(file, size, new Options());
+    }
+
+    public static Queue map(String file, long size, FlushPolicy flushPolicy) {
+        return map(file, size, new Options().flushPolicy(flushPolicy));
     }
 
     public static Queue map(String file, long size, int id, int index) {
-        Queue queue = new Queue(MappedFile.with(file, size), id, index);
-        queue.init();
+        return map(file, size, new Options().id(id).index(index));
+    }
+
+    public static Queue map(String file, long size, int id, int index, FlushPolicy flushPolicy) {
+        return map(file, size, new Options().id(id).index(index).flushPolicy(flushPolicy));
+    }
+
+    public static Queue map(String file, long size, Options options) {
+        MappedFile memory = MappedFile.with(file, size);
+        return create(file, memory, options, 0, stats(file, memory, options));
+    }
+
+    /**
+     * run on any memory region, e.g. {@link io.traffic.shm.memory.DirectMemory} for an intra-process queue
+     */
+    public static Queue map(Memory memory) {
+        return map(memory, new Options());
+    }
+
+    public static Queue map(Memory memory, Options options) {
+        return create(null, memory, options, 0, stats(null, memory, options));
+    }
+
+    /**
+     * a ring in a part of a file, e.g. a lane, with its statistics in the sidecar of the given name
+     */
+    static Queue map(Memory memory, Options options, String name) {
+        return create(null, memory, options, 0, stats(name, memory, options));
+    }
+
+    private static Queue create(String file, Memory memory, Options options, int generation, Stats stats) {
+        Queue queue = new Queue(file, memory, options, stats);
+        queue.init(generation);
+        queue.flusher.start();
         return queue;
     }
 
-    private void init() {
+    private void init(int generation) {
+        if (overwrite) {
+            metadata.setOverwrite();
+        }
+        if (stamped) {
+            metadata.setTimestamped();
+        }
+        if (counted) {
+            metadata.setCounted();
+        }
+        if (recoverable) {
+            metadata.setRecoverable();
+        }
+        if (checksummed) {
+            metadata.setChecksummed();
+        }
+        if (coded) {
+            metadata.setEncoded();
+        }
+        if (fragmented) {
+            metadata.setFragmented();
+        }
         metadata.initialize(this.id, this.index);
+        metadata.setGeneration(generation);
     }
 
     public static Queue attach(String file) {
-        return attach(file, 0, 0);
+        return attach(file, new Options());
+    }
+
+    public static Queue attach(String file, FlushPolicy flushPolicy) {
+        return attach(file, new Options().flushPolicy(flushPolicy));
     }
 
     public static Queue attach(String file, int id, int index) {
-        Queue queue = new Queue(MappedFile.as(file), id, index);
+        return attach(file, new Options().id(id).index(index));
+    }
+
+    public static Queue attach(String file, int id, int index, FlushPolicy flushPolicy) {
+        return attach(file, new Options().id(id).index(index).flushPolicy(flushPolicy));
+    }
+
+    public static Queue attach(String file, Options options) {
+        MappedFile memory = MappedFile.as(file);
+        return open(file, memory, options, stats(file, memory, options));
+    }
+
+    public static Queue attach(Memory memory) {
+        return attach(memory, new Options());
+    }
+
+    public static Queue attach(Memory memory, Options options) {
+        return open(null, memory, options, stats(null, memory, options));
+    }
+
+    static Queue attach(Memory memory, Options options, String name) {
+        return open(null, memory, options, stats(name, memory, options));
+    }
+
+    private static Queue open(String file, Memory memory, Options options, Stats stats) {
+        Queue queue = new Queue(file, memory, options, stats);
+        queue.flusher.start();
         return queue;
     }
 
+    private static Stats stats(String file, Memory memory, Options options) {
+        if (!options.isStats() && !options.isLatency() && !Metadata.isTimestamped(memory)) {
+            return null;
+        }
+        return file != null ? Stats.map(file) : Stats.allocate();
+    }
+
     @Override
     public void close() throws IOException {
-        if (mappedFile != null) {
-            this.mappedFile.unmap();
+        try {
+            release();
+        } finally {
+            if (stats != null) {
+                stats.close();
+            }
+        }
+    }
+
+    /**
+     * a background flush that failed is thrown once every ring is released
+     */
+    private void release() throws IOException {
+        try {
+            if (memory != null) {
+                try {
+                    this.flusher.stop();
+                } finally {
+                    if (flushPolicy.isDurable()) {
+                        this.memory.force();
+                    }
+                    this.memory.release();
+                }
+            }
+        } finally {
+            Queue successor = next;
+            if (successor != null) {
+                successor.release();
+            }
         }
     }
 
     public Block poll() {
-        return read(readCursor.offset(), writeCursor.offset());
+        Block block;
+        if (fragmented) {
+            // a message is taken fragment by fragment into the assemblies, one polling thread at a time
+            synchronized (assemblies) {
+                block = poll0(true);
+            }
+        } else {
+            block = poll0(true);
+        }
+        if (stats != null) {
+            if (block != null) {
+                stats.polled(block.getPayload().length);
+            } else {
+                stats.empty();
+            }
+        }
+        return block;
+    }
+
+    /**
+     * the statistics of this queue, null unless enabled by {@link Options#stats(boolean)}
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * hand the next block to the handler, a fragment of a message as soon as it arrives, see {@link FragmentHandler}
+     *
+     * @return false if there was no block
+     */
+    public boolean poll(FragmentHandler handler) {
+        Assert.notNull(handler, "FragmentHandler must not be null");
+        if (!fragmented) {
+            return deliver(handler);
+        }
+        // the handler sees the fragments of a message in order, one polling thread at a time
+        synchronized (assemblies) {
+            return deliver(handler);
+        }
+    }
+
+    private boolean deliver(FragmentHandler handler) {
+        Block block = poll0(false);
+        if (block == null) {
+            if (stats != null) {
+                stats.empty();
+            }
+            return false;
+        }
+        int frame = block.frame();
+        int message = frame & Block.MESSAGE_MASK;
+        if ((frame & Block.WHOLE) == Block.WHOLE) {
+            handle(handler, 0, decode(block, block.codec()).getPayload(), 0, true);
+        } else if ((block.codec() & Block.ENCODED) != 0) {
+            // only the whole message can be decoded
+            Block whole = assemble(block);
+            if (whole != null) {
+                handle(handler, message, whole.getPayload(), 0, true);
+            }
+        } else if (track(block, false) != null) {
+            handle(handler, message, block.getPayload(), block.at(), (frame & Block.END) != 0);
+        }
+        return true;
+    }
+
+    /**
+     * the bytes out are counted as the handler gets them, decoded like the bytes in before encoding
+     */
+    private void handle(FragmentHandler handler, int message, byte[] fragment, int offset, boolean last) {
+        if (stats != null) {
+            stats.polled(fragment.length);
+        }
+        handler.onFragment(message, fragment, offset, last);
+    }
+
+    /**
+     * @param assembled whether the fragments of a message are reassembled into the message
+     */
+    private Block poll0(boolean assembled) {
+        if (overwrite) {
+            return peek();
+        }
+        Queue ring = head;
+        for (;;) {
+            Block block = ring.take();
+            if (block != null && assembled && ring.fragmented) {
+                block = assemble(block);
+                if (block == null) {
+                    // the message goes on
+                    continue;
+                }
+            }
+            if (block != null || !ring.isDrained()) {
+                return block;
+            }
+            Queue successor = ring.successor();
+            if (successor == null) {
+                return null;
+            }
+            head = ring = successor;
+        }
+    }
+
+    /**
+     * the message a fragment completes, null while the message goes on or if it is incomplete
+     */
+    private Block assemble(Block fragment) {
+        int frame = fragment.frame();
+        if ((frame & Block.WHOLE) == Block.WHOLE) {
+            return decode(fragment, fragment.codec());
+        }
+        Assembly assembly = track(fragment, true);
+        if (assembly == null || (frame & Block.END) == 0) {
+            return null;
+        }
+        byte[] message = Arrays.copyOf(assembly.buffer, assembly.length);
+        recycle(assembly);
+        return decode(new Block(message), fragment.codec());
+    }
+
+    /**
+     * the assembly a fragment continues, null if its message lost a fragment to the overflow policy or to recovery
+     */
+    private Assembly track(Block fragment, boolean buffered) {
+        int frame = fragment.frame();
+        Integer message = frame & Block.MESSAGE_MASK;
+        Assembly assembly = (frame & Block.BEGIN) != 0
+                ? new Assembly(buffered ? buffer() : null)
+                : assemblies.remove(message);
+        if (assembly == null || assembly.length != fragment.at()) {
+            if (assembly != null) {
+                recycle(assembly);
+            }
+            incomplete.incrementAndGet();
+            return null;
+        }
+        assembly.append(fragment.getPayload());
+        if ((frame & Block.END) == 0) {
+            assemblies.put(message, assembly);
+        }
+        return assembly;
+    }
+
+    private byte[] buffer() {
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[ASSEMBLY_SIZE];
+    }
+
+    private void recycle(Assembly assembly) {
+        if (assembly.buffer != null && buffers.size() < MAX_POOLED_ASSEMBLIES) {
+            buffers.offer(assembly.buffer);
+        }
+    }
+
+    private Block take() {
+        Block block;
+        do {
+            long read = readCursor.offset();
+            if ((read & Metadata.TAKEN) != 0) {
+                // another reader is on the block at the head
+                return null;
+            }
+            block = read(read, limit(read));
+        } while (block == PADDING);
+        return block;
+    }
+
+    /**
+     * the write position a reader may go up to
+     */
+    private long limit(long read) {
+        long write = writeCursor.offset();
+        if ((write & Metadata.SEALED) != 0) {
+            long sealed = metadata.getSealed();
+            return sealed == 0 ? read : sealed;
+        }
+        return write;
+    }
+
+    /**
+     * the read path of an overwrite ring, blocks are not claimed but validated against the write cursor after the copy
+     */
+    private Block peek() {
+        for (;;) {
+            long read = readCursor.offset();
+            long write = writeCursor.offset();
+            if (read >= write) {
+                return null;
+            }
+            if (lapped(read, write)) {
+                resync(read);
+                continue;
+            }
+
+            long offset = rescale(read);
+            int length = Block.length(this.capacity, this.accessor, offset);
+            if (length == 0) {
+                // not published yet
+                return null;
+            }
+            Block block = length < 0 || length > this.capacity ? null
+                    : deserialize(offset, length);
+            long stamp = stamped ? Block.stamp(this.capacity, this.accessor, offset, stampSkip) : 0;
+            int checksum = checksummed ? Block.checksum(this.capacity, this.accessor, offset, ownerSize) : 0;
+            int word = coded ? Block.codec(this.capacity, this.accessor, offset, ownerSize + checksumSize) : 0;
+            // an acquire load keeps later accesses behind it, not the copy ahead of it
+            UNSAFE.loadFence();
+            if (block == null || lapped(read, writeCursor.offset())) {
+                // the producer has overwritten the block while it was copied
+                resync(read);
+                continue;
+            }
+            if (readCursor.update(read, read + sizeof(block))) {
+                latency(stamp);
+                if (checksummed && !verify(read, block, checksum)) {
+                    continue;
+                }
+                return decode(block, word);
+            }
+        }
+    }
+
+    /**
+     * the producer overwrites the previous lap up to the write cursor plus the header it clears ahead
+     */
+    private boolean lapped(long read, long write) {
+        return write + Constant.INT_SIZE - read > this.capacity - Metadata.ORIGIN_OFFSET;
+    }
+
+    /**
+     * skip to the oldest block the producer has not overwritten yet
+     */
+    private void resync(long read) {
+        long oldest = metadata.oldestCursor().offset();
+        if (oldest > read && readCursor.update(read, oldest)) {
+            lapped.incrementAndGet();
+            if (Tracer.isTraceEnabled()) {
+                Tracer.println("R=" + read + " O=" + oldest + " lost=" + (oldest - read) + " LAPPED");
+            }
+        }
+    }
+
+    private boolean isDrained() {
+        long sealed = metadata.getSealed();
+        return sealed != 0 && readOffset() >= sealed;
+    }
+
+    /**
+     * whether a poll may find a block, two loads of the cursors of the head ring and no copy.
+     * a block still being written, a message still being fragmented or a sealed ring count as ready
+     */
+    boolean isReady() {
+        Queue ring = head;
+        long write = ring.writeCursor.offset();
+        return (write & Metadata.SEALED) != 0 || write != ring.readOffset();
+    }
+
+    Queue head() {
+        return head;
+    }
+
+    /**
+     * the claim cursor of the consumer group of this ring, started at the read cursor by the first member
+     */
+    private Cursor claimCursor() {
+        Cursor claim = metadata.claimCursor();
+        if (claim.offset() == 0) {
+            claim.update(0, readOffset());
+        }
+        return claim;
+    }
+
+    /**
+     * claim the published blocks at the claim cursor, up to maxRecords and maxBytes of payload but at least one.
+     * a batch starts with a block and may hold paddings, or is a single padding,
+     * so the read cursor never moves into a batch that is still held
+     */
+    GroupConsumer.Batch claim(GroupConsumer consumer, int maxRecords, long maxBytes) {
+        Assert.isTrue(!overwrite, "An overwrite ring has no consumer group");
+        Assert.isTrue(!fragmented, "The fragments of a message need a single consumer");
+        Cursor claimCursor = claimCursor();
+        for (;;) {
+            long claim = claimCursor.offset();
+            long limit = limit(claim);
+            long position = claim;
+            int count = 0;
+            long bytes = 0;
+            while (position < limit && count < maxRecords) {
+                long offset = rescale(position);
+                int length = Block.length(this.capacity, this.accessor, offset);
+                if (recoverable && Block.isPending(length)) {
+                    if (position == claim && recover(consumer.stall, position, offset, length)) {
+                        // a padding now
+                        continue;
+                    }
+                    break;
+                }
+                if (!isPublished(length)) {
+                    break;
+                }
+                long size = length < 0 ? -length : cost(length);
+                if (length < 0 && position == claim) {
+                    position += size;
+                    break;
+                }
+                if (count > 0 && (bytes + length > maxBytes || position + size - claim > Block.MAX_PENDING_SIZE)) {
+                    break;
+                }
+                position += size;
+                if (length > 0) {
+                    count++;
+                    bytes += length;
+                }
+            }
+            if (position == claim) {
+                if (stats != null) {
+                    stats.empty();
+                }
+                return null;
+            }
+            if (claimCursor.update(claim, position)) {
+                return new GroupConsumer.Batch(this, claim, position, count, bytes);
+            }
+            consumer.retried();
+            if (stats != null) {
+                stats.retried();
+            }
+        }
+    }
+
+    /**
+     * whether the group has claimed everything up to the seal of this ring
+     */
+    boolean isClaimed() {
+        long sealed = metadata.getSealed();
+        return sealed != 0 && claimCursor().offset() >= sealed;
+    }
+
+    /**
+     * the bytes the block or padding at a claimed position takes
+     */
+    long sizeAt(long position) {
+        int length = Block.length(this.capacity, this.accessor, rescale(position));
+        return length < 0 ? -length : cost(length);
+    }
+
+    /**
+     * the block at a claimed position, null for a padding or a block dropped by {@link ChecksumPolicy#skip()}
+     */
+    Block blockAt(long position) {
+        long offset = rescale(position);
+        int length = Block.length(this.capacity, this.accessor, offset);
+        if (length < 0) {
+            return null;
+        }
+        Block block = deserialize(offset, length);
+        if (stamped) {
+            latency(Block.stamp(this.capacity, this.accessor, offset, stampSkip));
+        }
+        if (checksummed && !verify(position, block, Block.checksum(this.capacity, this.accessor, offset, ownerSize))) {
+            return null;
+        }
+        if (coded) {
+            block = decode(block, Block.codec(this.capacity, this.accessor, offset, ownerSize + checksumSize));
+        }
+        if (stats != null) {
+            stats.polled(block.getPayload().length);
+        }
+        return block;
+    }
+
+    /**
+     * the batch becomes one padding, then the read cursor moves over the released batches at its head
+     */
+    void release(GroupConsumer.Batch batch) {
+        if (batch.size() > 0) {
+            Block.release(this.capacity, this.accessor, rescale(batch.start), batch.end - batch.start);
+            if (counted) {
+                metadata.consumed(batch.size());
+            }
+        }
+        Cursor claimCursor = metadata.claimCursor();
+        for (;;) {
+            long read = readCursor.offset();
+            if ((read & Metadata.TAKEN) != 0 || read >= claimCursor.offset()) {
+                // another member moves the read cursor, and looks at this batch after it
+                return;
+            }
+            long offset = rescale(read);
+            int length = Block.length(this.capacity, this.accessor, offset);
+            if (length >= 0 || !isPublished(length) || !take(read)) {
+                // still held by a member, or another member moves the read cursor
+                return;
+            }
+            release(read, offset, -length);
+            // the batch released while the cursor was taken is seen, a release store alone may pass the next load
+            UNSAFE.fullFence();
+        }
     }
 
     public boolean add(Block block) {
@@ -95,9 +722,385 @@ public class Queue implements Closeable {
 
     public boolean offer(Block block) {
         Assert.notNull(block);
-        Assert.notNull(block.getPayload());
+        Block stored = encode(block);
+        boolean fragmenting = stored.length() > fragmentSize;
+        // a slot is locked by a pending word in a recoverable ring, and padded when a claim overshoots in XADD mode
+        Assert.isTrue(!(recoverable || claimStrategy == ClaimStrategy.XADD) || fragmenting
+                        || sizeof(stored) <= Block.MAX_PENDING_SIZE,
+                "The block is too large for a recoverable or XADD ring, size = " + sizeof(stored));
+
+        boolean offered = fragmenting ? fragment(stored) : offer0(stored);
+        if (stats != null) {
+            if (offered) {
+                stats.offered(block.length());
+            } else {
+                stats.failed();
+            }
+        }
+        return offered;
+    }
+
+    /**
+     * offer the concatenation of the parts, e.g. a header and a body that lives in another buffer,
+     * each part is copied straight into the ring, without a combined array.
+     * the parts are concatenated first if the block is encoded or fragmented.
+     */
+    public boolean offer(byte[]... parts) {
+        Assert.notNull(parts, "The parts must not be null");
+        return offer(new Block(parts));
+    }
+
+    /**
+     * offer the concatenation of the remaining bytes of the buffers, heap or direct, like {@link #offer(byte[]...)}.
+     * the positions of the buffers are left unchanged.
+     */
+    public boolean offer(ByteBuffer... parts) {
+        Assert.notNull(parts, "The parts must not be null");
+        return offer(new Block(parts));
+    }
+
+    private boolean offer0(Block block) {
+        if (overwrite) {
+            return overwrite(block);
+        }
+        int result = push(block);
+        switch (overflowPolicy.getMode()) {
+            case BLOCK:
+                return result == 1 || await(block, result);
+            case DROP_NEWEST:
+                while (result == 0) {
+                    result = push(block);
+                }
+                break;
+            case DROP_OLDEST:
+                while (result == 0 || result == -1 && tail.discard()) {
+                    result = push(block);
+                }
+                break;
+            default:
+                return result == 1;
+        }
+        if (result != 1) {
+            dropped.incrementAndGet();
+        }
+        return result == 1;
+    }
+
+    private boolean await(Block block, int result) {
+        IdleStrategy idleStrategy = overflowPolicy.getIdleStrategy();
+        long deadline = System.nanoTime() + overflowPolicy.getTimeoutNanos();
+        int attempt = 0;
+        while (result != 1) {
+            if (result != 0) {
+                if (System.nanoTime() - deadline >= 0) {
+                    return false;
+                }
+                idleStrategy.idle(attempt++);
+            }
+            result = push(block);
+        }
+        return true;
+    }
+
+    /**
+     * consume the oldest block of this ring to make room,
+     * false if nothing is left to drop
+     */
+    private boolean discard() {
+        long read = readCursor.offset();
+        if ((read & Metadata.TAKEN) != 0) {
+            // a reader is making room
+            Thread.onSpinWait();
+            return true;
+        }
+        long write = limit(read);
+        if (read == write) {
+            return false;
+        }
+        long offset = rescale(read);
+        int length = Block.length(this.capacity, this.accessor, offset);
+        if (recoverable && Block.isPending(length)) {
+            recover(readStall, read, offset, length);
+        } else if (isPublished(length) && take(read)) {
+            release(read, offset, length < 0 ? -length : cost(length));
+            if (length > 0) {
+                dropped.incrementAndGet();
+                if (counted) {
+                    metadata.consumed();
+                }
+            }
+        } else {
+            // in flight or taken by a reader
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+    /**
+     * single producer, it never waits for the readers.
+     * the oldest cursor is moved past the blocks about to be overwritten before the write cursor moves,
+     * and the header after the block is cleared before the block is published,
+     * so a reader never takes the leftovers of the previous lap for a block
+     */
+    private boolean overwrite(Block block) {
+        long size = sizeof(block);
+        if (size > this.capacity - Metadata.ORIGIN_OFFSET - Constant.INT_SIZE) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        long write = writeCursor.offset();
+        long shift = write + size;
+        evict(write, shift + Constant.INT_SIZE - (this.capacity - Metadata.ORIGIN_OFFSET));
+        if (!writeCursor.update(write, shift)) {
+            return false;
+        }
+        accessor.putOrderedInt(rescale(shift), 0);
+        serialize(block, rescale(write));
+        flusher.written(write, size);
+        return true;
+    }
+
+    private void evict(long write, long limit) {
+        Cursor cursor = metadata.oldestCursor();
+        long from = cursor.offset();
+        long oldest = from;
+        while (oldest < limit) {
+            int length = Block.length(this.capacity, this.accessor, rescale(oldest));
+            if (length <= 0 || length > this.capacity) {
+                // left behind by a crashed producer
+                oldest = write;
+                break;
+            }
+            oldest += cost(length);
+        }
+        if (oldest != from) {
+            cursor.update(from, oldest);
+        }
+    }
+
+    /**
+     * the bytes of the blocks not consumed yet, over every ring of a grown queue
+     */
+    public long bytesUsed() {
+        long used = 0;
+        for (Queue ring = head; ring != null; ring = ring.next) {
+            used += ring.used();
+        }
+        return used;
+    }
+
+    /**
+     * the bytes the next offer may take before the current ring is full, the length word of a block included
+     */
+    public long remainingCapacity() {
+        Queue ring = tail;
+        return Math.max(ring.capacity - Metadata.ORIGIN_OFFSET - Constant.INT_SIZE - ring.headroom - ring.used(), 0);
+    }
+
+    /**
+     * the approximate number of messages, from the counter of {@link Options#messageCount(boolean)}, -1 without it.
+     * the offers and polls of {@link Stats} are not used, a side that keeps none or attached late would skew them
+     */
+    public long size() {
+        if (!counted) {
+            return -1;
+        }
+        long size = 0;
+        for (Queue ring = head; ring != null; ring = ring.next) {
+            size += ring.metadata.getCount();
+        }
+        return size;
+    }
+
+    /**
+     * the cursors interpreted with the wrap semantics of {@link Cursor#rescale(long, long, long)}:
+     * they only grow, so their distance is the used range whatever lap they are in
+     */
+    private long used() {
+        long read = readOffset();
+        long write = overwrite ? writeCursor.offset() : limit(read);
+        return Math.min(Math.max(write - read, 0), this.capacity - Metadata.ORIGIN_OFFSET);
+    }
+
+    /**
+     * the number of blocks this side dropped under {@link OverflowPolicy}
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * the number of times this side was lapped by the producer of an overwrite ring
+     */
+    public long getLapped() {
+        return lapped.get();
+    }
+
+    /**
+     * the number of slots this side turned into a padding because their producer was gone
+     */
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    /**
+     * the number of blocks this side found not matching their checksum, see {@link ChecksumPolicy}
+     */
+    public long getCorrupted() {
+        return corrupted.get();
+    }
+
+    /**
+     * the number of fragments this side dropped because their message had lost a fragment, see {@link Options#fragmentation(int)}
+     */
+    public long getIncomplete() {
+        return incomplete.get();
+    }
+
+    /**
+     * the number of background flushes of this ring that failed under {@link FlushPolicy}, the first one fails {@link #close()}
+     */
+    public long getFlushFailures() {
+        return flusher.getFailures();
+    }
 
-        return 1 == write(writeCursor.offset(), readCursor.offset(), block);
+    /**
+     * the first fragment may fail like any block, the others wait for room since the consumer holds the first one,
+     * until the fragment timeout aborts the message
+     */
+    private boolean fragment(Block block) {
+        byte[] payload = block.getPayload();
+        int message;
+        do {
+            message = metadata.nextMessage() & Block.MESSAGE_MASK;
+        } while (message == 0);
+        for (int at = 0; at < payload.length; at += fragmentSize) {
+            int length = Math.min(fragmentSize, payload.length - at);
+            int frame = message | (at == 0 ? Block.BEGIN : 0) | (at + length == payload.length ? Block.END : 0);
+            Block fragment = new Block(payload, at, length, block.codec(), frame, at);
+            if (at == 0) {
+                if (!offer0(fragment)) {
+                    return false;
+                }
+                continue;
+            }
+            long deadline = System.nanoTime() + fragmentNanos;
+            int attempt = 0;
+            int result;
+            while ((result = push(fragment)) != 1) {
+                if (result == 0) {
+                    continue;
+                }
+                if (System.nanoTime() - deadline >= 0) {
+                    abort(payload, block.codec(), message);
+                    return false;
+                }
+                FRAGMENT_IDLE.idle(attempt++);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * end a message with a fragment the consumer drops, if there is room for it.
+     * without room the consumer keeps the fragments it has until the message id comes round again
+     */
+    private void abort(byte[] payload, int codec, int message) {
+        Block aborted = new Block(payload, 0, 1, codec, message | Block.END, Block.ABORTED);
+        int result;
+        do {
+            result = push(aborted);
+        } while (result == 0);
+    }
+
+    /**
+     * @return 1 appended, 0 lost the race, -1 full, -2 sealed and the successor is not ready
+     */
+    private int push(Block block) {
+        Queue ring = tail;
+        for (;;) {
+            int result = ring.append(block);
+            if (result == -2) {
+                Queue successor = ring.successor();
+                if (successor == null) {
+                    return -2;
+                }
+                tail = ring = successor;
+            } else if (result != -1 || !ring.grow()) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * @return 1 appended, 0 lost the race, -1 full, -2 sealed
+     */
+    private int append(Block block) {
+        int result;
+        if (claimStrategy == ClaimStrategy.XADD) {
+            result = claim(writeCursor.offset(), readOffset(), block);
+        } else {
+            result = write(writeCursor.offset(), readOffset(), block);
+        }
+        if (result == 1 && fullSince != 0) {
+            fullSince = 0;
+        }
+        return result;
+    }
+
+    /**
+     * creates a larger successor once this ring has been full long enough, then seals this ring
+     */
+    private boolean grow() {
+        if (file == null || !growthPolicy.isEnabled() || capacity >= growthPolicy.getMaxSize()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (fullSince == 0) {
+            fullSince = now;
+        }
+        if (now - fullSince < growthPolicy.getFullNanos() || !metadata.claimNext()) {
+            return false;
+        }
+
+        long size = Math.min(capacity << 1, growthPolicy.getMaxSize());
+        int generation = metadata.getGeneration() + 1;
+        try {
+            next = create(file, MappedFile.with(successorOf(generation), true, size), options, generation, stats);
+        } catch (RuntimeException ex) {
+            metadata.setNext(0);
+            throw ex;
+        }
+        metadata.setNext(size);
+        long sealed = metadata.seal();
+        fullSince = 0;
+        if (Tracer.isTraceEnabled()) {
+            Tracer.println("S=" + sealed + " G=" + generation + " size=" + size + " GROW");
+        }
+        return true;
+    }
+
+    /**
+     * the next ring of the chain, mapped on first use and kept until close,
+     * since other threads of this process may still be working on this ring
+     */
+    Queue successor() {
+        Queue successor = next;
+        if (successor == null && metadata.getNext() > 0) {
+            synchronized (this) {
+                successor = next;
+                if (successor == null) {
+                    int generation = metadata.getGeneration() + 1;
+                    successor = open(file, MappedFile.as(successorOf(generation)), options, stats);
+                    next = successor;
+                }
+            }
+        }
+        return successor;
+    }
+
+    private String successorOf(int generation) {
+        return file + "." + generation;
     }
 
     private Block read(long read, long write) {
@@ -106,48 +1109,341 @@ public class Queue implements Closeable {
         }
 
         long offset = rescale(read);
-        Block block = Block.deserialize(this.capacity, this.address, offset);
-        if (block == null) {
+        int length = Block.length(this.capacity, this.accessor, offset);
+        if (recoverable && Block.isPending(length)) {
+            // in flight, or left behind by a producer that is gone
+            return recover(readStall, read, offset, length) ? PADDING : null;
+        }
+        if (!isPublished(length) || !take(read)) {
             return null;
         }
 
-        long shift = read + block.sizeof();
-        if (readCursor.update(read, shift)) {
-            if (Tracer.isTraceEnabled()) {
-                Tracer.println("R=" + read + " W=" + write + " r=" + rescale(read) + " w=" + rescale(write)
-                        + " l=" + block.getPayload().length + " RS=" + shift + " rs=" + rescale(shift) + " FIN");
-            }
+        if (length < 0) {
+            release(read, offset, -length);
+            return PADDING;
+        }
+
+        Block block = deserialize(offset, length);
+        if (stamped) {
+            latency(Block.stamp(this.capacity, this.accessor, offset, stampSkip));
+        }
+        int checksum = checksummed ? Block.checksum(this.capacity, this.accessor, offset, ownerSize) : 0;
+        int word = coded ? Block.codec(this.capacity, this.accessor, offset, ownerSize + checksumSize) : 0;
+        int frameSkip = ownerSize + checksumSize + codecSize;
+        int frame = fragmented ? Block.frame(this.capacity, this.accessor, offset, frameSkip) : 0;
+        int at = fragmented ? Block.at(this.capacity, this.accessor, offset, frameSkip) : 0;
+        long shift = release(read, offset, sizeof(block));
+        if (counted) {
+            metadata.consumed();
+        }
+        if (checksummed && !verify(read, block, checksum)) {
+            return PADDING;
+        }
+        if (Tracer.isTraceEnabled()) {
+            Tracer.println("R=" + read + " W=" + write + " r=" + rescale(read) + " w=" + rescale(write)
+                    + " l=" + block.getPayload().length + " RS=" + shift + " rs=" + rescale(shift) + " FIN");
+        }
+        if (fragmented) {
+            // decoded once the message is complete
+            return new Block(block.getPayload(), 0, length, word, frame, at);
+        }
+        return decode(block, word);
+    }
+
+    private void latency(long stamp) {
+        if (stamped && stats != null) {
+            stats.getLatency().record(System.nanoTime() - stamp);
+        }
+    }
+
+    /**
+     * a slot pending for longer than the timeout is taken from its producer if that process is gone,
+     * it becomes a padding
+     *
+     * @return true if the slot became a padding
+     */
+    boolean recover(Stall stall, long position, long offset, int pending) {
+        if (!stall.expired(position, recoveryNanos)) {
+            return false;
+        }
+        int owner = Block.owner(this.capacity, this.accessor, offset);
+        if (owner != 0 && isAlive(owner)) {
+            return false;
+        }
+        if (!Block.abandon(this.capacity, this.accessor, offset, pending)) {
+            return false;
+        }
+        abandoned.incrementAndGet();
+        if (Tracer.isTraceEnabled()) {
+            Tracer.println("P=" + position + " p=" + offset + " l=" + Block.pendingSize(pending)
+                    + " owner=" + owner + " ABANDONED");
+        }
+        return true;
+    }
+
+    /**
+     * a block that does not match its checksum is dropped, or fails the poll, once it is consumed
+     */
+    private boolean verify(long position, Block block, int checksum) {
+        if (block.checksum() == checksum) {
+            return true;
+        }
+        corrupted.incrementAndGet();
+        if (Tracer.isTraceEnabled()) {
+            Tracer.println("P=" + position + " l=" + block.getPayload().length + " CORRUPTED");
+        }
+        if (checksumMode == ChecksumPolicy.Mode.FAIL) {
+            throw new IllegalStateException("The block at " + position + " does not match its checksum");
+        }
+        return false;
+    }
+
+    private static boolean isAlive(int pid) {
+        return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    private long sizeof(Block block) {
+        return block.sizeof() + payloadSkip;
+    }
+
+    private long cost(int length) {
+        return Block.cost(length) + payloadSkip;
+    }
+
+    private void serialize(Block block, long offset) {
+        if (checksummed) {
+            block.sign(capacity, accessor, offset, ownerSize);
+        }
+        if (coded) {
+            block.code(capacity, accessor, offset, ownerSize + checksumSize);
+        }
+        if (fragmented) {
+            block.fragment(capacity, accessor, offset, ownerSize + checksumSize + codecSize);
+        }
+        if (stamped) {
+            block.serialize(capacity, accessor, offset, stampSkip, System.nanoTime());
+        } else if (stampSkip > 0) {
+            block.serialize(capacity, accessor, offset, stampSkip);
+        } else {
+            block.serialize(capacity, accessor, offset);
+        }
+    }
+
+    /**
+     * a payload of at least the threshold is stored encoded if the codec shrinks it
+     */
+    private Block encode(Block block) {
+        if (!coded || block.length() < codecThreshold) {
             return block;
         }
-        return null;
+        byte[] payload = block.getPayload();
+        byte[] encoded = codec.encode(payload);
+        return encoded == null ? block : new Block(encoded, Block.ENCODED | payload.length);
+    }
+
+    private Block decode(Block block, int word) {
+        if ((word & Block.ENCODED) == 0) {
+            return block;
+        }
+        return new Block(codec.decode(block.getPayload(), word & ~Block.ENCODED));
+    }
+
+    private Block deserialize(long offset, int length) {
+        return Block.deserialize(this.capacity, this.accessor, offset, length, payloadSkip);
+    }
+
+    /**
+     * whether a length word is a block or a padding, and not one still being written or taken by another reader
+     */
+    private boolean isPublished(int length) {
+        return length != 0 && length <= this.capacity && -length <= this.capacity;
+    }
+
+    /**
+     * the read cursor without the flag of the reader that holds it
+     */
+    private long readOffset() {
+        return readCursor.offset() & ~Metadata.TAKEN;
+    }
+
+    /**
+     * take the block or padding at the read position by setting {@link Metadata#TAKEN} in the read cursor,
+     * only one of the competing readers succeeds, and only while the cursor is still at the position.
+     * the cursor never goes back, so the length word read after the cursor is the one of the block taken,
+     * and a reader that loaded the cursor before another one moved it writes nothing
+     */
+    private boolean take(long read) {
+        return readCursor.update(read, read | Metadata.TAKEN);
+    }
+
+    /**
+     * clear a taken block and move the read cursor over it, the producers reuse the bytes only after the move
+     */
+    private long release(long read, long offset, long size) {
+        Block.clear(this.capacity, this.accessor, offset, size);
+        flusher.cleared(read, size);
+        long shift = read + size;
+        readCursor.set(shift);
+        return shift;
     }
 
     private int write(long write, long read, Block block) {
+        if ((write & Metadata.SEALED) != 0) {
+            return -2;
+        }
         long available = this.capacity - Metadata.ORIGIN_OFFSET - write + read;
 
-        if (block.sizeof() > available - Constant.INT_SIZE) {
+        if (sizeof(block) > available - Constant.INT_SIZE) {
             return -1;
         }
 
-        long shift = write + block.sizeof();
+        long shift = write + sizeof(block);
         if (writeCursor.update(write, shift)) {
             long offset = rescale(write);
-            block.serialize(capacity, address, offset);
+            if (recoverable) {
+                Block.reserve(this.capacity, this.accessor, offset, sizeof(block), OWNER);
+            }
+            serialize(block, offset);
+            if (counted) {
+                metadata.produced();
+            }
+            flusher.written(write, sizeof(block));
+            if (stats != null) {
+                stats.mark(shift - read);
+            }
             if (Tracer.isTraceEnabled()) {
                 Tracer.println("W=" + write + " R=" + read + " w=" + rescale(write) + " r=" + rescale(read)
-                        + " l=" + block.sizeof() + " WS=" + shift + " ws=" + rescale(shift) + " FIN");
+                        + " l=" + sizeof(block) + " WS=" + shift + " ws=" + rescale(shift) + " FIN");
             }
             return 1;
         }
+        if (stats != null) {
+            stats.retried();
+        }
         return 0;
     }
 
+    private int claim(long write, long read, Block block) {
+        if ((write & Metadata.SEALED) != 0) {
+            return -2;
+        }
+        long size = sizeof(block);
+        long available = this.capacity - Metadata.ORIGIN_OFFSET - write + read;
+
+        if (size > available - Constant.INT_SIZE - headroom) {
+            return -1;
+        }
+
+        write = writeCursor.getAndAdd(size);
+        if ((write & Metadata.SEALED) != 0) {
+            // nothing past the seal is read
+            return -2;
+        }
+        long shift = write + size;
+        if (!fits(shift, read) && !fits(shift, read = readOffset())) {
+            // the concurrent claims overshot the headroom
+            if (stats != null) {
+                stats.retried();
+            }
+            giveUp(write, shift, size);
+            return -1;
+        }
+
+        long offset = rescale(write);
+        if (recoverable) {
+            Block.reserve(this.capacity, this.accessor, offset, size, OWNER);
+        }
+        serialize(block, offset);
+        if (counted) {
+            metadata.produced();
+        }
+        flusher.written(write, size);
+        if (stats != null) {
+            stats.mark(shift - read);
+        }
+        if (Tracer.isTraceEnabled()) {
+            Tracer.println("W=" + write + " R=" + read + " w=" + rescale(write) + " r=" + rescale(read)
+                    + " l=" + size + " WS=" + shift + " ws=" + rescale(shift) + " XADD FIN");
+        }
+        return 1;
+    }
+
+    /**
+     * give up a slot claimed past the room of the ring, without waiting for the readers.
+     * the slot is rolled back if no one has claimed after it, or padded once its length word is free.
+     * a claim after it either fits, then the length word of this one fits as well,
+     * or overshoots too and is given up first, so the producers after it unwind it in turn.
+     * on a sealed ring the seal, which the readers stop at, is rolled back instead of the write cursor
+     */
+    private void giveUp(long write, long shift, long size) {
+        for (;;) {
+            if (fits(write + Constant.INT_SIZE, readOffset())) {
+                Block.pad(capacity, accessor, rescale(write), size);
+                return;
+            }
+            if ((writeCursor.offset() & Metadata.SEALED) == 0) {
+                if (writeCursor.update(shift, write)) {
+                    return;
+                }
+            } else if (metadata.unseal(shift, write)) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private boolean fits(long shift, long read) {
+        return shift - read <= this.capacity - Metadata.ORIGIN_OFFSET - Constant.INT_SIZE;
+    }
+
     public boolean reset() {
-       return writeCursor.update(writeCursor.offset(), readCursor.offset());
+       return writeCursor.update(writeCursor.offset(), readOffset());
     }
 
 
     private long rescale(long value) {
         return Cursor.rescale(value, Metadata.ORIGIN_OFFSET, this.capacity);
     }
+
+    /**
+     * a message being reassembled by the consumer, the buffer is pooled, null when the fragments are streamed
+     */
+    private static final class Assembly {
+
+        private byte[] buffer;
+        private int length;
+
+        Assembly(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        void append(byte[] fragment) {
+            if (buffer != null) {
+                if (length + fragment.length > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + fragment.length));
+                }
+                System.arraycopy(fragment, 0, buffer, length, fragment.length);
+            }
+            length += fragment.length;
+        }
+    }
+
+    /**
+     * how long one side has been looking at the same pending slot
+     */
+    static final class Stall {
+
+        private volatile long position = -1;
+        private volatile long since;
+
+        boolean expired(long position, long timeout) {
+            long now = System.nanoTime();
+            if (this.position != position) {
+                this.since = now;
+                this.position = position;
+                return false;
+            }
+            return now - since >= timeout;
+        }
+    }
 }
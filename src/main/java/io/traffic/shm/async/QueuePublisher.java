@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.async;
+
+import io.traffic.util.Assert;
+import io.traffic.util.Tracer;
+
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link Flow.Publisher} of the blocks polled from a {@link Queue}.
+ *
+ * The blocks are polled and signalled by the thread of a {@link FlowScheduler}, no more than the subscriber requested
+ * and at most one batch per round, a demand of {@link Long#MAX_VALUE} is unbounded.
+ * A queue has a single consumer, so the publisher takes one subscriber at a time,
+ * another one is rejected with an {@link IllegalStateException} until the current one cancels.
+ *
+ * @author cuiyi
+ */
+public final class QueuePublisher implements Flow.Publisher<Block> {
+
+    private static final int DEFAULT_BATCH = 64;
+
+    private final Queue queue;
+    private final FlowScheduler scheduler;
+    private final int batch;
+
+    private final AtomicReference<Subscription> active = new AtomicReference<Subscription>();
+
+    private volatile boolean closed;
+
+    private QueuePublisher(Queue queue, FlowScheduler scheduler, int batch) {
+        this.queue = queue;
+        this.scheduler = scheduler;
+        this.batch = batch;
+    }
+
+    public static QueuePublisher create(Queue queue, FlowScheduler scheduler) {
+        return create(queue, scheduler, DEFAULT_BATCH);
+    }
+
+    /**
+     * @param batch the most blocks signalled to the subscriber per round of the scheduler
+     */
+    public static QueuePublisher create(Queue queue, FlowScheduler scheduler, int batch) {
+        Assert.notNull(queue, "Queue must not be null");
+        Assert.notNull(scheduler, "FlowScheduler must not be null");
+        Assert.isTrue(batch > 0, "The batch must greater than 0");
+        return new QueuePublisher(queue, scheduler, batch);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Block> subscriber) {
+        // the spec asks for a NullPointerException
+        Objects.requireNonNull(subscriber, "Subscriber must not be null");
+        Subscription subscription = new Subscription(subscriber);
+        if (closed || !active.compareAndSet(null, subscription)) {
+            subscription.cancelled = true;
+            subscriber.onSubscribe(subscription);
+            subscriber.onError(new IllegalStateException(closed
+                    ? "The publisher is closed" : "The queue has a subscriber already"));
+            return;
+        }
+        subscriber.onSubscribe(subscription);
+        scheduler.register(subscription);
+    }
+
+    /**
+     * complete the subscriber once the queue is found empty, the queue itself is left open
+     */
+    public void close() {
+        closed = true;
+        scheduler.wakeup();
+    }
+
+    private final class Subscription implements Flow.Subscription, FlowScheduler.Task {
+
+        private final Flow.Subscriber<? super Block> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+
+        private volatile boolean cancelled;
+
+        Subscription(Flow.Subscriber<? super Block> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (cancelled) {
+                return;
+            }
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("The demand must greater than 0, n = " + n));
+                return;
+            }
+            long current;
+            do {
+                current = demand.get();
+                if (current == Long.MAX_VALUE) {
+                    return;
+                }
+            } while (!demand.compareAndSet(current, current + Math.min(n, Long.MAX_VALUE - current)));
+            scheduler.wakeup();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                // the blocks are polled by the scheduler thread only, the next subscriber may come in at once
+                active.compareAndSet(this, null);
+                scheduler.wakeup();
+            }
+        }
+
+        @Override
+        public int execute() {
+            if (cancelled) {
+                finish();
+                return 0;
+            }
+            long requested = demand.get();
+            int limit = (int) Math.min(requested, batch);
+            int delivered = 0;
+            Block block = null;
+            while (delivered < limit && !cancelled && (block = queue.poll()) != null) {
+                delivered++;
+                try {
+                    subscriber.onNext(block);
+                } catch (RuntimeException ex) {
+                    // a subscriber must not throw, the subscription is considered cancelled
+                    Tracer.println("onNext failed: " + ex);
+                    cancelled = true;
+                }
+            }
+            if (delivered > 0 && requested != Long.MAX_VALUE) {
+                demand.addAndGet(-delivered);
+            }
+            if (closed && !cancelled && (limit > 0 ? block == null : queue.bytesUsed() == 0)) {
+                finish();
+                subscriber.onComplete();
+            }
+            return delivered;
+        }
+
+        private void finish() {
+            cancelled = true;
+            scheduler.deregister(this);
+            active.compareAndSet(this, null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueuePublisher{batch=" + batch + ", subscribed=" + (active.get() != null) + ", closed=" + closed + "}";
+    }
+}
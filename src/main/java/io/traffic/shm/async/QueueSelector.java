@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.async;
+
+import io.traffic.util.Assert;
+import io.traffic.util.Tracer;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * One thread that consumes many queues, each with a handler of its own.
+ *
+ * A round looks at the cursors of every registered queue, without copying anything out of a queue that is empty,
+ * and drains the ready ones up to maxBlocks and maxBytes each, so a busy queue cannot hold the others back.
+ * The round starts one queue further every time. After a round that found nothing the thread waits with the idle strategy.
+ *
+ * A registered queue is consumed by the selector only, it is deregistered before it is closed.
+ * {@link #selectNow()} may be called in a loop of the caller instead of {@link #start()}, from one thread at a time.
+ *
+ * @author cuiyi
+ */
+public final class QueueSelector implements Runnable {
+
+    private static final Registration[] EMPTY = new Registration[0];
+
+    private final int maxBlocks;
+    private final long maxBytes;
+    private final IdleStrategy idleStrategy;
+
+    /**
+     * copied on write, the round reads the array without a lock
+     */
+    private volatile Registration[] registrations = EMPTY;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    private int next;
+    private long rounds;
+    private long idleRounds;
+
+    private QueueSelector(int maxBlocks, long maxBytes, IdleStrategy idleStrategy) {
+        this.maxBlocks = maxBlocks;
+        this.maxBytes = maxBytes;
+        this.idleStrategy = idleStrategy;
+    }
+
+    public static QueueSelector create() {
+        return create(64, Long.MAX_VALUE, IdleStrategy.backoff());
+    }
+
+    /**
+     * @param maxBlocks the most blocks taken from one queue per round
+     * @param maxBytes the most payload bytes taken from one queue per round, at least one block is taken
+     */
+    public static QueueSelector create(int maxBlocks, long maxBytes, IdleStrategy idleStrategy) {
+        Assert.isTrue(maxBlocks > 0, "maxBlocks must greater than 0");
+        Assert.isTrue(maxBytes > 0, "maxBytes must greater than 0");
+        Assert.notNull(idleStrategy, "IdleStrategy must not be null");
+        return new QueueSelector(maxBlocks, maxBytes, idleStrategy);
+    }
+
+    public synchronized void register(Queue queue, Consumer<Block> handler) {
+        Assert.notNull(queue, "Queue must not be null");
+        Assert.notNull(handler, "Handler must not be null");
+        Assert.isTrue(indexOf(queue) < 0, "The queue is registered already");
+        Registration[] current = registrations;
+        Registration[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = new Registration(queue, handler);
+        registrations = updated;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return false if the queue was not registered
+     */
+    public synchronized boolean deregister(Queue queue) {
+        int index = indexOf(queue);
+        if (index < 0) {
+            return false;
+        }
+        Registration[] current = registrations;
+        Registration[] updated = new Registration[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, updated.length - index);
+        registrations = updated;
+        return true;
+    }
+
+    private int indexOf(Queue queue) {
+        Registration[] current = registrations;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].queue == queue) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * one round over the registered queues
+     *
+     * @return the number of blocks handed to the handlers
+     */
+    public int selectNow() {
+        Registration[] current = registrations;
+        int count = current.length;
+        rounds++;
+        if (count == 0) {
+            idleRounds++;
+            return 0;
+        }
+        int first = next < count ? next : 0;
+        next = first + 1;
+        int handled = 0;
+        for (int i = 0; i < count; i++) {
+            int index = first + i;
+            Registration registration = current[index < count ? index : index - count];
+            if (registration.queue.isReady()) {
+                handled += registration.drain();
+            }
+        }
+        if (handled == 0) {
+            idleRounds++;
+        }
+        return handled;
+    }
+
+    /**
+     * run the rounds on a thread of the selector
+     */
+    public QueueSelector start() {
+        Assert.isTrue(thread == null, "The selector is started already");
+        running = true;
+        Thread t = new Thread(this, "traffic-shm-selector");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+        return this;
+    }
+
+    public void close() {
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(t);
+        if (t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        int attempt = 0;
+        while (running) {
+            int handled;
+            try {
+                handled = selectNow();
+            } catch (RuntimeException ex) {
+                // the block is consumed, the next round goes on with the other queues first
+                Tracer.println("handler failed: " + ex);
+                handled = 1;
+            }
+            if (handled > 0) {
+                attempt = 0;
+            } else {
+                idleStrategy.idle(attempt);
+                attempt = Math.min(attempt + 1, Integer.MAX_VALUE - 1);
+            }
+        }
+    }
+
+    /**
+     * the number of registered queues
+     */
+    public int size() {
+        return registrations.length;
+    }
+
+    public long getRounds() {
+        return rounds;
+    }
+
+    /**
+     * the rounds that handled no block
+     */
+    public long getIdleRounds() {
+        return idleRounds;
+    }
+
+    @Override
+    public String toString() {
+        return "QueueSelector{queues=" + registrations.length + ", maxBlocks=" + maxBlocks + ", maxBytes=" + maxBytes
+                + ", rounds=" + rounds + ", idleRounds=" + idleRounds + "}";
+    }
+
+    private final class Registration {
+
+        final Queue queue;
+        final Consumer<Block> handler;
+
+        Registration(Queue queue, Consumer<Block> handler) {
+            this.queue = queue;
+            this.handler = handler;
+        }
+
+        int drain() {
+            int blocks = 0;
+            long bytes = 0;
+            Block block;
+            while (blocks < maxBlocks && bytes < maxBytes && (block = queue.poll()) != null) {
+                blocks++;
+                bytes += block.getPayload().length;
+                handler.accept(block);
+            }
+            return blocks;
+        }
+    }
+}
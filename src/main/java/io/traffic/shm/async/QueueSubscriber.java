@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.async;
+
+import io.traffic.util.Assert;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link Flow.Subscriber} that offers the blocks it receives to a {@link Queue}.
+ *
+ * It requests a window of blocks and requests more only as the ring takes them in,
+ * so a full ring holds the upstream back instead of blocking its thread:
+ * a block the ring does not take is parked and offered again by a {@link FlowScheduler},
+ * the blocks that follow it are parked behind it to keep their order.
+ * The upstream never has more than the window in flight, parked blocks included.
+ *
+ * @author cuiyi
+ */
+public final class QueueSubscriber implements Flow.Subscriber<Block>, FlowScheduler.Task {
+
+    private static final int DEFAULT_WINDOW = 256;
+
+    private final Queue queue;
+    private final FlowScheduler scheduler;
+    private final int window;
+    private final int refill;
+
+    private final ConcurrentLinkedQueue<Block> parked = new ConcurrentLinkedQueue<Block>();
+    private final AtomicInteger taken = new AtomicInteger();
+
+    private volatile Flow.Subscription subscription;
+    private volatile boolean done;
+    private volatile Throwable error;
+
+    private QueueSubscriber(Queue queue, FlowScheduler scheduler, int window) {
+        this.queue = queue;
+        this.scheduler = scheduler;
+        this.window = window;
+        this.refill = Math.max(window / 2, 1);
+    }
+
+    public static QueueSubscriber create(Queue queue, FlowScheduler scheduler) {
+        return create(queue, scheduler, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window the most blocks requested from the upstream and not yet taken by the ring
+     */
+    public static QueueSubscriber create(Queue queue, FlowScheduler scheduler, int window) {
+        Assert.notNull(queue, "Queue must not be null");
+        Assert.notNull(scheduler, "FlowScheduler must not be null");
+        Assert.isTrue(window > 0, "The window must greater than 0");
+        return new QueueSubscriber(queue, scheduler, window);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null || done) {
+            // the spec asks to cancel a second subscription
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        scheduler.register(this);
+        subscription.request(window);
+    }
+
+    @Override
+    public void onNext(Block block) {
+        if (parked.isEmpty() && queue.offer(block)) {
+            taken();
+            return;
+        }
+        parked.add(block);
+        scheduler.wakeup();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        done = true;
+        scheduler.wakeup();
+    }
+
+    @Override
+    public void onComplete() {
+        done = true;
+        scheduler.wakeup();
+    }
+
+    /**
+     * stop taking blocks from the upstream, the parked blocks are dropped
+     */
+    public void cancel() {
+        Flow.Subscription s = subscription;
+        done = true;
+        parked.clear();
+        if (s != null) {
+            s.cancel();
+        }
+        scheduler.deregister(this);
+    }
+
+    /**
+     * the upstream completed or failed and every block it sent was offered
+     */
+    public boolean isDone() {
+        return done && parked.isEmpty();
+    }
+
+    /**
+     * the failure signalled by the upstream, null if none
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * the number of blocks waiting for room in the ring
+     */
+    public int getParked() {
+        return parked.size();
+    }
+
+    @Override
+    public int execute() {
+        int moved = 0;
+        Block block;
+        // the parked block is removed only once offered, so onNext keeps parking behind it
+        while (moved < window && (block = parked.peek()) != null && queue.offer(block)) {
+            parked.poll();
+            moved++;
+            taken();
+        }
+        if (done && parked.isEmpty()) {
+            scheduler.deregister(this);
+        }
+        return moved;
+    }
+
+    private void taken() {
+        if (taken.incrementAndGet() == refill) {
+            taken.addAndGet(-refill);
+            // onNext and the scheduler may both get here, the spec asks for request to be called serially
+            synchronized (this) {
+                subscription.request(refill);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueueSubscriber{window=" + window + ", parked=" + parked.size() + ", done=" + done + "}";
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.async;
+
+import io.traffic.shm.file.MappedFile;
+import io.traffic.shm.memory.Accessor;
+import io.traffic.shm.memory.Memory;
+import io.traffic.shm.memory.Slice;
+import io.traffic.util.Assert;
+import io.traffic.util.Constant;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only view of a ring, it never moves a cursor nor writes a byte.
+ *
+ * Only the pages that are looked at are touched, so opening a multi-GB file is instant.
+ *
+ * @author cuiyi
+ */
+public final class QueueView implements Closeable {
+
+    private final Memory memory;
+    private final long capacity;
+    private final Accessor accessor;
+    private final Metadata metadata;
+    private final int ownerSize;
+    private final int checksumSize;
+    private final int codecSize;
+    private final int frameSize;
+    private final int stampSize;
+    private final int stampSkip;
+    private final int payloadSkip;
+
+
+    private QueueView(Memory memory) {
+        Assert.notNull(memory, "Memory must not be null");
+        this.memory = memory;
+        this.capacity = memory.size();
+        this.accessor = new Accessor(memory, Metadata.byteOrder(memory, ByteOrder.BIG_ENDIAN));
+        this.metadata = new Metadata(this.capacity, this.accessor);
+        this.ownerSize = metadata.isRecoverable() ? Constant.INT_SIZE : 0;
+        this.checksumSize = metadata.isChecksummed() ? Constant.INT_SIZE : 0;
+        this.codecSize = metadata.isEncoded() ? Constant.INT_SIZE : 0;
+        this.frameSize = metadata.isFragmented() ? Constant.INT_SIZE * 2 : 0;
+        this.stampSize = metadata.isTimestamped() ? Constant.LONG_SIZE : 0;
+        this.stampSkip = ownerSize + checksumSize + codecSize + frameSize;
+        this.payloadSkip = stampSkip + stampSize;
+    }
+
+    public static QueueView of(Memory memory) {
+        return new QueueView(memory);
+    }
+
+    public static QueueView open(String file) {
+        return new QueueView(MappedFile.readOnly(file));
+    }
+
+    /**
+     * the views of the lanes of a {@link LaneQueue} region, empty for a plain ring
+     */
+    public List<QueueView> lanes() {
+        List<QueueView> lanes = new ArrayList<QueueView>();
+        LaneMetadata lane = new LaneMetadata(capacity, accessor);
+        int count = lane.getLanes();
+        if (count <= 0 || count > LaneMetadata.MAX_LANES) {
+            return lanes;
+        }
+        for (int i = 0; i < count; i++) {
+            long offset = lane.getLaneOffset(i);
+            long size = lane.getLaneSize(i);
+            if (size <= Metadata.ORIGIN_OFFSET || offset + size > capacity) {
+                return new ArrayList<QueueView>();
+            }
+            lanes.add(new QueueView(Slice.of(memory, offset, size)));
+        }
+        return lanes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        memory.release();
+    }
+
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public long readPosition() {
+        return metadata.readCursor().offset() & ~Metadata.TAKEN;
+    }
+
+    /**
+     * the write cursor without the seal flag, the sealed position once the ring is sealed
+     */
+    public long writePosition() {
+        long write = metadata.writeCursor().offset();
+        if ((write & Metadata.SEALED) != 0) {
+            long sealed = metadata.getSealed();
+            return sealed == 0 ? write & ~Metadata.SEALED : sealed;
+        }
+        return write;
+    }
+
+    public long bytesUsed() {
+        long read = readPosition();
+        return Math.min(Math.max(writePosition() - read, 0), capacity - Metadata.ORIGIN_OFFSET);
+    }
+
+    /**
+     * the message count of a ring created with {@link Options#messageCount(boolean)}, -1 otherwise
+     */
+    public long count() {
+        return metadata.isCounted() ? metadata.getCount() : -1;
+    }
+
+    public long rescale(long position) {
+        return Cursor.rescale(position, Metadata.ORIGIN_OFFSET, capacity);
+    }
+
+    /**
+     * up to max records from the given position on, stopping at the write cursor or an unpublished block
+     */
+    public List<Record> records(long from, int max) {
+        List<Record> records = new ArrayList<Record>();
+        long write = writePosition();
+        long position = from;
+        while (position < write && records.size() < max) {
+            Record record = record(position);
+            records.add(record);
+            if (record.size <= 0) {
+                break;
+            }
+            position += record.size;
+        }
+        return records;
+    }
+
+    public Record record(long position) {
+        long offset = rescale(position);
+        int length = length(position);
+        if (length == 0) {
+            return new Record(position, 0, 0, 0, null);
+        }
+        if (length < 0) {
+            return new Record(position, length, -length, 0, null);
+        }
+        Block block = Block.deserialize(capacity, accessor, offset, length, payloadSkip);
+        long stamp = stampSize > 0 ? Block.stamp(capacity, accessor, offset, stampSkip) : 0;
+        return new Record(position, length, sizeOf(length), stamp, block.getPayload());
+    }
+
+    /**
+     * the length word of the block at the position, read without the payload, like {@link Record#getLength()}
+     */
+    public int length(long position) {
+        int length = Block.length(capacity, accessor, rescale(position));
+        if (length == 0 || Block.isPending(length)
+                || length > capacity || -length > capacity) {
+            // a pending slot of a recoverable ring is not published either
+            return 0;
+        }
+        return length;
+    }
+
+    /**
+     * the bytes a block with the given length word takes in the ring, like {@link Record#getSize()}
+     */
+    public long sizeOf(int length) {
+        if (length == 0) {
+            return 0;
+        }
+        return length < 0 ? -length : Block.cost(length) + payloadSkip;
+    }
+
+    /**
+     * a block as it is in the ring
+     */
+    public static final class Record {
+
+        private final long position;
+        private final int length;
+        private final long size;
+        private final long timestamp;
+        private final byte[] payload;
+
+        Record(long position, int length, long size, long timestamp, byte[] payload) {
+            this.position = position;
+            this.length = length;
+            this.size = size;
+            this.timestamp = timestamp;
+            this.payload = payload;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * the payload length, 0 if not published yet, negative for a padding
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * the bytes the record takes in the ring, 0 if not published yet
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public boolean isPadding() {
+            return length < 0;
+        }
+
+        public boolean isPublished() {
+            return length != 0;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.async;
+
+import io.traffic.shm.file.MappedFile;
+import io.traffic.shm.memory.Accessor;
+import io.traffic.shm.memory.HeapMemory;
+import io.traffic.shm.memory.Memory;
+import io.traffic.util.Assert;
+import io.traffic.util.Constant;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import static io.traffic.util.Constant.CACHE_LINE_SIZE;
+
+/**
+ * Statistics of a {@link Queue}, kept in a sidecar file next to the queue file, e.g. /dev/shm/ashm.stats,
+ * so that external processes can read them without attaching to the JVM.
+ *
+ *  | --- header --- | ----------- stripe 0 ----------- | ----------- stripe 1 ----------- | ... | -- latency -- |
+ *  0                64                                 192                                320   2112
+ *                   | - producer line - | - consumer line - |
+ *
+ *  the header holds the magic number at 0 and the byte order at 16 like {@link Metadata},
+ *  the number of counters at 4 and the number of stripes at 8.
+ *  a thread counts into the stripe its id and pid pick, the producer counters and the high water mark on one line,
+ *  the consumer counters on the next, so the producers and the consumers never share a line
+ *  and the threads of a side rarely do. a counter is the sum of its stripes, the high water mark their maximum.
+ *  the counters are in the native byte order and updated with a single atomic add on the line of the stripe.
+ *  the mark of a stripe is raised with a plain ordered store, a rise lost to a thread of the same stripe
+ *  is made up by the next one.
+ *  the {@link Histogram} of the latencies follows the stripes.
+ *  the bytes in and out count the payloads as the application offers and polls them,
+ *  before a {@link Codec} encodes them and after it decodes them.
+ *
+ * @author cuiyi
+ */
+public final class Stats implements Closeable {
+
+    public enum Counter {
+        OFFERS, FAILED_OFFERS, CAS_RETRIES, POLLS, EMPTY_POLLS, BYTES_IN, BYTES_OUT, HIGH_WATER_MARK
+    }
+
+    public static final String SUFFIX = ".stats";
+
+    private static final int MAGIC_NUMBER = 0x53545453;
+    private static final int MAGIC_NUMBER_OFFSET = 0;
+    private static final int COUNTERS_OFFSET = 4;
+    private static final int STRIPES_OFFSET = 8;
+    private static final int BYTE_ORDER_OFFSET = 16;
+
+    private static final int STRIPES = 16;
+    private static final int STRIPE_SIZE = CACHE_LINE_SIZE * 2;
+    private static final int STRIPES_BASE = CACHE_LINE_SIZE;
+    private static final int OWNER = (int) ProcessHandle.current().pid();
+
+    private static final int OFFERS = offset(Counter.OFFERS);
+    private static final int FAILED_OFFERS = offset(Counter.FAILED_OFFERS);
+    private static final int CAS_RETRIES = offset(Counter.CAS_RETRIES);
+    private static final int BYTES_IN = offset(Counter.BYTES_IN);
+    private static final int HIGH_WATER_MARK = offset(Counter.HIGH_WATER_MARK);
+    private static final int POLLS = offset(Counter.POLLS);
+    private static final int EMPTY_POLLS = offset(Counter.EMPTY_POLLS);
+    private static final int BYTES_OUT = offset(Counter.BYTES_OUT);
+
+    private static final long HISTOGRAM_OFFSET = STRIPES_BASE + (long) STRIPE_SIZE * STRIPES;
+
+    public static final long SIZE = HISTOGRAM_OFFSET + Histogram.SIZE;
+
+    private final Memory memory;
+    private final Accessor accessor;
+    private final Histogram latency;
+
+
+    private Stats(Memory memory, Accessor accessor) {
+        this.memory = memory;
+        this.accessor = accessor;
+        this.latency = new Histogram(accessor, HISTOGRAM_OFFSET);
+    }
+
+    /**
+     * the offset of a counter in its stripe, the consumer counters on the second line
+     */
+    private static int offset(Counter counter) {
+        switch (counter) {
+            case OFFERS:
+                return 0;
+            case FAILED_OFFERS:
+                return Constant.LONG_SIZE;
+            case CAS_RETRIES:
+                return Constant.LONG_SIZE * 2;
+            case BYTES_IN:
+                return Constant.LONG_SIZE * 3;
+            case HIGH_WATER_MARK:
+                return Constant.LONG_SIZE * 4;
+            case POLLS:
+                return CACHE_LINE_SIZE;
+            case EMPTY_POLLS:
+                return CACHE_LINE_SIZE + Constant.LONG_SIZE;
+            default:
+                return CACHE_LINE_SIZE + Constant.LONG_SIZE * 2;
+        }
+    }
+
+    /**
+     * the stripe of the calling thread, the same one for every update of the thread
+     */
+    private static long stripe() {
+        long hash = (Thread.currentThread().getId() + OWNER) * 0x9E3779B97F4A7C15L;
+        // the top 4 bits pick one of the 16 stripes
+        return STRIPES_BASE + (long) STRIPE_SIZE * (int) (hash >>> 60);
+    }
+
+    /**
+     * the statistics of the queue mapped from file, created if absent
+     */
+    static Stats map(String file) {
+        return map(MappedFile.with(file + SUFFIX, SIZE));
+    }
+
+    static Stats map(Memory memory) {
+        Assert.isTrue(memory.size() >= SIZE, "The memory size must not less than " + SIZE);
+        Accessor accessor = new Accessor(memory, byteOrder(memory));
+        if (accessor.getIntVolatile(MAGIC_NUMBER_OFFSET) != MAGIC_NUMBER) {
+            accessor.putByte(BYTE_ORDER_OFFSET, (byte) (accessor.order() == ByteOrder.LITTLE_ENDIAN ? 1 : 0));
+            accessor.putInt(COUNTERS_OFFSET, Counter.values().length);
+            accessor.putInt(STRIPES_OFFSET, STRIPES);
+            accessor.putIntVolatile(MAGIC_NUMBER_OFFSET, MAGIC_NUMBER);
+        }
+        return new Stats(memory, accessor);
+    }
+
+    /**
+     * in-process statistics of a queue that has no file
+     */
+    static Stats allocate() {
+        return map(HeapMemory.allocate(SIZE));
+    }
+
+    /**
+     * read the statistics of the queue mapped from file by another process
+     */
+    public static Stats attach(String file) {
+        Memory memory = MappedFile.readOnly(file + SUFFIX);
+        Accessor accessor = new Accessor(memory, byteOrder(memory));
+        Assert.isTrue(accessor.getIntVolatile(MAGIC_NUMBER_OFFSET) == MAGIC_NUMBER, "Not a statistics file: " + file + SUFFIX);
+        return new Stats(memory, accessor);
+    }
+
+    private static ByteOrder byteOrder(Memory memory) {
+        Accessor accessor = new Accessor(memory);
+        // the magic number is a palindrome, it reads the same in both orders
+        if (accessor.getIntVolatile(MAGIC_NUMBER_OFFSET) != MAGIC_NUMBER) {
+            return ByteOrder.nativeOrder();
+        }
+        return accessor.getByte(BYTE_ORDER_OFFSET) == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+    }
+
+    @Override
+    public void close() throws IOException {
+        memory.release();
+    }
+
+    public long get(Counter counter) {
+        if (counter.ordinal() >= accessor.getInt(COUNTERS_OFFSET)) {
+            // written by an older version
+            return 0;
+        }
+        long value = 0;
+        for (int stripe = 0; stripe < accessor.getInt(STRIPES_OFFSET); stripe++) {
+            long cell = accessor.getLongVolatile(STRIPES_BASE + (long) STRIPE_SIZE * stripe + offset(counter));
+            value = counter == Counter.HIGH_WATER_MARK ? Math.max(value, cell) : value + cell;
+        }
+        return value;
+    }
+
+    /**
+     * the producer to consumer latencies in nanoseconds of a queue created with {@link Options#latency(boolean)}
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    void offered(int bytes) {
+        long stripe = stripe();
+        accessor.getAndAddLong(stripe + OFFERS, 1);
+        accessor.getAndAddLong(stripe + BYTES_IN, bytes);
+    }
+
+    void failed() {
+        accessor.getAndAddLong(stripe() + FAILED_OFFERS, 1);
+    }
+
+    void retried() {
+        accessor.getAndAddLong(stripe() + CAS_RETRIES, 1);
+    }
+
+    void polled(int bytes) {
+        long stripe = stripe();
+        accessor.getAndAddLong(stripe + POLLS, 1);
+        accessor.getAndAddLong(stripe + BYTES_OUT, bytes);
+    }
+
+    void empty() {
+        accessor.getAndAddLong(stripe() + EMPTY_POLLS, 1);
+    }
+
+    /**
+     * on the producer line of the stripe, which the offer has just written
+     */
+    void mark(long used) {
+        long offset = stripe() + HIGH_WATER_MARK;
+        if (used > accessor.getLong(offset)) {
+            accessor.putOrderedLong(offset, used);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Stats{");
+        for (Counter counter : Counter.values()) {
+            if (counter.ordinal() > 0) {
+                builder.append(", ");
+            }
+            builder.append(counter.name().toLowerCase()).append('=').append(get(counter));
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -16,35 +16,37 @@
 
 package io.traffic.shm.file;
 
-import io.traffic.util.Constant;
-import io.traffic.util.Util;
+import io.traffic.shm.memory.Memory;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.lang.reflect.Method;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * A file mapped into memory.
+ *
+ * The files mapped read-write share one mapping per file in the process, see {@link MappingCache},
+ * so two instances of the same file have the same address and closing one leaves the other mapped.
+ * Mapping a file again with another size while it is mapped fails with an {@link IllegalArgumentException}.
+ *
  * @author cuiyi
  */
-public class MappedFile {
+public class MappedFile implements Memory {
 
-    private final RandomAccessFile raf;
-    private final FileChannel channel;
+    private final MappingCache.Region region;
     private final long size;
     private final long address;
 
     private final AtomicBoolean closed = new AtomicBoolean();
 
-    private MappedFile(RandomAccessFile raf, long size) {
-        this.raf = raf;
-        this.size = Util.pageAlign(size);
-        this.channel = raf.getChannel();
-        this.address = map();
+    private final boolean readOnly;
+
+    private MappedFile(MappingCache.Region region, boolean readOnly) {
+        this.region = region;
+        this.readOnly = readOnly;
+        this.size = region.size;
+        this.address = region.mapping.address();
     }
 
     public static MappedFile with(String file, long size) {
@@ -66,10 +68,32 @@ public class MappedFile {
         return with(f, f.length());
     }
 
+    /**
+     * map an existing file without write access, for inspection tools,
+     * neither the file nor the page cache is modified.
+     * the mapping is not shared
+     */
+    public static MappedFile readOnly(String file) {
+        File f = new File(file);
+        if (!f.exists() || !f.isFile()) {
+            throw new IllegalArgumentException(new FileNotFoundException());
+        }
+        try {
+            return new MappedFile(MappingCache.open(f, f.length(), true), true);
+        } catch (FileNotFoundException ex) {
+            throw new IllegalArgumentException("The specified file not found", ex);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     public static MappedFile with(String file, boolean overwrite, long size) {
         return with(new File(file), overwrite, size);
     }
 
+    /**
+     * @param overwrite replace the file with a new one, the mappings of the old file are left to their holders
+     */
     public static MappedFile with(File file, boolean overwrite, long size) {
         File parentFile = file.getParentFile();
         if (parentFile != null && !parentFile.exists()) {
@@ -89,14 +113,13 @@ public class MappedFile {
             throw new IllegalArgumentException("The specified file size must greater than 0");
         }
 
-        RandomAccessFile raf = null;
         try {
-            raf = new RandomAccessFile(file, "rw");
+            return new MappedFile(MappingCache.acquire(file, size), false);
         } catch (FileNotFoundException ex) {
             throw new IllegalArgumentException("The specified file not found", ex);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
         }
-
-        return new MappedFile(raf, size);
     }
 
     public long getSize() {
@@ -107,74 +130,78 @@ public class MappedFile {
         return address;
     }
 
-    private long map() {
-        if (closed.get()) {
-            throw new IllegalArgumentException("MappedFile has been closed");
+    @Override
+    public Object base() {
+        return null;
+    }
+
+    @Override
+    public long address() {
+        return address;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * flush every dirty page of the file to the storage device
+     */
+    @Override
+    public void force() {
+        if (readOnly || closed.get()) {
+            return;
         }
         try {
-            FileLock lock = channel.lock();
-            try {
-                raf.setLength(size);
-            } finally {
-                lock.release();
-            }
-            return map0(channel, FileChannel.MapMode.READ_WRITE, 0L, size);
-        } catch (Exception ex) {
+            region.channel.force(true);
+        } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
     }
 
-    public void unmap() {
-        if (!closed.compareAndSet(false, true)) {
+    /**
+     * flush the dirty pages in [position, position + length) to the storage device,
+     * the range is widened to page boundaries
+     */
+    @Override
+    public void force(long position, long length) {
+        if (readOnly || length <= 0 || closed.get()) {
             return;
         }
         try {
-            channel.force(true);
-            unmap0(channel, address, size);
-
-            raf.close();
+            region.mapping.force(position, length);
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
     }
 
-    private static long map0(FileChannel fileChannel, FileChannel.MapMode mode, long position, long size)  {
-        if (position < 0) {
-            throw new IllegalArgumentException("Attempt to access a negative position: " + position);
-        }
-
-        if (Util.isWindows() && size > 4L << 30) {
-            throw new IllegalArgumentException("Mapping more than 4096 MB is unusable on Windows, size = " + (size >> 20) + " MiB");
-        }
-
-        Method map0 = Util.getMethod(fileChannel.getClass(), "map0", int.class, long.class, long.class);
-        return (Long) Util.invokeMethod(map0, fileChannel, modeFor(mode), mapAlign(position), Util.pageAlign(size));
+    public void unmap() {
+        unmap(true);
     }
 
-    private static void unmap0(FileChannel fileChannel, long address, long size) {
-        Method unmap0 = Util.getMethod(fileChannel.getClass(), "unmap0", long.class, long.class);
-        Util.invokeMethod(unmap0, null, address, Util.pageAlign(size));
+    /**
+     * unmap without writing the dirty pages back, see {@link #force()}
+     */
+    @Override
+    public void release() {
+        unmap(false);
     }
 
-    private static int modeFor(FileChannel.MapMode mapMode) {
-        int mode = -1;
-        if (FileChannel.MapMode.READ_ONLY.equals(mapMode)) {
-            mode = 0;
-        } else if (FileChannel.MapMode.READ_WRITE.equals(mapMode)) {
-            mode = 1;
-        } else if (FileChannel.MapMode.PRIVATE.equals(mapMode)) {
-            mode = 2;
+    /**
+     * the file stays mapped while another instance of it is open
+     */
+    public void unmap(boolean force) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (force && !readOnly) {
+                region.channel.force(true);
+            }
+            MappingCache.release(region);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
         }
-        assert (mode >= 0);
-        return mode;
-    }
-
-    private static long mapAlignment() {
-        return Util.isWindows() ? 64 << 10 : Constant.PAGE_SIZE;
-    }
-
-    private static long mapAlign(long position) {
-        return Util.align(position, mapAlignment());
     }
-
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.file;
+
+import io.traffic.util.Constant;
+import io.traffic.util.UNSAFE;
+import io.traffic.util.Util;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A raw memory mapping of a file region.
+ *
+ * This implementation calls the private map0/unmap0 natives of the JDK through {@link MethodHandle}s
+ * which are resolved once, it needs --add-opens=java.base/sun.nio.ch=ALL-UNNAMED.
+ * On JDK 22+ it is replaced by the version under META-INF/versions/22 of the multi-release jar,
+ * which is built on FileChannel.map(MapMode, long, long, Arena) and needs no private API.
+ *
+ * @author cuiyi
+ */
+final class Mapping {
+
+    private static final long MAX_FORCE_CHUNK = 1L << 30;
+
+    /**
+     * (FileChannel, int prot, long position, long length) long
+     */
+    private static final MethodHandle MAP0;
+
+    /**
+     * (long address, long length) int
+     */
+    private static final MethodHandle UNMAP0;
+
+    static {
+        try {
+            Class<?> impl = Class.forName("sun.nio.ch.FileChannelImpl");
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(impl, MethodHandles.lookup());
+            MethodType mapType = MethodType.methodType(long.class, FileChannel.class, int.class, long.class, long.class);
+
+            MethodHandle map0;
+            MethodHandle unmap0;
+            try {
+                // JDK 9 - 13
+                map0 = lookup.findVirtual(impl, "map0",
+                        MethodType.methodType(long.class, int.class, long.class, long.class));
+                unmap0 = lookup.findStatic(impl, "unmap0", MethodType.methodType(int.class, long.class, long.class));
+            } catch (NoSuchMethodException ex) {
+                try {
+                    // JDK 14 - 18
+                    map0 = lookup.findVirtual(impl, "map0",
+                            MethodType.methodType(long.class, int.class, long.class, long.class, boolean.class));
+                    map0 = MethodHandles.insertArguments(map0, 4, false);
+                    unmap0 = lookup.findStatic(impl, "unmap0", MethodType.methodType(int.class, long.class, long.class));
+                } catch (NoSuchMethodException e) {
+                    // JDK 19 - 21, the natives were moved to the platform file dispatcher
+                    Class<?> dispatcher = dispatcher();
+                    MethodHandles.Lookup dispatcherLookup = MethodHandles.privateLookupIn(dispatcher, MethodHandles.lookup());
+                    map0 = dispatcherLookup.findStatic(dispatcher, "map0", MethodType.methodType(long.class,
+                            FileDescriptor.class, int.class, long.class, long.class, boolean.class));
+                    map0 = MethodHandles.insertArguments(map0, 4, false);
+                    map0 = MethodHandles.filterArguments(map0, 0, lookup.findGetter(impl, "fd", FileDescriptor.class));
+                    unmap0 = dispatcherLookup.findStatic(dispatcher, "unmap0",
+                            MethodType.methodType(int.class, long.class, long.class));
+                }
+            }
+            MAP0 = map0.asType(mapType);
+            UNMAP0 = unmap0;
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Unable to resolve map0/unmap0, "
+                    + "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED is required", ex);
+        }
+    }
+
+    private static Class<?> dispatcher() throws ClassNotFoundException {
+        try {
+            return Class.forName("sun.nio.ch.UnixFileDispatcherImpl");
+        } catch (ClassNotFoundException ex) {
+            return Class.forName("sun.nio.ch.FileDispatcherImpl");
+        }
+    }
+
+    private final FileChannel channel;
+    private final long position;
+    private final long address;
+    private final long size;
+
+    private Mapping(FileChannel channel, long position, long address, long size) {
+        this.channel = channel;
+        this.position = position;
+        this.address = address;
+        this.size = size;
+    }
+
+    static Mapping map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+        long address;
+        try {
+            address = (long) MAP0.invokeExact(channel, modeFor(mode), position, size);
+        } catch (IOException | RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+        return new Mapping(channel, position, address, size);
+    }
+
+    long address() {
+        return address;
+    }
+
+    /**
+     * the range is relative to the start of this mapping and widened to page boundaries
+     */
+    void force(long offset, long length) throws IOException {
+        long start = offset & ~(Constant.PAGE_SIZE - 1L);
+        long end = Math.min(Util.align(offset + length, Constant.PAGE_SIZE), size);
+        while (start < end) {
+            long chunk = Math.min(end - start, MAX_FORCE_CHUNK);
+            // the window shares the page cache with this mapping,
+            // so msync on it writes back whatever the producers dirtied
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, position + start, chunk);
+            try {
+                window.force();
+            } finally {
+                UNSAFE.invokeCleaner(window);
+            }
+            start += chunk;
+        }
+    }
+
+    void unmap() {
+        try {
+            int ignored = (int) UNMAP0.invokeExact(address, size);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static int modeFor(FileChannel.MapMode mapMode) {
+        int mode = -1;
+        if (FileChannel.MapMode.READ_ONLY.equals(mapMode)) {
+            mode = 0;
+        } else if (FileChannel.MapMode.READ_WRITE.equals(mapMode)) {
+            mode = 1;
+        } else if (FileChannel.MapMode.PRIVATE.equals(mapMode)) {
+            mode = 2;
+        }
+        assert (mode >= 0);
+        return mode;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.file;
+
+import io.traffic.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The files mapped read-write by this process, keyed by canonical path.
+ *
+ * Every {@link MappedFile} of a file shares one {@link Region}: one descriptor, one mapping and one range of
+ * virtual addresses, so attaching the same queue again costs no mmap, no page tables and no TLB entries.
+ * A region is reference counted and the last release unmaps it.
+ * A region is reused for the same file key, a file replaced under the same path gets a region of its own.
+ * A file mapped by this process is never mapped again with another size, resizing it under the live mapping
+ * would fault the readers of the truncated pages.
+ *
+ * @author cuiyi
+ */
+final class MappingCache {
+
+    private static final Map<String, Region> REGIONS = new HashMap<String, Region>();
+
+    private MappingCache() {
+    }
+
+    /**
+     * the region of the file, mapped read-write and sized to the page aligned size if it is not mapped yet
+     *
+     * @throws IllegalArgumentException if this process has the file mapped with another size
+     */
+    static Region acquire(File file, long size) throws IOException {
+        long aligned = Util.pageAlign(size);
+        String path = file.getCanonicalPath();
+        synchronized (REGIONS) {
+            Region region = REGIONS.get(path);
+            if (region != null && Objects.equals(region.fileKey, fileKey(file))) {
+                if (region.size != aligned) {
+                    throw new IllegalArgumentException("The file " + path + " is mapped with " + region.size
+                            + " bytes by this process, size = " + aligned);
+                }
+                region.references++;
+                return region;
+            }
+            // a stale region stays mapped for its holders but is no longer found
+            Region created = open(path, file, aligned, false);
+            REGIONS.put(path, created);
+            return created;
+        }
+    }
+
+    /**
+     * a region of its own, never shared
+     */
+    static Region open(File file, long size, boolean readOnly) throws IOException {
+        return open(null, file, Util.pageAlign(size), readOnly);
+    }
+
+    private static Region open(String path, File file, long size, boolean readOnly) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            Mapping mapping;
+            if (readOnly) {
+                mapping = map(channel, FileChannel.MapMode.READ_ONLY, size);
+            } else {
+                FileLock lock = channel.lock();
+                try {
+                    raf.setLength(size);
+                } finally {
+                    lock.release();
+                }
+                mapping = map(channel, FileChannel.MapMode.READ_WRITE, size);
+            }
+            return new Region(path, fileKey(file), raf, channel, mapping, size);
+        } catch (IOException | RuntimeException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * drop one reference, the last one unmaps the region and closes its descriptor
+     */
+    static void release(Region region) throws IOException {
+        synchronized (REGIONS) {
+            if (--region.references > 0) {
+                return;
+            }
+            if (region.path != null && REGIONS.get(region.path) == region) {
+                REGIONS.remove(region.path);
+            }
+        }
+        region.mapping.unmap();
+        region.raf.close();
+    }
+
+    /**
+     * the identity of the file behind the path, the device and inode on unix, null if there is none
+     */
+    private static Object fileKey(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private static Mapping map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        if (Util.isWindows() && size > 4L << 30) {
+            throw new IllegalArgumentException("Mapping more than 4096 MB is unusable on Windows, size = " + (size >> 20) + " MiB");
+        }
+        return Mapping.map(channel, mode, 0L, size);
+    }
+
+    /**
+     * One mapping of a file and the descriptor it was made through.
+     */
+    static final class Region {
+
+        final String path;
+        final Object fileKey;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        final Mapping mapping;
+        final long size;
+
+        /**
+         * guarded by the cache
+         */
+        private int references = 1;
+
+        Region(String path, Object fileKey, RandomAccessFile raf, FileChannel channel, Mapping mapping, long size) {
+            this.path = path;
+            this.fileKey = fileKey;
+            this.raf = raf;
+            this.channel = channel;
+            this.mapping = mapping;
+            this.size = size;
+        }
+    }
+}
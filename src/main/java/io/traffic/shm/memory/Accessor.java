@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.memory;
+
+import io.traffic.util.UNSAFE;
+import sun.misc.Unsafe;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Accessor of a {@link Memory}, every offset is relative to the first byte of the region.
+ *
+ * With {@link ByteOrder#BIG_ENDIAN} every multi-byte access goes through {@link UNSAFE}, which swaps
+ * the bytes on little-endian machines. When the order is the native one, the accessor calls the
+ * {@link Unsafe} intrinsics directly and getAndAdd becomes a single XADD instead of a CAS loop.
+ *
+ * @author cuiyi
+ */
+public final class Accessor {
+
+    private static final Unsafe U = UNSAFE.getUnsafe();
+
+    private static final long BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
+
+    private final Memory memory;
+    private final Object base;
+    private final long address;
+    private final long size;
+    private final ByteOrder order;
+    private final boolean raw;
+
+    public Accessor(Memory memory) {
+        this(memory, ByteOrder.BIG_ENDIAN);
+    }
+
+    public Accessor(Memory memory, ByteOrder order) {
+        this.memory = memory;
+        this.base = memory.base();
+        this.address = memory.address();
+        this.size = memory.size();
+        this.order = order;
+        this.raw = order == ByteOrder.nativeOrder();
+    }
+
+    public Memory memory() {
+        return memory;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public ByteOrder order() {
+        return order;
+    }
+
+    public byte getByte(long offset) {
+        return UNSAFE.getByte(base, address + offset);
+    }
+
+    public void putByte(long offset, byte value) {
+        UNSAFE.putByte(base, address + offset, value);
+    }
+
+    public int getUnsignedShort(long offset) {
+        if (raw) {
+            return U.getShort(base, address + offset) & 0xffff;
+        }
+        return UNSAFE.getShort(base, address + offset) & 0xffff;
+    }
+
+    public void putUnsignedShort(long offset, int value) {
+        if (raw) {
+            U.putShort(base, address + offset, (short) value);
+        } else {
+            UNSAFE.putShort(base, address + offset, (short) value);
+        }
+    }
+
+    public int getInt(long offset) {
+        if (raw) {
+            return U.getInt(base, address + offset);
+        }
+        return UNSAFE.getInt(base, address + offset);
+    }
+
+    public void putInt(long offset, int value) {
+        if (raw) {
+            U.putInt(base, address + offset, value);
+        } else {
+            UNSAFE.putInt(base, address + offset, value);
+        }
+    }
+
+    public int getIntVolatile(long offset) {
+        if (raw) {
+            return U.getIntVolatile(base, address + offset);
+        }
+        return UNSAFE.getIntVolatile(base, address + offset);
+    }
+
+    /**
+     * a load that no later load or store moves ahead of, it pairs with {@link #putOrderedInt(long, int)}
+     */
+    public int getIntAcquire(long offset) {
+        int value = getInt(offset);
+        U.loadFence();
+        return value;
+    }
+
+    public void putIntVolatile(long offset, int value) {
+        if (raw) {
+            U.putIntVolatile(base, address + offset, value);
+        } else {
+            UNSAFE.putIntVolatile(base, address + offset, value);
+        }
+    }
+
+    public void putOrderedInt(long offset, int value) {
+        if (raw) {
+            U.putOrderedInt(base, address + offset, value);
+        } else {
+            UNSAFE.putOrderedInt(base, address + offset, value);
+        }
+    }
+
+    public boolean compareAndSwapInt(long offset, int expected, int value) {
+        if (raw) {
+            return U.compareAndSwapInt(base, address + offset, expected, value);
+        }
+        return UNSAFE.compareAndSwapInt(base, address + offset, expected, value);
+    }
+
+    public int getAndAddInt(long offset, int delta) {
+        if (raw) {
+            return U.getAndAddInt(base, address + offset, delta);
+        }
+        return UNSAFE.getAndAddInt(base, address + offset, delta);
+    }
+
+    public long getLong(long offset) {
+        if (raw) {
+            return U.getLong(base, address + offset);
+        }
+        return UNSAFE.getLong(base, address + offset);
+    }
+
+    public void putLong(long offset, long value) {
+        if (raw) {
+            U.putLong(base, address + offset, value);
+        } else {
+            UNSAFE.putLong(base, address + offset, value);
+        }
+    }
+
+    public long getLongVolatile(long offset) {
+        if (raw) {
+            return U.getLongVolatile(base, address + offset);
+        }
+        return UNSAFE.getLongVolatile(base, address + offset);
+    }
+
+    /**
+     * a load that no later load or store moves ahead of, it pairs with {@link #putOrderedLong(long, long)}
+     * and with the compare-and-swaps, the offset must be 8 bytes aligned to read the value in one access
+     */
+    public long getLongAcquire(long offset) {
+        long value = getLong(offset);
+        U.loadFence();
+        return value;
+    }
+
+    public void putLongVolatile(long offset, long value) {
+        if (raw) {
+            U.putLongVolatile(base, address + offset, value);
+        } else {
+            UNSAFE.putLongVolatile(base, address + offset, value);
+        }
+    }
+
+    public void putOrderedLong(long offset, long value) {
+        if (raw) {
+            U.putOrderedLong(base, address + offset, value);
+        } else {
+            UNSAFE.putOrderedLong(base, address + offset, value);
+        }
+    }
+
+    public boolean compareAndSwapLong(long offset, long expected, long value) {
+        if (raw) {
+            return U.compareAndSwapLong(base, address + offset, expected, value);
+        }
+        return UNSAFE.compareAndSwapLong(base, address + offset, expected, value);
+    }
+
+    public long getAndAddLong(long offset, long delta) {
+        if (raw) {
+            return U.getAndAddLong(base, address + offset, delta);
+        }
+        return UNSAFE.getAndAddLong(base, address + offset, delta);
+    }
+
+    public long getAndSetLong(long offset, long value) {
+        if (raw) {
+            return U.getAndSetLong(base, address + offset, value);
+        }
+        return UNSAFE.getAndSetLong(base, address + offset, value);
+    }
+
+    public void setMemory(long offset, long length, byte value) {
+        UNSAFE.setMemory(base, address + offset, length, value);
+    }
+
+    /**
+     * copy src[srcOffset, srcOffset + length) to [offset, offset + length)
+     */
+    public void setBytes(byte[] src, long srcOffset, long offset, long length) {
+        UNSAFE.copyMemory(src, BYTE_ARRAY_OFFSET + srcOffset, base, address + offset, length);
+    }
+
+    /**
+     * copy length bytes of src from srcOffset past its position to [offset, offset + length),
+     * heap or direct, the position of src is left unchanged
+     */
+    public void setBytes(ByteBuffer src, long srcOffset, long offset, long length) {
+        if (src.hasArray()) {
+            setBytes(src.array(), src.arrayOffset() + src.position() + srcOffset, offset, length);
+        } else if (src.isDirect()) {
+            UNSAFE.copyMemory(null, UNSAFE.address(src) + src.position() + srcOffset, base, address + offset, length);
+        } else {
+            // a read-only heap buffer does not expose its array
+            byte[] bytes = new byte[(int) length];
+            ByteBuffer duplicate = src.duplicate();
+            duplicate.position(duplicate.position() + (int) srcOffset);
+            duplicate.get(bytes);
+            setBytes(bytes, 0, offset, length);
+        }
+    }
+
+    /**
+     * copy [offset, offset + length) to dst[dstOffset, dstOffset + length)
+     */
+    public void getBytes(long offset, byte[] dst, long dstOffset, long length) {
+        UNSAFE.copyMemory(base, address + offset, dst, BYTE_ARRAY_OFFSET + dstOffset, length);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.memory;
+
+import io.traffic.util.Constant;
+import io.traffic.util.UNSAFE;
+import io.traffic.util.Util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Anonymous off-heap memory, for queues shared by the threads of one process.
+ *
+ * @author cuiyi
+ */
+public final class DirectMemory implements Memory {
+
+    private final long raw;
+    private final long address;
+    private final long size;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private DirectMemory(long size) {
+        this.size = Util.align(size, Constant.CACHE_LINE_SIZE);
+        this.raw = UNSAFE.allocateMemory(this.size + Constant.CACHE_LINE_SIZE);
+        this.address = Util.align(raw, Constant.CACHE_LINE_SIZE);
+        UNSAFE.setMemory(this.address, this.size, (byte) 0);
+    }
+
+    public static DirectMemory allocate(long size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The specified size must greater than 0");
+        }
+        return new DirectMemory(size);
+    }
+
+    @Override
+    public Object base() {
+        return null;
+    }
+
+    @Override
+    public long address() {
+        return address;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void force() {
+    }
+
+    @Override
+    public void force(long position, long length) {
+    }
+
+    @Override
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            UNSAFE.freeMemory(raw);
+        }
+    }
+}
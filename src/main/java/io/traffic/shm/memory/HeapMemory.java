@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.memory;
+
+import io.traffic.util.Constant;
+import io.traffic.util.UNSAFE;
+import io.traffic.util.Util;
+
+/**
+ * Memory on the java heap, backed by a long[] so that every 8 bytes word is aligned.
+ * Useful for tests and benchmarks without any I/O.
+ *
+ * @author cuiyi
+ */
+public final class HeapMemory implements Memory {
+
+    private static final long LONG_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(long[].class);
+
+    private final long[] array;
+    private final long size;
+
+    private HeapMemory(long size) {
+        this.size = Util.align(size, Constant.CACHE_LINE_SIZE);
+        if (this.size / Constant.LONG_SIZE > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The specified size is too large for heap memory, size = " + size);
+        }
+        this.array = new long[(int) (this.size / Constant.LONG_SIZE)];
+    }
+
+    public static HeapMemory allocate(long size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The specified size must greater than 0");
+        }
+        return new HeapMemory(size);
+    }
+
+    @Override
+    public Object base() {
+        return array;
+    }
+
+    @Override
+    public long address() {
+        return LONG_ARRAY_OFFSET;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void force() {
+    }
+
+    @Override
+    public void force(long position, long length) {
+    }
+
+    @Override
+    public void release() {
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.memory;
+
+/**
+ * A contiguous memory region a {@link io.traffic.shm.async.Queue} runs on.
+ *
+ * The region is addressed as {@code (base, address + offset)} with {@link io.traffic.util.UNSAFE},
+ * base is null for native memory and the backing array for heap memory.
+ *
+ * @author cuiyi
+ */
+public interface Memory {
+
+    /**
+     * @return the backing object, or null for native memory
+     */
+    Object base();
+
+    /**
+     * @return the native address, or the offset of the first byte within {@link #base()}
+     */
+    long address();
+
+    long size();
+
+    /**
+     * write the whole region back to the storage device, no-op for volatile memory
+     */
+    void force();
+
+    /**
+     * write [position, position + length) back to the storage device, no-op for volatile memory
+     */
+    void force(long position, long length);
+
+    void release();
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.memory;
+
+import io.traffic.util.Assert;
+
+/**
+ * A window [offset, offset + size) of another region, so that several rings can share one file.
+ * The window does not own the memory, releasing it is a no-op.
+ *
+ * @author cuiyi
+ */
+public final class Slice implements Memory {
+
+    private final Memory parent;
+    private final long offset;
+    private final long size;
+
+    private Slice(Memory parent, long offset, long size) {
+        this.parent = parent;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public static Slice of(Memory parent, long offset, long size) {
+        Assert.notNull(parent, "Memory must not be null");
+        Assert.isTrue(offset >= 0 && size > 0 && offset + size <= parent.size(),
+                "The slice is out of the bounds of the memory");
+        Assert.isTrue((offset & 7) == 0, "The slice must be 8 bytes aligned");
+        return new Slice(parent, offset, size);
+    }
+
+    public Memory parent() {
+        return parent;
+    }
+
+    public long offset() {
+        return offset;
+    }
+
+    @Override
+    public Object base() {
+        return parent.base();
+    }
+
+    @Override
+    public long address() {
+        return parent.address() + offset;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void force() {
+        parent.force(offset, size);
+    }
+
+    @Override
+    public void force(long position, long length) {
+        parent.force(offset + position, length);
+    }
+
+    @Override
+    public void release() {
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.tool;
+
+import io.traffic.shm.async.Metadata;
+import io.traffic.shm.async.QueueView;
+import io.traffic.shm.async.Stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prints the state of a queue file without consuming anything, the file is mapped read-only.
+ *
+ * <pre>
+ * java -jar traffic-shm.jar /dev/shm/ashm [--dump N] [--tail N] [--watch MILLIS]
+ * </pre>
+ *
+ * <ul>
+ * <li>--dump N: hex-dump the next N records the consumer would take</li>
+ * <li>--tail N: hex-dump the newest N records, a refresh goes on from the newest record seen</li>
+ * <li>--watch MILLIS: refresh like top, with the in and out rates</li>
+ * </ul>
+ *
+ * @author cuiyi
+ */
+public final class Inspect {
+
+    private static final int WALK_LIMIT = 100000;
+    private static final int DUMP_BYTES = 256;
+
+    private final PrintStream out;
+    private final String file;
+    private Stats stats;
+    private boolean statsOpened;
+    private long lastRead = -1;
+    private long lastWrite = -1;
+    private long lastTime;
+    // the newest records seen by --tail, per lane, -1 for a plain ring
+    private final Map<Integer, Tail> tails = new HashMap<Integer, Tail>();
+
+    Inspect(PrintStream out, String file) {
+        this.out = out;
+        this.file = file;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String file = null;
+        int dump = 0;
+        int tail = 0;
+        long watch = 0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("--dump".equals(args[i])) {
+                    dump = Integer.parseInt(args[++i]);
+                } else if ("--tail".equals(args[i])) {
+                    tail = Integer.parseInt(args[++i]);
+                } else if ("--watch".equals(args[i])) {
+                    watch = Long.parseLong(args[++i]);
+                } else if (file == null && !args[i].startsWith("--")) {
+                    file = args[i];
+                } else {
+                    usage();
+                    return;
+                }
+            }
+        } catch (RuntimeException ex) {
+            usage();
+            return;
+        }
+        if (file == null || !new File(file).isFile()) {
+            usage();
+            return;
+        }
+
+        Inspect inspect = new Inspect(System.out, file);
+        QueueView view = QueueView.open(file);
+        try {
+            do {
+                if (watch > 0) {
+                    // clear the terminal
+                    System.out.print("\033[H\033[2J");
+                }
+                inspect.print(view, dump, tail);
+                System.out.flush();
+                if (watch > 0) {
+                    Thread.sleep(watch);
+                }
+            } while (watch > 0);
+        } finally {
+            inspect.close();
+            view.close();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: Inspect <file> [--dump N] [--tail N] [--watch MILLIS]");
+    }
+
+    void print(QueueView view, int dump, int tail) {
+        List<QueueView> lanes = view.lanes();
+        if (lanes.isEmpty()) {
+            print(view, -1, stats(), dump, tail);
+            return;
+        }
+        header(view.getMetadata());
+        out.println("lanes      " + lanes.size());
+        for (int i = 0; i < lanes.size(); i++) {
+            out.println();
+            out.println("--- lane " + i + " ---");
+            print(lanes.get(i), i, null, dump, tail);
+        }
+    }
+
+    private void print(QueueView view, int lane, Stats stats, int dump, int tail) {
+        Metadata metadata = view.getMetadata();
+        header(metadata);
+
+        long capacity = view.capacity();
+        long read = view.readPosition();
+        long write = view.writePosition();
+        long used = write - read;
+        long usable = capacity - Metadata.ORIGIN_OFFSET;
+
+        StringBuilder flags = new StringBuilder();
+        if (metadata.isOverwrite()) {
+            flags.append("overwrite ");
+        }
+        if (metadata.isTimestamped()) {
+            flags.append("timestamped ");
+        }
+        if (metadata.isCounted()) {
+            flags.append("counted ");
+        }
+        if (metadata.isRecoverable()) {
+            flags.append("recoverable ");
+        }
+        if (metadata.isChecksummed()) {
+            flags.append("checksummed ");
+        }
+        if (metadata.isEncoded()) {
+            flags.append("encoded ");
+        }
+        if (metadata.isFragmented()) {
+            flags.append("fragmented ");
+        }
+        if (metadata.isSealed()) {
+            flags.append("sealed ");
+        }
+        out.println("flags      " + (flags.length() == 0 ? "-" : flags.toString().trim()));
+        out.println("generation " + metadata.getGeneration() + (metadata.getNext() > 0
+                ? " (next " + metadata.getNext() + " bytes)" : metadata.getNext() < 0 ? " (growing)" : ""));
+        out.println("capacity   " + capacity + " (" + usable + " usable)");
+        out.println("read       " + read + " @" + view.rescale(read));
+        out.println("write      " + write + " @" + view.rescale(write));
+        out.println("used       " + used + " bytes (" + (usable > 0 ? used * 100 / usable : 0) + "%)");
+        out.println("count      " + count(view, stats, read));
+        out.println("lag        " + used + " bytes" + age(view, read, write));
+
+        long now = System.nanoTime();
+        if (lastTime != 0 && now > lastTime) {
+            double seconds = (now - lastTime) / 1e9;
+            out.printf("rate       in %.0f B/s, out %.0f B/s%n", (write - lastWrite) / seconds, (read - lastRead) / seconds);
+        }
+        lastRead = read;
+        lastWrite = write;
+        lastTime = now;
+
+        if (dump > 0) {
+            out.println();
+            for (QueueView.Record record : view.records(read, dump)) {
+                print(record);
+            }
+        }
+        if (tail > 0) {
+            out.println();
+            for (long position : tail(view, lane, read, write, tail)) {
+                print(view.record(position));
+            }
+        }
+    }
+
+    /**
+     * the positions of the newest records, the length words are walked from where the previous refresh stopped
+     */
+    private ArrayDeque<Long> tail(QueueView view, int lane, long read, long write, int max) {
+        Tail tail = tails.get(lane);
+        if (tail == null) {
+            tail = new Tail();
+            tails.put(lane, tail);
+        }
+        if (tail.position < read) {
+            // consumed past the last refresh
+            tail.newest.clear();
+            tail.position = read;
+        }
+        while (!tail.newest.isEmpty() && tail.newest.peek() < read) {
+            tail.newest.poll();
+        }
+        while (tail.position < write) {
+            int length = view.length(tail.position);
+            if (length == 0) {
+                break;
+            }
+            if (tail.newest.size() == max) {
+                tail.newest.poll();
+            }
+            tail.newest.add(tail.position);
+            tail.position += view.sizeOf(length);
+        }
+        return tail.newest;
+    }
+
+    private void header(Metadata metadata) {
+        out.println("file       " + file);
+        out.println("magic      0x" + Integer.toHexString(metadata.getMagic()).toUpperCase()
+                + (metadata.isInitialized() ? "" : " (not initialized)"));
+        out.println("version    " + metadata.getVersion());
+        out.println("id         " + metadata.getId());
+        out.println("index      " + metadata.getIndex());
+        out.println("byte order " + metadata.getByteOrder());
+    }
+
+    private Stats stats() {
+        if (!statsOpened) {
+            statsOpened = true;
+            if (new File(file + Stats.SUFFIX).isFile()) {
+                try {
+                    stats = Stats.attach(file);
+                } catch (RuntimeException ex) {
+                    out.println("stats      unreadable: " + ex.getMessage());
+                }
+            }
+        }
+        return stats;
+    }
+
+    void close() throws IOException {
+        if (stats != null) {
+            stats.close();
+        }
+    }
+
+    /**
+     * from the message counter or the statistics if the producers keep them, by walking the records otherwise
+     */
+    private String count(QueueView view, Stats stats, long read) {
+        if (view.count() >= 0) {
+            return "~" + view.count() + " (counter)";
+        }
+        if (stats != null) {
+            long count = stats.get(Stats.Counter.OFFERS) - stats.get(Stats.Counter.POLLS);
+            return "~" + Math.max(count, 0) + " (stats)";
+        }
+        long write = view.writePosition();
+        long position = read;
+        int count = 0;
+        while (count < WALK_LIMIT) {
+            // the length words only, no payload is copied
+            int length = position < write ? view.length(position) : 0;
+            if (length == 0) {
+                return String.valueOf(count);
+            }
+            if (length > 0) {
+                count++;
+            }
+            position += view.sizeOf(length);
+        }
+        return ">=" + count;
+    }
+
+    private String age(QueueView view, long read, long write) {
+        if (!view.getMetadata().isTimestamped() || read >= write) {
+            return "";
+        }
+        QueueView.Record oldest = view.record(read);
+        if (oldest.getPayload() == null) {
+            return "";
+        }
+        return ", oldest " + (System.nanoTime() - oldest.getTimestamp()) / 1000 + " us";
+    }
+
+    private void print(QueueView.Record record) {
+        if (!record.isPublished()) {
+            out.println("#" + record.getPosition() + " not published");
+            return;
+        }
+        if (record.isPadding()) {
+            out.println("#" + record.getPosition() + " padding " + record.getSize());
+            return;
+        }
+        out.println("#" + record.getPosition() + " length " + record.getLength()
+                + (record.getTimestamp() != 0 ? " stamp " + record.getTimestamp() : ""));
+        byte[] payload = record.getPayload();
+        int length = Math.min(payload.length, DUMP_BYTES);
+        for (int line = 0; line < length; line += 16) {
+            StringBuilder hex = new StringBuilder();
+            StringBuilder text = new StringBuilder();
+            for (int i = line; i < line + 16; i++) {
+                if (i < length) {
+                    hex.append(String.format("%02x ", payload[i] & 0xFF));
+                    text.append(payload[i] >= 0x20 && payload[i] < 0x7F ? (char) payload[i] : '.');
+                } else {
+                    hex.append("   ");
+                }
+            }
+            out.printf("  %04x  %s %s%n", line, hex, text);
+        }
+        if (payload.length > length) {
+            out.println("  ... " + (payload.length - length) + " more bytes");
+        }
+    }
+
+    /**
+     * the newest records --tail has seen in a ring, and the position its walk stopped at
+     */
+    private static final class Tail {
+
+        private final ArrayDeque<Long> newest = new ArrayDeque<Long>();
+        private long position = -1;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * LZ4 block format, compatible with the reference implementation, without the frame format.
+ * <p>
+ * a block is a series of sequences, each one a token, literals and a match:
+ * <p>
+ * token                      : 4 high bits literal length, 4 low bits match length - 4, 15 means more length bytes follow
+ * literal length             : 255 bytes while the length goes on, then the rest
+ * literals                   : copied as they are
+ * offset                     : 2 bytes little-endian, the distance back to the match, 1 to 65535
+ * match length               : like the literal length
+ * <p>
+ * the last sequence has literals only, and the last 5 bytes are always literals.
+ * the compressor is the fast single-pass one: a hash table of 4 bytes sequences, the first candidate wins.
+ */
+public class LZ4 {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private LZ4() {
+    }
+
+    /**
+     * the largest compressed length of length bytes
+     */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * @return the compressed length, -1 if it does not fit in target
+     */
+    public static int compress(byte[] source, int length, byte[] target) {
+        int[] table = new int[1 << HASH_LOG];
+        int anchor = 0;
+        int position = 0;
+        int output = 0;
+        int limit = length - MF_LIMIT;
+        int matchLimit = length - LAST_LITERALS;
+
+        int misses = 0;
+        while (position < limit) {
+            int sequence = (int) INT.get(source, position);
+            int hash = hash(sequence);
+            // the table holds positions + 1, 0 is empty
+            int reference = table[hash] - 1;
+            table[hash] = position + 1;
+            if (reference < 0 || position - reference > MAX_DISTANCE || (int) INT.get(source, reference) != sequence) {
+                position += 1 + (misses++ >>> SKIP_TRIGGER);
+                continue;
+            }
+            misses = 0;
+            while (position > anchor && reference > 0 && source[position - 1] == source[reference - 1]) {
+                position--;
+                reference--;
+            }
+            int end = position + MIN_MATCH;
+            int match = reference + MIN_MATCH;
+            while (end < matchLimit && source[end] == source[match]) {
+                end++;
+                match++;
+            }
+            output = sequence(source, anchor, position - anchor, position - reference,
+                    end - position - MIN_MATCH, target, output);
+            if (output < 0) {
+                return -1;
+            }
+            position = end;
+            anchor = end;
+            if (position - 2 < limit) {
+                table[hash((int) INT.get(source, position - 2))] = position - 1;
+            }
+        }
+        return literals(source, anchor, length - anchor, target, output);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the source is not a block of exactly length bytes
+     */
+    public static void decompress(byte[] source, int sourceLength, byte[] target, int length) {
+        int input = 0;
+        int output = 0;
+        try {
+            for (;;) {
+                int token = source[input++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = source[input++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (input + literals > sourceLength || output + literals > length) {
+                    throw new IllegalArgumentException("Malformed LZ4 block, literals out of bounds at " + input);
+                }
+                System.arraycopy(source, input, target, output, literals);
+                input += literals;
+                output += literals;
+                if (input == sourceLength) {
+                    break;
+                }
+
+                int distance = (source[input++] & 0xFF) | (source[input++] & 0xFF) << 8;
+                int match = output - distance;
+                if (distance == 0 || match < 0) {
+                    throw new IllegalArgumentException("Malformed LZ4 block, offset out of bounds at " + input);
+                }
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = source[input++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (output + matchLength > length) {
+                    throw new IllegalArgumentException("Malformed LZ4 block, match out of bounds at " + input);
+                }
+                if (distance >= matchLength) {
+                    System.arraycopy(target, match, target, output, matchLength);
+                    output += matchLength;
+                } else {
+                    // overlapping, it repeats the last distance bytes
+                    for (int i = 0; i < matchLength; i++) {
+                        target[output++] = target[match + i];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            throw new IllegalArgumentException("Malformed LZ4 block, truncated at " + input, ex);
+        }
+        if (output != length) {
+            throw new IllegalArgumentException("Malformed LZ4 block, " + output + " bytes instead of " + length);
+        }
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int sequence(byte[] source, int anchor, int literals, int distance, int matchLength,
+                                byte[] target, int output) {
+        if (output + literals + literals / 255 + matchLength / 255 + 5 > target.length) {
+            return -1;
+        }
+        int token = output++;
+        if (literals >= 15) {
+            target[token] = (byte) 0xF0;
+            output = length(literals - 15, target, output);
+        } else {
+            target[token] = (byte) (literals << 4);
+        }
+        System.arraycopy(source, anchor, target, output, literals);
+        output += literals;
+        target[output++] = (byte) distance;
+        target[output++] = (byte) (distance >>> 8);
+        if (matchLength >= 15) {
+            target[token] |= 0x0F;
+            output = length(matchLength - 15, target, output);
+        } else {
+            target[token] |= (byte) matchLength;
+        }
+        return output;
+    }
+
+    private static int literals(byte[] source, int anchor, int literals, byte[] target, int output) {
+        if (output + literals + literals / 255 + 2 > target.length) {
+            return -1;
+        }
+        if (literals >= 15) {
+            target[output++] = (byte) 0xF0;
+            output = length(literals - 15, target, output);
+        } else {
+            target[output++] = (byte) (literals << 4);
+        }
+        System.arraycopy(source, anchor, target, output, literals);
+        return output + literals;
+    }
+
+    private static int length(int length, byte[] target, int output) {
+        while (length >= 255) {
+            target[output++] = (byte) 255;
+            length -= 255;
+        }
+        target[output++] = (byte) length;
+        return output;
+    }
+}
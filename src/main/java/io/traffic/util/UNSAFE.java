@@ -20,6 +20,8 @@ import sun.misc.Unsafe;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
@@ -890,6 +892,43 @@ public abstract class UNSAFE {
         copyMemory(null, address, dst, BYTE_ARRAY_OFFSET + dstOffset, length);
     }
 
+    public static long allocateMemory(long bytes) {
+        return unsafe.allocateMemory(bytes);
+    }
+
+    public static void freeMemory(long address) {
+        unsafe.freeMemory(address);
+    }
+
+    public static void setMemory(Object object, long offset, long bytes, byte value) {
+        unsafe.setMemory(object, offset, bytes, value);
+    }
+
+    public static void setMemory(long address, long bytes, byte value) {
+        unsafe.setMemory(address, bytes, value);
+    }
+
+    public static void invokeCleaner(ByteBuffer buffer) {
+        unsafe.invokeCleaner(buffer);
+    }
+
+    private static final long BUFFER_ADDRESS_OFFSET = bufferAddressOffset();
+
+    private static long bufferAddressOffset() {
+        try {
+            return unsafe.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (NoSuchFieldException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * the address of the first byte of a direct buffer, regardless of its position
+     */
+    public static long address(ByteBuffer buffer) {
+        return unsafe.getLong(buffer, BUFFER_ADDRESS_OFFSET);
+    }
+
     public static void fullFence() {
         unsafe.fullFence();
     }
@@ -3,5 +3,6 @@ module io.traffic.shm {
     requires jdk.unsupported;
 
     exports io.traffic.shm.async;
+    exports io.traffic.shm.memory;
 //    exports io.traffic.shm.sync;
 }
\ No newline at end of file
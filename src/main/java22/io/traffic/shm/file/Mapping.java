@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.file;
+
+import io.traffic.util.Constant;
+import io.traffic.util.Util;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+
+/**
+ * A raw memory mapping of a file region, JDK 22+ version.
+ *
+ * The mapping is owned by a shared {@link Arena}, so unmapping is deterministic
+ * and no private API of the JDK is involved.
+ *
+ * @author cuiyi
+ */
+final class Mapping {
+
+    private final Arena arena;
+    private final MemorySegment segment;
+
+    private Mapping(Arena arena, MemorySegment segment) {
+        this.arena = arena;
+        this.segment = segment;
+    }
+
+    static Mapping map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+        Arena arena = Arena.ofShared();
+        try {
+            return new Mapping(arena, channel.map(mode, position, size, arena));
+        } catch (IOException | RuntimeException ex) {
+            arena.close();
+            throw ex;
+        }
+    }
+
+    long address() {
+        return segment.address();
+    }
+
+    /**
+     * the range is relative to the start of this mapping and widened to page boundaries
+     */
+    void force(long offset, long length) throws IOException {
+        long start = offset & ~(Constant.PAGE_SIZE - 1L);
+        long end = Math.min(Util.align(offset + length, Constant.PAGE_SIZE), segment.byteSize());
+        if (start < end) {
+            segment.asSlice(start, end - start).force();
+        }
+    }
+
+    void unmap() {
+        arena.close();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.Queue;
+import org.junit.Assert;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * helpers shared by the tests
+ *
+ * @author cuiyi
+ */
+final class Fixtures {
+
+    /**
+     * the next payload to offer
+     */
+    interface Payload {
+        byte[] next(Random random);
+    }
+
+    /**
+     * offer the next message, the bytes the consumer is to see or null if the offer failed
+     */
+    interface Producer {
+        byte[] offer(Queue queue, Random random);
+    }
+
+    private Fixtures() {
+    }
+
+    /**
+     * random bytes, 1 to max of them
+     */
+    static Payload random(final int max) {
+        return new Payload() {
+            @Override
+            public byte[] next(Random random) {
+                byte[] bytes = new byte[1 + random.nextInt(max)];
+                random.nextBytes(bytes);
+                return bytes;
+            }
+        };
+    }
+
+    /**
+     * a block of 16 bytes led by the value
+     */
+    static Block block(int value) {
+        byte[] payload = new byte[16];
+        payload[0] = (byte) value;
+        return new Block(payload);
+    }
+
+    /**
+     * offer and poll at random on one thread, every poll gets the oldest message offered and not polled yet
+     *
+     * @return the number of messages polled
+     */
+    static long fifo(Queue queue, int iterations, final Payload payload) {
+        return fifo(queue, iterations, Integer.MAX_VALUE, new Producer() {
+            @Override
+            public byte[] offer(Queue queue, Random random) {
+                byte[] bytes = payload.next(random);
+                return queue.offer(new Block(bytes)) ? bytes : null;
+            }
+        });
+    }
+
+    /**
+     * like {@link #fifo(Queue, int, Payload)}, with at most maxPending messages in the ring
+     */
+    static long fifo(Queue queue, int iterations, int maxPending, Producer producer) {
+        ArrayDeque<byte[]> expected = new ArrayDeque<byte[]>();
+        Random random = new Random(0);
+        long polled = 0;
+
+        for (int i = 0; i < iterations; i++) {
+            if (random.nextBoolean() && expected.size() < maxPending) {
+                byte[] bytes = producer.offer(queue, random);
+                if (bytes != null) {
+                    expected.add(bytes);
+                }
+            } else {
+                Block block = queue.poll();
+                if (block == null) {
+                    Assert.assertTrue(expected.isEmpty());
+                } else {
+                    Assert.assertArrayEquals(expected.poll(), block.getPayload());
+                    polled++;
+                }
+            }
+        }
+        return polled;
+    }
+}
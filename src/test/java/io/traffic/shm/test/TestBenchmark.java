@@ -18,40 +18,129 @@ package io.traffic.shm.test;
 
 import io.traffic.shm.async.Block;
 import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.DirectMemory;
 import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * offer/poll across payload sizes, capacities and thread counts.
+ *
+ * <ul>
+ * <li>roundtrip: offer then poll on one thread, the cost of the operations without contention</li>
+ * <li>spsc, mpsc: producers and a consumer on their own threads, scale them with -tg, e.g. -tg 4,1</li>
+ * </ul>
+ *
+ * a producer spins on a full ring and a consumer on an empty one until the iteration is over,
+ * so the scores count completed operations only.
+ *
+ * gradle jmh -Pjmh="TestBenchmark -p payload=64,4096 -prof gc -prof perfnorm"
+ *
  * @author cuiyi
  */
-@BenchmarkMode(Mode.Throughput)
-@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Group)
 @Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
 @Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
-@Fork(5)
+@Fork(value = 3, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
 public class TestBenchmark {
 
-    Queue queue = Queue.map("/Users/peptos/ashm", 2000L);
+    @Param({"8", "64", "512", "4096", "65536"})
+    int payload;
+
+    @Param({"1048576", "67108864"})
+    long capacity;
 
-    @Setup(Level.Iteration)
-    public void setup(){
+    /**
+     * a file in a temporary directory, or anonymous memory to leave the page cache out
+     */
+    @Param({"FILE", "DIRECT"})
+    String backend;
 
+    File directory;
+    Queue queue;
+    Block block;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        if ("FILE".equals(backend)) {
+            directory = Files.createTempDirectory("traffic-shm-jmh").toFile();
+            queue = Queue.map(new File(directory, "ashm").getPath(), capacity);
+        } else {
+            queue = Queue.map(DirectMemory.allocate(capacity));
+        }
+        block = new Block(new byte[payload]);
     }
 
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        queue.close();
+        if (directory != null) {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
 
     @Benchmark
-    @Measurement(time = 1, timeUnit = TimeUnit.SECONDS)
-    public void measurePut() throws Throwable {
-        String str = "----------------------------------------------------";
-        byte[] bytes = str.getBytes("UTF-8");
+    @Group("roundtrip")
+    @GroupThreads(1)
+    public Block roundtrip() {
+        queue.offer(block);
+        return queue.poll();
+    }
 
-        queue.offer(new Block(bytes));
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public boolean spscOffer(Control control) {
+        return offer(control);
     }
 
     @Benchmark
-    @Measurement(time = 1, timeUnit = TimeUnit.SECONDS)
-    public void measureGet() throws Throwable {
-        queue.poll();
+    @Group("spsc")
+    @GroupThreads(1)
+    public Block spscPoll(Control control) {
+        return poll(control);
+    }
+
+    @Benchmark
+    @Group("mpsc")
+    @GroupThreads(4)
+    public boolean mpscOffer(Control control) {
+        return offer(control);
+    }
+
+    @Benchmark
+    @Group("mpsc")
+    @GroupThreads(1)
+    public Block mpscPoll(Control control) {
+        return poll(control);
+    }
+
+    private boolean offer(Control control) {
+        while (!queue.offer(block)) {
+            if (control.stopMeasurement) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+    private Block poll(Control control) {
+        Block polled;
+        while ((polled = queue.poll()) == null) {
+            if (control.stopMeasurement) {
+                return null;
+            }
+            Thread.onSpinWait();
+        }
+        return polled;
     }
 }
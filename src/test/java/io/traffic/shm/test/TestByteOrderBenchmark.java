@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.Accessor;
+import io.traffic.shm.memory.DirectMemory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * big-endian vs native byte order layout
+ *
+ * @author cuiyi
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(3)
+public class TestByteOrderBenchmark {
+
+    @Param({"BIG_ENDIAN", "NATIVE"})
+    String order;
+
+    Queue queue;
+    Accessor accessor;
+    Block block;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ByteOrder byteOrder = "NATIVE".equals(order) ? ByteOrder.nativeOrder() : ByteOrder.BIG_ENDIAN;
+        queue = Queue.map(DirectMemory.allocate(1 << 20), new Options().byteOrder(byteOrder));
+        accessor = new Accessor(DirectMemory.allocate(4096), byteOrder);
+        block = new Block("----------------------------------------------------".getBytes("UTF-8"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        queue.close();
+        accessor.memory().release();
+    }
+
+    @Benchmark
+    public Block measureOfferPoll() {
+        queue.offer(block);
+        return queue.poll();
+    }
+
+    @Benchmark
+    public long measureCursorRead() {
+        return accessor.getLongVolatile(64);
+    }
+
+    @Benchmark
+    public long measureCursorGetAndAdd() {
+        return accessor.getAndAddLong(64, 8);
+    }
+
+    @Benchmark
+    public boolean measureCursorCAS() {
+        long value = accessor.getLongVolatile(64);
+        return accessor.compareAndSwapLong(64, value, value + 8);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.GrowthPolicy;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.HeapMemory;
+import io.traffic.shm.memory.Memory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author cuiyi
+ */
+public class TestCapacity {
+
+    @Test
+    public void testBytesUsedAndRemaining() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(1024L));
+        // 1024 - 256 usable, 4 bytes kept free
+        Assert.assertEquals(0, queue.bytesUsed());
+        Assert.assertEquals(764, queue.remainingCapacity());
+        Assert.assertEquals(-1, queue.size());
+
+        queue.offer(new Block(new byte[10]));
+        Assert.assertEquals(16, queue.bytesUsed());
+        Assert.assertEquals(748, queue.remainingCapacity());
+
+        // wrap many times
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(queue.offer(new Block(new byte[1 + i % 50])));
+            queue.poll();
+        }
+        Assert.assertNotNull(queue.poll());
+        Assert.assertEquals(0, queue.bytesUsed());
+        Assert.assertEquals(764, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testMessageCount() throws Exception {
+        Memory memory = HeapMemory.allocate(4096L);
+        Queue writer = Queue.map(memory, new Options().messageCount(true));
+        Queue reader = Queue.attach(memory);
+        for (int i = 0; i < 10; i++) {
+            writer.offer(new Block(new byte[i + 1]));
+        }
+        // any attached side sees the count
+        Assert.assertEquals(10, reader.size());
+        for (int i = 0; i < 4; i++) {
+            reader.poll();
+        }
+        Assert.assertEquals(6, writer.size());
+        Assert.assertEquals(6, reader.size());
+    }
+
+    @Test
+    public void testSizeWithStatsOnly() throws Exception {
+        // the statistics of one side tell nothing about the offers and polls of the others
+        Queue queue = Queue.map(HeapMemory.allocate(4096L), new Options().stats(true));
+        queue.offer(new Block(new byte[1]));
+        queue.offer(new Block(new byte[1]));
+        queue.poll();
+        Assert.assertEquals(-1, queue.size());
+    }
+
+    @Test
+    public void testGrownQueue() throws Exception {
+        File file = File.createTempFile("ashm", ".grow");
+        file.delete();
+        Queue queue = Queue.map(file.getPath(), 4096L, new Options().messageCount(true)
+                .growthPolicy(GrowthPolicy.doubling(8192L, 0, TimeUnit.MILLISECONDS)));
+        int offered = 0;
+        while (queue.offer(new Block(new byte[60]))) {
+            offered++;
+        }
+        Assert.assertEquals(offered, queue.size());
+        Assert.assertEquals(offered * 64L, queue.bytesUsed());
+        Assert.assertTrue(queue.remainingCapacity() < 64);
+
+        queue.close();
+        file.delete();
+        new File(file.getPath() + ".1").delete();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.ChecksumPolicy;
+import io.traffic.shm.async.Cursor;
+import io.traffic.shm.async.GroupConsumer;
+import io.traffic.shm.async.Metadata;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.OverflowPolicy;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.async.QueueView;
+import io.traffic.shm.memory.Accessor;
+import io.traffic.shm.memory.HeapMemory;
+import io.traffic.shm.memory.Memory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a corrupted block is simulated by flipping a byte of its payload in the ring
+ *
+ * @author cuiyi
+ */
+public class TestChecksum {
+
+    @Test
+    public void testFIFO() throws Exception {
+        fifo(new Options().checksumPolicy(ChecksumPolicy.fail()));
+        fifo(new Options().checksumPolicy(ChecksumPolicy.fail()).latency(true));
+        fifo(new Options().checksumPolicy(ChecksumPolicy.fail()).recovery(1, TimeUnit.SECONDS).latency(true));
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+        Memory memory = HeapMemory.allocate(4096);
+        Queue queue = Queue.map(memory, new Options().checksumPolicy(ChecksumPolicy.skip()));
+        Assert.assertTrue(queue.offer(Fixtures.block(1)));
+        Assert.assertTrue(queue.offer(Fixtures.block(2)));
+        corrupt(memory);
+
+        Assert.assertEquals(2, queue.poll().getPayload()[0]);
+        Assert.assertEquals(1, queue.getCorrupted());
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.bytesUsed());
+        queue.close();
+    }
+
+    @Test
+    public void testOverwrite() throws Exception {
+        Memory memory = HeapMemory.allocate(4096);
+        Queue queue = Queue.map(memory, new Options().checksumPolicy(ChecksumPolicy.skip())
+                .overflowPolicy(OverflowPolicy.overwrite()));
+        Assert.assertTrue(queue.offer(Fixtures.block(1)));
+        Assert.assertTrue(queue.offer(Fixtures.block(2)));
+        corrupt(memory);
+
+        Assert.assertEquals(2, queue.poll().getPayload()[0]);
+        Assert.assertEquals(1, queue.getCorrupted());
+        Assert.assertNull(queue.poll());
+        queue.close();
+    }
+
+    @Test
+    public void testFail() throws Exception {
+        Memory memory = HeapMemory.allocate(4096);
+        Queue queue = Queue.map(memory, new Options().checksumPolicy(ChecksumPolicy.skip()));
+        Assert.assertTrue(queue.offer(Fixtures.block(1)));
+        Assert.assertTrue(queue.offer(Fixtures.block(2)));
+        corrupt(memory);
+
+        // a side that did not ask for a policy fails on a ring whose blocks carry a checksum
+        Queue consumer = Queue.attach(memory);
+        try {
+            consumer.poll();
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        // the corrupted block is consumed
+        Assert.assertEquals(2, consumer.poll().getPayload()[0]);
+        Assert.assertEquals(1, consumer.getCorrupted());
+        queue.close();
+    }
+
+    @Test
+    public void testGroupConsumer() throws Exception {
+        Memory memory = HeapMemory.allocate(4096);
+        Queue queue = Queue.map(memory, new Options().checksumPolicy(ChecksumPolicy.skip()));
+        for (int i = 1; i <= 3; i++) {
+            Assert.assertTrue(queue.offer(Fixtures.block(i)));
+        }
+        corrupt(memory);
+
+        GroupConsumer consumer = GroupConsumer.join(queue);
+        GroupConsumer.Batch batch = consumer.claim(8);
+        Assert.assertEquals(3, batch.size());
+        int expected = 2;
+        for (Block block : batch) {
+            Assert.assertEquals(expected++, block.getPayload()[0]);
+        }
+        Assert.assertEquals(4, expected);
+        consumer.release(batch);
+        Assert.assertEquals(1, queue.getCorrupted());
+        Assert.assertEquals(0, queue.bytesUsed());
+        queue.close();
+    }
+
+    @Test
+    public void testView() throws Exception {
+        Memory memory = HeapMemory.allocate(4096);
+        Queue queue = Queue.map(memory, new Options().checksumPolicy(ChecksumPolicy.fail()).latency(true));
+        Assert.assertTrue(queue.offer(Fixtures.block(7)));
+        QueueView.Record record = QueueView.of(memory).record(Metadata.ORIGIN_OFFSET);
+        Assert.assertEquals(7, record.getPayload()[0]);
+        Assert.assertTrue(record.getTimestamp() > 0);
+        queue.close();
+    }
+
+    private static void fifo(Options options) throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(1024), options);
+        Fixtures.fifo(queue, 100000, Fixtures.random(100));
+        Assert.assertEquals(0, queue.getCorrupted());
+        queue.close();
+    }
+
+    /**
+     * flip a byte of the payload of the first block, behind its length word and its checksum word
+     */
+    private static void corrupt(Memory memory) {
+        Accessor accessor = new Accessor(memory, Metadata.byteOrder(memory, ByteOrder.BIG_ENDIAN));
+        long offset = Cursor.rescale(Metadata.ORIGIN_OFFSET, Metadata.ORIGIN_OFFSET, memory.size()) + 8 + 5;
+        accessor.putByte(offset, (byte) (accessor.getByte(offset) ^ 0x40));
+    }
+}
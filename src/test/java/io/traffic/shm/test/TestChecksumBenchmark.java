@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.ChecksumPolicy;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.DirectMemory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the cost of {@link ChecksumPolicy} on an offer/poll round trip, against the same ring without checksums.
+ * the CRC32C is computed once by the producer and once by the consumer.
+ *
+ * gradle jmh -Pjmh="TestChecksumBenchmark -prof perfnorm"
+ *
+ * @author cuiyi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 3, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+public class TestChecksumBenchmark {
+
+    @Param({"64", "512", "4096", "65536"})
+    int payload;
+
+    @Param({"NONE", "FAIL"})
+    String checksum;
+
+    Queue queue;
+    Block block;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ChecksumPolicy policy = "FAIL".equals(checksum) ? ChecksumPolicy.fail() : ChecksumPolicy.none();
+        queue = Queue.map(DirectMemory.allocate(1 << 20), new Options().checksumPolicy(policy));
+        block = new Block(new byte[payload]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        queue.close();
+    }
+
+    @Benchmark
+    public Block roundtrip() {
+        queue.offer(block);
+        return queue.poll();
+    }
+}
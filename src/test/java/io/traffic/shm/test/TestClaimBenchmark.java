@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.ClaimStrategy;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.DirectMemory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * contended offers, CAS vs XADD claiming.
+ * scale the producers with -tg, e.g. -tg 8,1 and -tg 16,1
+ *
+ * @author cuiyi
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Group)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(3)
+public class TestClaimBenchmark {
+
+    @Param({"CAS", "XADD"})
+    ClaimStrategy strategy;
+
+    Queue queue;
+    Block block;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        queue = Queue.map(DirectMemory.allocate(1 << 20),
+                new Options().claimStrategy(strategy).byteOrder(ByteOrder.nativeOrder()));
+        block = new Block("----------------------------------------------------".getBytes("UTF-8"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        queue.close();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(8)
+    public boolean offer() {
+        return queue.offer(block);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public Block poll() {
+        return queue.poll();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.ClaimStrategy;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.DirectMemory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author cuiyi
+ */
+public class TestClaimStrategy {
+
+    private static final int PRODUCERS = 8;
+    private static final int CONSUMERS = 4;
+    private static final int MESSAGES = 20000;
+
+    @Test
+    public void testCAS() throws Exception {
+        testProducers(new Options().claimStrategy(ClaimStrategy.CAS));
+    }
+
+    @Test
+    public void testXADD() throws Exception {
+        testProducers(new Options().claimStrategy(ClaimStrategy.XADD).byteOrder(ByteOrder.nativeOrder()));
+    }
+
+    @Test
+    public void testXADDOvershoot() throws Exception {
+        // a tiny ring makes the concurrent claims overshoot the headroom
+        testProducers(new Options().claimStrategy(ClaimStrategy.XADD), 1024L);
+    }
+
+    @Test(timeout = 120000)
+    public void testCASConsumers() throws Exception {
+        // blocks of one size on a tiny ring land on the same offsets lap after lap,
+        // a reader that read the cursor before a lap must not take the block of the next one
+        testConsumers(new Options().claimStrategy(ClaimStrategy.CAS), 256L + 64);
+    }
+
+    @Test(timeout = 120000)
+    public void testXADDConsumers() throws Exception {
+        testConsumers(new Options().claimStrategy(ClaimStrategy.XADD), 256L + 64);
+    }
+
+    @Test(timeout = 120000)
+    public void testCASMixedConsumers() throws Exception {
+        // blocks of mixed sizes put the headers of a lap in the middle of the payloads of the previous one
+        testConsumers(new Options().claimStrategy(ClaimStrategy.CAS), 256L + 256, true);
+    }
+
+    @Test(timeout = 120000)
+    public void testXADDMixedConsumers() throws Exception {
+        testConsumers(new Options().claimStrategy(ClaimStrategy.XADD), 256L + 256, true);
+    }
+
+    private void testProducers(Options options) throws Exception {
+        testProducers(options, 16384L);
+    }
+
+    private void testProducers(Options options, long size) throws Exception {
+        final Queue queue = Queue.map(DirectMemory.allocate(size), options);
+
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int id = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < MESSAGES; i++) {
+                        ByteBuffer buffer = ByteBuffer.allocate(8 + i % 50);
+                        buffer.putInt(id).putInt(i);
+                        while (!queue.offer(new Block(buffer.array()))) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            producers[p].start();
+        }
+
+        int[] last = new int[PRODUCERS];
+        Arrays.fill(last, -1);
+        for (long received = 0; received < (long) PRODUCERS * MESSAGES; ) {
+            Block block = queue.poll();
+            if (block == null) {
+                Thread.yield();
+                continue;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(block.getPayload());
+            int id = buffer.getInt();
+            int i = buffer.getInt();
+            // FIFO per producer, nothing lost and nothing duplicated
+            Assert.assertEquals(last[id] + 1, i);
+            Assert.assertEquals(8 + i % 50, block.getPayload().length);
+            last[id] = i;
+            received++;
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        Assert.assertNull(queue.poll());
+        queue.close();
+    }
+
+    private void testConsumers(Options options, long size) throws Exception {
+        testConsumers(options, size, false);
+    }
+
+    /**
+     * @param mixed whether the blocks take 12 to 48 bytes of payload, filled with their sequence number
+     */
+    private void testConsumers(Options options, long size, final boolean mixed) throws Exception {
+        final Queue queue = Queue.map(DirectMemory.allocate(size), options);
+        final AtomicLong received = new AtomicLong();
+        final long total = (long) PRODUCERS * MESSAGES;
+
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int id = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < MESSAGES; i++) {
+                        ByteBuffer buffer = ByteBuffer.allocate(mixed ? 12 + i % 37 : 12);
+                        buffer.putInt(id).putInt(i);
+                        while (buffer.hasRemaining()) {
+                            buffer.put((byte) i);
+                        }
+                        while (!queue.offer(new Block(buffer.array()))) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            producers[p].start();
+        }
+
+        final BitSet[][] seen = new BitSet[CONSUMERS][PRODUCERS];
+        final boolean[] intact = new boolean[CONSUMERS];
+        Thread[] consumers = new Thread[CONSUMERS];
+        for (int c = 0; c < CONSUMERS; c++) {
+            final int id = c;
+            for (int p = 0; p < PRODUCERS; p++) {
+                seen[c][p] = new BitSet(MESSAGES);
+            }
+            consumers[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    intact[id] = true;
+                    while (received.get() < total) {
+                        Block block = queue.poll();
+                        if (block == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        ByteBuffer buffer = ByteBuffer.wrap(block.getPayload());
+                        int producer = buffer.getInt();
+                        int i = buffer.getInt();
+                        intact[id] &= block.getPayload().length == (mixed ? 12 + i % 37 : 12) && !seen[id][producer].get(i);
+                        while (buffer.hasRemaining()) {
+                            intact[id] &= buffer.get() == (byte) i;
+                        }
+                        seen[id][producer].set(i);
+                        received.incrementAndGet();
+                    }
+                }
+            });
+            consumers[c].start();
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        // every block taken once, by one of the consumers
+        for (int p = 0; p < PRODUCERS; p++) {
+            BitSet all = new BitSet(MESSAGES);
+            for (int c = 0; c < CONSUMERS; c++) {
+                Assert.assertTrue(intact[c]);
+                Assert.assertFalse(all.intersects(seen[c][p]));
+                all.or(seen[c][p]);
+            }
+            Assert.assertEquals(MESSAGES, all.cardinality());
+        }
+        Assert.assertNull(queue.poll());
+        queue.close();
+    }
+}
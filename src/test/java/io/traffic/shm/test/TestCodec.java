@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.ChecksumPolicy;
+import io.traffic.shm.async.Codec;
+import io.traffic.shm.async.GroupConsumer;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.OverflowPolicy;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.async.QueueView;
+import io.traffic.shm.memory.HeapMemory;
+import io.traffic.shm.memory.Memory;
+import io.traffic.util.LZ4;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author cuiyi
+ */
+public class TestCodec {
+
+    @Test
+    public void testLZ4() {
+        Random random = new Random(3);
+        for (int length = 1; length < 2000; length += 1 + length / 8) {
+            roundtrip(json(random, length));
+            byte[] runs = new byte[length];
+            for (int i = 0; i < length; i++) {
+                // overlapping matches, the distance is shorter than the match
+                runs[i] = (byte) (i % 3);
+            }
+            roundtrip(runs);
+            byte[] noise = new byte[length];
+            random.nextBytes(noise);
+            roundtrip(noise);
+        }
+        roundtrip(json(random, 200 * 1024));
+        roundtrip(new byte[100000]);
+    }
+
+    @Test
+    public void testMalformed() {
+        byte[] source = json(new Random(5), 4096);
+        byte[] compressed = new byte[LZ4.maxCompressedLength(source.length)];
+        int length = LZ4.compress(source, source.length, compressed);
+        for (int truncated : new int[] {0, 1, length / 2, length - 1}) {
+            try {
+                LZ4.decompress(compressed, truncated, new byte[source.length], source.length);
+                Assert.fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            LZ4.decompress(compressed, length, new byte[source.length + 1], source.length + 1);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testFIFO() throws Exception {
+        fifo(new Options().codec(Codec.lz4(), 64));
+        fifo(new Options().codec(Codec.lz4(), 64).latency(true).checksumPolicy(ChecksumPolicy.fail()));
+        fifo(new Options().codec(Codec.lz4(), 64).recovery(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testThreshold() throws Exception {
+        Memory memory = HeapMemory.allocate(1 << 20);
+        Queue queue = Queue.map(memory, new Options().codec(Codec.lz4(), 1024));
+        byte[] small = json(new Random(1), 1000);
+        byte[] large = json(new Random(2), 64 * 1024);
+
+        Assert.assertTrue(queue.offer(new Block(small)));
+        long used = queue.bytesUsed();
+        Assert.assertTrue(used >= small.length);
+        Assert.assertTrue(queue.offer(new Block(large)));
+        Assert.assertTrue(queue.bytesUsed() - used < large.length / 2);
+
+        // a side attached without a codec decodes with lz4
+        Queue consumer = Queue.attach(memory);
+        Assert.assertArrayEquals(small, consumer.poll().getPayload());
+        Assert.assertArrayEquals(large, consumer.poll().getPayload());
+        Assert.assertEquals(0, queue.bytesUsed());
+
+        // the view shows the block as it is in the ring
+        Assert.assertTrue(queue.offer(new Block(large)));
+        long position = QueueView.of(memory).getMetadata().readCursor().offset();
+        Assert.assertTrue(QueueView.of(memory).record(position).getPayload().length < large.length / 2);
+        queue.close();
+    }
+
+    @Test
+    public void testIncompressible() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(1 << 16), new Options().codec(Codec.lz4(), 64));
+        byte[] noise = new byte[4096];
+        new Random(9).nextBytes(noise);
+        Assert.assertTrue(queue.offer(new Block(noise)));
+        Assert.assertTrue(queue.bytesUsed() >= noise.length);
+        Assert.assertArrayEquals(noise, queue.poll().getPayload());
+        queue.close();
+    }
+
+    @Test
+    public void testReaders() throws Exception {
+        byte[] large = json(new Random(4), 8192);
+
+        Queue overwrite = Queue.map(HeapMemory.allocate(1 << 16),
+                new Options().codec(Codec.lz4(), 64).overflowPolicy(OverflowPolicy.overwrite()));
+        Assert.assertTrue(overwrite.offer(new Block(large)));
+        Assert.assertArrayEquals(large, overwrite.poll().getPayload());
+        overwrite.close();
+
+        Queue queue = Queue.map(HeapMemory.allocate(1 << 16), new Options().codec(Codec.lz4(), 64));
+        Assert.assertTrue(queue.offer(new Block(large)));
+        Assert.assertTrue(queue.offer(new Block(large)));
+        GroupConsumer consumer = GroupConsumer.join(queue);
+        GroupConsumer.Batch batch = consumer.claim(8);
+        Assert.assertEquals(2, batch.size());
+        for (Block block : batch) {
+            Assert.assertArrayEquals(large, block.getPayload());
+        }
+        consumer.release(batch);
+        Assert.assertEquals(0, queue.bytesUsed());
+        queue.close();
+    }
+
+    private static void fifo(Options options) throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(16 * 1024), options);
+        final Fixtures.Payload noise = Fixtures.random(200);
+        Fixtures.fifo(queue, 20000, new Fixtures.Payload() {
+            @Override
+            public byte[] next(Random random) {
+                return random.nextBoolean() ? json(random, 1 + random.nextInt(4000)) : noise.next(random);
+            }
+        });
+        queue.close();
+    }
+
+    private static void roundtrip(byte[] source) {
+        byte[] compressed = new byte[LZ4.maxCompressedLength(source.length)];
+        int length = LZ4.compress(source, source.length, compressed);
+        Assert.assertTrue(length > 0 && length <= compressed.length);
+        byte[] decompressed = new byte[source.length];
+        LZ4.decompress(compressed, length, decompressed, source.length);
+        Assert.assertArrayEquals(source, decompressed);
+
+        byte[] encoded = Codec.lz4().encode(source);
+        if (encoded != null) {
+            Assert.assertTrue(encoded.length < source.length);
+            Assert.assertArrayEquals(source, Codec.lz4().decode(encoded, source.length));
+        }
+    }
+
+    /**
+     * a snapshot like the ones producers send, repetitive keys and random values
+     */
+    static byte[] json(Random random, int length) {
+        StringBuilder json = new StringBuilder("[");
+        while (json.length() < length) {
+            json.append("{\"id\":").append(random.nextInt(100000))
+                    .append(",\"symbol\":\"").append((char) ('A' + random.nextInt(26))).append((char) ('A' + random.nextInt(26)))
+                    .append("\",\"price\":").append(random.nextInt(10000) / 100.0)
+                    .append(",\"side\":\"").append(random.nextBoolean() ? "BUY" : "SELL").append("\"},");
+        }
+        byte[] bytes = json.toString().getBytes(StandardCharsets.US_ASCII);
+        byte[] trimmed = new byte[length];
+        System.arraycopy(bytes, 0, trimmed, 0, length);
+        return trimmed;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.Codec;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.DirectMemory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a producer and a consumer of JSON snapshots on a ring a few snapshots large, with and without {@link Codec#lz4()}.
+ * the ring is the bottleneck without the codec, so the score is the net payload throughput a ring byte buys:
+ * the bytes counter is the payload delivered per second, the setup prints the ring bytes a snapshot takes.
+ *
+ * gradle jmh -Pjmh="TestCodecBenchmark"
+ *
+ * @author cuiyi
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Group)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 3, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+public class TestCodecBenchmark {
+
+    @Param({"20480", "204800"})
+    int payload;
+
+    @Param({"NONE", "LZ4"})
+    String codec;
+
+    Queue queue;
+    Block block;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Options options = new Options();
+        if ("LZ4".equals(codec)) {
+            options.codec(Codec.lz4(), 4096);
+        }
+        queue = Queue.map(DirectMemory.allocate(4L * payload), options);
+        block = new Block(TestCodec.json(new Random(0), payload));
+        queue.offer(block);
+        System.out.println("ring bytes per snapshot: " + queue.bytesUsed());
+        queue.poll();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        queue.close();
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Delivered {
+        public long bytes;
+    }
+
+    @Benchmark
+    @Group("stream")
+    @GroupThreads(1)
+    public boolean offer(Control control) {
+        while (!queue.offer(block)) {
+            if (control.stopMeasurement) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+    @Benchmark
+    @Group("stream")
+    @GroupThreads(1)
+    public Block poll(Control control, Delivered delivered) {
+        Block polled;
+        while ((polled = queue.poll()) == null) {
+            if (control.stopMeasurement) {
+                return null;
+            }
+            Thread.onSpinWait();
+        }
+        delivered.bytes += polled.getPayload().length;
+        return polled;
+    }
+}
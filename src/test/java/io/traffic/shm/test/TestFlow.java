@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.FlowScheduler;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.async.QueuePublisher;
+import io.traffic.shm.async.QueueSubscriber;
+import io.traffic.shm.memory.HeapMemory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author cuiyi
+ */
+public class TestFlow {
+
+    @Test
+    public void testPublisher() throws Exception {
+        FlowScheduler scheduler = FlowScheduler.start();
+        Queue queue = Queue.map(HeapMemory.allocate(1 << 20));
+        QueuePublisher publisher = QueuePublisher.create(queue, scheduler, 16);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(queue.offer(new Block(bytes(i))));
+        }
+
+        Recorder recorder = new Recorder(1000, 10);
+        publisher.subscribe(recorder);
+        Assert.assertTrue(recorder.latch.await(10, TimeUnit.SECONDS));
+        Assert.assertNull(recorder.error.get());
+        Assert.assertFalse("more blocks than requested", recorder.overflow);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(i, recorder.values.get(i).intValue());
+        }
+
+        // no demand left, nothing more is signalled
+        queue.offer(new Block(bytes(1000)));
+        Thread.sleep(50);
+        Assert.assertEquals(1000, recorder.values.size());
+        Assert.assertTrue(queue.bytesUsed() > 0);
+
+        scheduler.close();
+        queue.close();
+    }
+
+    @Test
+    public void testSubscriber() throws Exception {
+        FlowScheduler scheduler = FlowScheduler.start();
+        // a small ring, the subscriber parks blocks and holds the upstream back
+        final Queue queue = Queue.map(HeapMemory.allocate(4096));
+        QueueSubscriber subscriber = QueueSubscriber.create(queue, scheduler, 32);
+        SubmissionPublisher<Block> upstream = new SubmissionPublisher<Block>();
+        upstream.subscribe(subscriber);
+
+        final int count = 20000;
+        final List<Integer> received = new ArrayList<Integer>();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (received.size() < count) {
+                    Block block = queue.poll();
+                    if (block == null) {
+                        Thread.yield();
+                    } else {
+                        received.add(ByteBuffer.wrap(block.getPayload()).getInt());
+                    }
+                }
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < count; i++) {
+            upstream.submit(new Block(bytes(i)));
+        }
+        upstream.close();
+        consumer.join(30000);
+
+        Assert.assertEquals(count, received.size());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i, received.get(i).intValue());
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!subscriber.isDone() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertTrue(subscriber.isDone());
+        Assert.assertNull(subscriber.getError());
+
+        scheduler.close();
+        queue.close();
+    }
+
+    @Test
+    public void testPipeline() throws Exception {
+        // many publishers on one scheduler thread, each one feeding a queue of its own
+        FlowScheduler scheduler = FlowScheduler.start();
+        int pairs = 8;
+        Queue[] sources = new Queue[pairs];
+        Queue[] sinks = new Queue[pairs];
+        QueueSubscriber[] subscribers = new QueueSubscriber[pairs];
+        for (int i = 0; i < pairs; i++) {
+            sources[i] = Queue.map(HeapMemory.allocate(1 << 16));
+            sinks[i] = Queue.map(HeapMemory.allocate(1 << 12));
+            subscribers[i] = QueueSubscriber.create(sinks[i], scheduler, 16);
+            QueuePublisher.create(sources[i], scheduler, 8).subscribe(subscribers[i]);
+        }
+        Assert.assertEquals(2 * pairs, scheduler.size());
+
+        int count = 2000;
+        int[] next = new int[pairs];
+        int[] expected = new int[pairs];
+        long deadline = System.currentTimeMillis() + 30000;
+        int remaining = pairs * count;
+        while (remaining > 0 && System.currentTimeMillis() < deadline) {
+            for (int i = 0; i < pairs; i++) {
+                if (next[i] < count && sources[i].offer(new Block(bytes(next[i])))) {
+                    next[i]++;
+                }
+                Block block = sinks[i].poll();
+                if (block != null) {
+                    Assert.assertEquals(expected[i]++, ByteBuffer.wrap(block.getPayload()).getInt());
+                    remaining--;
+                }
+            }
+        }
+        Assert.assertEquals(0, remaining);
+
+        scheduler.close();
+        for (int i = 0; i < pairs; i++) {
+            sources[i].close();
+            sinks[i].close();
+        }
+    }
+
+    @Test
+    public void testSubscription() throws Exception {
+        FlowScheduler scheduler = FlowScheduler.start();
+        Queue queue = Queue.map(HeapMemory.allocate(1 << 16));
+        QueuePublisher publisher = QueuePublisher.create(queue, scheduler);
+
+        Recorder first = new Recorder(1, 1);
+        publisher.subscribe(first);
+        Recorder second = new Recorder(1, 1);
+        publisher.subscribe(second);
+        Assert.assertTrue(second.error.get() instanceof IllegalStateException);
+
+        first.subscription.cancel();
+        Recorder third = new Recorder(1, 1);
+        publisher.subscribe(third);
+        Assert.assertNull(third.error.get());
+
+        third.subscription.request(0);
+        Assert.assertTrue(third.error.get() instanceof IllegalArgumentException);
+
+        Recorder fourth = new Recorder(3, 1);
+        publisher.subscribe(fourth);
+        queue.offer(new Block(bytes(1)));
+        queue.offer(new Block(bytes(2)));
+        publisher.close();
+        Assert.assertTrue(fourth.completed.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, fourth.values.size());
+        Assert.assertFalse(first.completed.getCount() == 0);
+
+        scheduler.close();
+        queue.close();
+    }
+
+    private static byte[] bytes(int value) {
+        return ByteBuffer.allocate(8).putInt(value).array();
+    }
+
+    /**
+     * requests a chunk at a time and checks the publisher keeps within the demand
+     */
+    private static class Recorder implements Flow.Subscriber<Block> {
+
+        final List<Integer> values = new ArrayList<Integer>();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch latch;
+        final CountDownLatch completed = new CountDownLatch(1);
+        final int chunk;
+        final AtomicLong demand = new AtomicLong();
+        volatile Flow.Subscription subscription;
+        volatile boolean overflow;
+
+        Recorder(int count, int chunk) {
+            this.latch = new CountDownLatch(count);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            demand.addAndGet(chunk);
+            subscription.request(chunk);
+        }
+
+        @Override
+        public void onNext(Block item) {
+            if (demand.decrementAndGet() < 0) {
+                overflow = true;
+            }
+            values.add(ByteBuffer.wrap(item.getPayload()).getInt());
+            latch.countDown();
+            if (demand.get() == 0 && latch.getCount() > 0) {
+                demand.addAndGet(chunk);
+                subscription.request(chunk);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+}
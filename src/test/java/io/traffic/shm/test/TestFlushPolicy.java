@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.FlushPolicy;
+import io.traffic.shm.async.Metadata;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.HeapMemory;
+import io.traffic.shm.memory.Memory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author cuiyi
+ */
+public class TestFlushPolicy {
+
+    // the write cursor starts at the origin, which a ring of 4096 bytes maps to twice the origin
+    private static final long FIRST = Metadata.ORIGIN_OFFSET * 2;
+
+    @Test
+    public void testPeriodic() throws Exception {
+        testFlusher(FlushPolicy.periodic(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testThreshold() throws Exception {
+        testFlusher(FlushPolicy.every(1, 0));
+    }
+
+    @Test
+    public void testSync() throws Exception {
+        Recording memory = new Recording(HeapMemory.allocate(4096));
+        Queue queue = Queue.map(memory, new Options().flushPolicy(FlushPolicy.sync()));
+        Assert.assertTrue(queue.offer(new Block(new byte[100])));
+        // the block, then the cursors
+        Assert.assertEquals(2, memory.ranges().size());
+        Assert.assertArrayEquals(new long[] {FIRST, 104}, memory.ranges().get(0));
+        Assert.assertArrayEquals(new long[] {0, Metadata.ORIGIN_OFFSET}, memory.ranges().get(1));
+        queue.close();
+    }
+
+    @Test
+    public void testSyncCleared() throws Exception {
+        Recording memory = new Recording(HeapMemory.allocate(4096));
+        Queue queue = Queue.map(memory, new Options().flushPolicy(FlushPolicy.sync()));
+        Assert.assertTrue(queue.offer(new Block(new byte[100])));
+        Assert.assertNotNull(queue.poll());
+        // the zeros left by the reader reach the device too
+        Assert.assertEquals(4, memory.ranges().size());
+        Assert.assertArrayEquals(new long[] {FIRST, 104}, memory.ranges().get(2));
+        queue.close();
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        Recording memory = new Recording(HeapMemory.allocate(4096));
+        Queue queue = Queue.map(memory, new Options().flushPolicy(FlushPolicy.periodic(1, TimeUnit.MILLISECONDS)));
+        memory.fail(true);
+        Assert.assertTrue(queue.offer(new Block(new byte[100])));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (queue.getFlushFailures() == 0) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        // a transient failure of the device, the final write back succeeds
+        memory.fail(false);
+        try {
+            queue.close();
+            Assert.fail();
+        } catch (IOException e) {
+            // the lost round is not lost silently
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private void testFlusher(FlushPolicy policy) throws Exception {
+        int flushers = flushers();
+        Recording memory = new Recording(HeapMemory.allocate(4096));
+        Queue queue = Queue.map(memory, new Options().flushPolicy(policy));
+        Assert.assertEquals(flushers + 1, flushers());
+
+        // written before the first round of the flusher
+        Assert.assertTrue(queue.offer(new Block(new byte[100])));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!memory.covers(FIRST, FIRST + 104)) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        for (long[] range : memory.ranges()) {
+            // nothing past the write cursor
+            Assert.assertTrue(range[0] + range[1] <= FIRST + 104);
+        }
+
+        // the block cleared by the reader is flushed by a later round, on its own since the writes have moved on
+        Assert.assertTrue(queue.offer(new Block(new byte[100])));
+        while (!memory.covers(FIRST + 104, FIRST + 208)) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        memory.clear();
+        Assert.assertNotNull(queue.poll());
+        Assert.assertTrue(queue.offer(new Block(new byte[100])));
+        while (!memory.has(FIRST, 104)) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+
+        // the thread is gone once the queue is closed
+        queue.close();
+        Assert.assertEquals(flushers, flushers());
+    }
+
+    private static int flushers() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("traffic-shm-flusher".equals(thread.getName()) && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * records the ranges written back
+     */
+    private static final class Recording implements Memory {
+
+        private final Memory memory;
+        private final List<long[]> ranges = new ArrayList<long[]>();
+
+        Recording(Memory memory) {
+            this.memory = memory;
+        }
+
+        private volatile boolean failing;
+
+        /**
+         * whether the later write backs fail
+         */
+        void fail(boolean failing) {
+            this.failing = failing;
+        }
+
+        synchronized void clear() {
+            ranges.clear();
+        }
+
+        synchronized List<long[]> ranges() {
+            return new ArrayList<long[]>(ranges);
+        }
+
+        synchronized boolean has(long position, long length) {
+            for (long[] range : ranges) {
+                if (range[0] == position && range[1] == length) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized boolean covers(long from, long to) {
+            for (long[] range : ranges) {
+                if (range[0] <= from && range[0] + range[1] >= to) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Object base() {
+            return memory.base();
+        }
+
+        @Override
+        public long address() {
+            return memory.address();
+        }
+
+        @Override
+        public long size() {
+            return memory.size();
+        }
+
+        @Override
+        public void force() {
+            force(0, size());
+        }
+
+        @Override
+        public synchronized void force(long position, long length) {
+            if (failing) {
+                throw new IllegalStateException("msync failed");
+            }
+            ranges.add(new long[] {position, length});
+        }
+
+        @Override
+        public void release() {
+            memory.release();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.ChecksumPolicy;
+import io.traffic.shm.async.Codec;
+import io.traffic.shm.async.FragmentHandler;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.HeapMemory;
+import io.traffic.shm.memory.Memory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author cuiyi
+ */
+public class TestFragmentation {
+
+    @Test
+    public void testLargerThanRing() throws Exception {
+        final Queue queue = Queue.map(HeapMemory.allocate(4096), new Options().fragmentation(512));
+        final List<byte[]> messages = messages(new Random(1), 20, 100 * 1024);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (byte[] message : messages) {
+                    while (!queue.offer(new Block(message))) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+        for (byte[] message : messages) {
+            Assert.assertArrayEquals(message, poll(queue));
+        }
+        producer.join();
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.getIncomplete());
+        Assert.assertEquals(0, queue.bytesUsed());
+        queue.close();
+    }
+
+    @Test
+    public void testInterleaving() throws Exception {
+        final Queue queue = Queue.map(HeapMemory.allocate(16 * 1024), new Options().fragmentation(1024));
+        final byte[] snapshot = messages(new Random(2), 1, 4 * 1024 * 1024).get(0);
+        final int small = 1000;
+
+        Thread large = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Assert.assertTrue(offer(queue, snapshot));
+            }
+        });
+        Thread smalls = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < small; i++) {
+                    offer(queue, new byte[] {(byte) i, 1, 2, 3});
+                }
+            }
+        });
+        large.start();
+        smalls.start();
+
+        // the small messages are not stuck behind the fragments of the snapshot
+        int received = 0;
+        int before = -1;
+        while (received < small + 1) {
+            Block block = queue.poll();
+            if (block == null) {
+                Thread.yield();
+                continue;
+            }
+            byte[] message = block.getPayload();
+            received++;
+            if (message.length > 4) {
+                Assert.assertArrayEquals(snapshot, message);
+                before = received - 1;
+            } else {
+                Assert.assertEquals(3, message[3]);
+            }
+        }
+        large.join();
+        smalls.join();
+        Assert.assertTrue(before > 0);
+        Assert.assertEquals(0, queue.getIncomplete());
+        queue.close();
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(64 * 1024), new Options().fragmentation(1000));
+        byte[] large = new byte[9500];
+        new Random(3).nextBytes(large);
+        byte[] small = {1, 2, 3};
+        final int total = large.length;
+        Assert.assertTrue(queue.offer(new Block(large)));
+        Assert.assertTrue(queue.offer(new Block(small)));
+
+        final List<Integer> offsets = new ArrayList<Integer>();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final List<byte[]> whole = new ArrayList<byte[]>();
+        FragmentHandler handler = new FragmentHandler() {
+            @Override
+            public void onFragment(int message, byte[] fragment, int offset, boolean last) {
+                if (message == 0) {
+                    whole.add(fragment);
+                    return;
+                }
+                Assert.assertEquals(out.size(), offset);
+                offsets.add(offset);
+                out.write(fragment, 0, fragment.length);
+                Assert.assertEquals(out.size() == total, last);
+            }
+        };
+        while (queue.poll(handler)) {
+        }
+        Assert.assertEquals(10, offsets.size());
+        Assert.assertArrayEquals(large, out.toByteArray());
+        Assert.assertEquals(1, whole.size());
+        Assert.assertArrayEquals(small, whole.get(0));
+        queue.close();
+    }
+
+    @Test
+    public void testHeaders() throws Exception {
+        Options options = new Options().fragmentation(2048).codec(Codec.lz4(), 4096)
+                .checksumPolicy(ChecksumPolicy.fail()).recovery(1, TimeUnit.SECONDS).latency(true);
+        Queue queue = Queue.map(HeapMemory.allocate(64 * 1024), options);
+        byte[] json = TestCodec.json(new Random(4), 200 * 1024);
+        byte[] small = TestCodec.json(new Random(5), 100);
+        Assert.assertTrue(queue.offer(new Block(json)));
+        Assert.assertTrue(queue.offer(new Block(small)));
+        Assert.assertArrayEquals(json, queue.poll().getPayload());
+        Assert.assertArrayEquals(small, queue.poll().getPayload());
+
+        // an encoded message can only be streamed whole
+        Assert.assertTrue(queue.offer(new Block(json)));
+        final List<byte[]> fragments = new ArrayList<byte[]>();
+        FragmentHandler handler = new FragmentHandler() {
+            @Override
+            public void onFragment(int message, byte[] fragment, int offset, boolean last) {
+                Assert.assertTrue(message != 0 && offset == 0 && last);
+                fragments.add(fragment);
+            }
+        };
+        while (queue.poll(handler)) {
+        }
+        Assert.assertEquals(1, fragments.size());
+        Assert.assertArrayEquals(json, fragments.get(0));
+        queue.close();
+    }
+
+    @Test
+    public void testIncomplete() throws Exception {
+        Memory memory = HeapMemory.allocate(64 * 1024);
+        Queue queue = Queue.map(memory, new Options().fragmentation(1024));
+        Assert.assertTrue(queue.offer(new Block(new byte[8 * 1024])));
+        Assert.assertTrue(queue.offer(new Block(new byte[] {7})));
+
+        // another consumer took the first fragment
+        Queue other = Queue.attach(memory);
+        Assert.assertTrue(other.poll(new FragmentHandler() {
+            @Override
+            public void onFragment(int message, byte[] fragment, int offset, boolean last) {
+                Assert.assertEquals(0, offset);
+            }
+        }));
+        Assert.assertArrayEquals(new byte[] {7}, queue.poll().getPayload());
+        Assert.assertEquals(7, queue.getIncomplete());
+        queue.close();
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        // three fragments fill the ring, the fourth waits for a consumer that does not come
+        Queue queue = Queue.map(HeapMemory.allocate(4096), new Options().fragmentation(1024, 100, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        Assert.assertFalse(queue.offer(new Block(new byte[8 * 1024])));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        // the fragments sent are dropped with the message
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(1, queue.getIncomplete());
+        Assert.assertEquals(0, queue.bytesUsed());
+        Assert.assertTrue(queue.offer(new Block(new byte[] {7})));
+        Assert.assertArrayEquals(new byte[] {7}, queue.poll().getPayload());
+        queue.close();
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrentPoll() throws Exception {
+        final Queue queue = Queue.map(HeapMemory.allocate(16 * 1024), new Options().fragmentation(512));
+        final List<byte[]> messages = messages(new Random(6), 200, 8 * 1024);
+        final AtomicInteger received = new AtomicInteger();
+        final Map<Integer, Integer> seen = new ConcurrentHashMap<Integer, Integer>();
+
+        Thread[] consumers = new Thread[3];
+        for (int c = 0; c < consumers.length; c++) {
+            consumers[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (received.get() < messages.size()) {
+                        Block block = queue.poll();
+                        if (block == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        // the first 4 bytes number the message
+                        int i = ByteBuffer.wrap(block.getPayload()).getInt();
+                        if (Arrays.equals(messages.get(i), block.getPayload())) {
+                            seen.merge(i, 1, Integer::sum);
+                        }
+                        received.incrementAndGet();
+                    }
+                }
+            });
+            consumers[c].start();
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            byte[] message = messages.get(i);
+            ByteBuffer.wrap(message).putInt(i);
+            offer(queue, message);
+        }
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        // every message reassembled whole, once
+        Assert.assertEquals(messages.size(), seen.size());
+        for (int count : seen.values()) {
+            Assert.assertEquals(1, count);
+        }
+        Assert.assertEquals(0, queue.getIncomplete());
+        queue.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFragmentSize() throws Exception {
+        Queue.map(HeapMemory.allocate(4096), new Options().fragmentation(4096));
+    }
+
+    private static boolean offer(Queue queue, byte[] message) {
+        while (!queue.offer(new Block(message))) {
+            Thread.yield();
+        }
+        return true;
+    }
+
+    private static byte[] poll(Queue queue) {
+        Block block;
+        while ((block = queue.poll()) == null) {
+            Thread.yield();
+        }
+        return block.getPayload();
+    }
+
+    private static List<byte[]> messages(Random random, int count, int max) {
+        List<byte[]> messages = new ArrayList<byte[]>();
+        for (int i = 0; i < count; i++) {
+            byte[] message = new byte[4 + random.nextInt(max)];
+            random.nextBytes(message);
+            messages.add(message);
+        }
+        return messages;
+    }
+}
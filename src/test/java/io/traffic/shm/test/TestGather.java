@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.ChecksumPolicy;
+import io.traffic.shm.async.Codec;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.DirectMemory;
+import io.traffic.shm.memory.HeapMemory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * @author cuiyi
+ */
+public class TestGather {
+
+    @Test
+    public void testArrays() throws Exception {
+        fifo(new Options(), false);
+        fifo(new Options().checksumPolicy(ChecksumPolicy.fail()).latency(true), false);
+        fifo(new Options().codec(Codec.lz4(), 64).fragmentation(128), false);
+    }
+
+    @Test
+    public void testBuffers() throws Exception {
+        fifo(new Options(), true);
+        fifo(new Options().checksumPolicy(ChecksumPolicy.fail()).latency(true), true);
+        fifo(new Options().codec(Codec.lz4(), 64).fragmentation(128), true);
+    }
+
+    @Test
+    public void testPositions() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(4096));
+        ByteBuffer header = ByteBuffer.allocate(8).putInt(7).putInt(3);
+        header.flip();
+        ByteBuffer body = ByteBuffer.allocateDirect(16);
+        body.put(new byte[] {9, 9, 1, 2, 3, 9});
+        body.position(2).limit(5);
+        ByteBuffer readOnly = ByteBuffer.wrap(new byte[] {4, 5}).asReadOnlyBuffer();
+
+        Assert.assertTrue(queue.offer(header, body, readOnly));
+        Assert.assertArrayEquals(new byte[] {0, 0, 0, 7, 0, 0, 0, 3, 1, 2, 3, 4, 5}, queue.poll().getPayload());
+        Assert.assertEquals(0, header.position());
+        Assert.assertEquals(2, body.position());
+        Assert.assertEquals(0, readOnly.position());
+        queue.close();
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(4096));
+        try {
+            queue.offer(new byte[0], new byte[0]);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            queue.offer(new byte[1], null);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertTrue(queue.offer(new byte[0], new byte[] {1}));
+        Assert.assertArrayEquals(new byte[] {1}, queue.poll().getPayload());
+        queue.close();
+    }
+
+    @Test
+    public void testAllocation() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Queue queue = Queue.map(DirectMemory.allocate(1 << 20));
+        byte[] header = new byte[16];
+        byte[] body = new byte[64 * 1024];
+        for (int i = 0; i < 10000; i++) {
+            queue.offer(header, body);
+            queue.reset();
+        }
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 100; i++) {
+            queue.offer(header, body);
+            queue.reset();
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        // no combined array, the parts and the block only
+        Assert.assertTrue("allocated " + allocated, allocated < 100 * 1024);
+        queue.close();
+    }
+
+    private static void fifo(Options options, final boolean buffers) throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(4096), options);
+        // a fragmenting producer waits for room, so a single thread keeps the ring from filling up
+        Fixtures.fifo(queue, 50000, 3, new Fixtures.Producer() {
+            @Override
+            public byte[] offer(Queue queue, Random random) {
+                byte[] header = new byte[random.nextInt(12)];
+                byte[] body = new byte[1 + random.nextInt(300)];
+                random.nextBytes(header);
+                random.nextBytes(body);
+                boolean offered = buffers
+                        ? queue.offer(ByteBuffer.wrap(header), direct(body))
+                        : queue.offer(header, body);
+                if (!offered) {
+                    return null;
+                }
+                byte[] message = new byte[header.length + body.length];
+                System.arraycopy(header, 0, message, 0, header.length);
+                System.arraycopy(body, 0, message, header.length, body.length);
+                return message;
+            }
+        });
+        queue.close();
+    }
+
+    private static ByteBuffer direct(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+}
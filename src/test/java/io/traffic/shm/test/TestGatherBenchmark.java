@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.DirectMemory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a header and a body offered as one message, concatenated by the caller against the gathering offers.
+ *
+ * gradle jmh -Pjmh="TestGatherBenchmark -prof gc"
+ *
+ * @author cuiyi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 3, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+public class TestGatherBenchmark {
+
+    @Param({"64", "4096", "65536"})
+    int payload;
+
+    Queue queue;
+    byte[] header;
+    byte[] body;
+    ByteBuffer direct;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        queue = Queue.map(DirectMemory.allocate(1 << 20));
+        header = new byte[16];
+        body = new byte[payload];
+        direct = ByteBuffer.allocateDirect(payload);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        queue.close();
+    }
+
+    @Benchmark
+    public boolean concat() {
+        byte[] message = new byte[header.length + body.length];
+        System.arraycopy(header, 0, message, 0, header.length);
+        System.arraycopy(body, 0, message, header.length, body.length);
+        boolean offered = queue.offer(new Block(message));
+        queue.reset();
+        return offered;
+    }
+
+    @Benchmark
+    public boolean arrays() {
+        boolean offered = queue.offer(header, body);
+        queue.reset();
+        return offered;
+    }
+
+    @Benchmark
+    public boolean buffers() {
+        boolean offered = queue.offer(ByteBuffer.wrap(header), direct);
+        queue.reset();
+        return offered;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.GroupConsumer;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.HeapMemory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * @author cuiyi
+ */
+public class TestGroupConsumer {
+
+    @Test
+    public void testFIFO() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(4096), new Options().messageCount(true));
+        GroupConsumer consumer = GroupConsumer.join(queue);
+        Random random = new Random(7);
+
+        int sent = 0;
+        int received = 0;
+        for (int round = 0; round < 200; round++) {
+            while (queue.offer(new Block(payload(sent, 4 + random.nextInt(60))))) {
+                sent++;
+            }
+            GroupConsumer.Batch batch;
+            while ((batch = consumer.claim(7, 100)) != null) {
+                Assert.assertTrue(batch.size() <= 7);
+                Assert.assertTrue(batch.size() == 1 || batch.bytes() <= 100);
+                for (Block block : batch) {
+                    Assert.assertEquals(received++, ByteBuffer.wrap(block.getPayload()).getInt());
+                }
+                consumer.release(batch);
+            }
+            Assert.assertEquals(sent, received);
+            Assert.assertEquals(0, queue.bytesUsed());
+            Assert.assertEquals(0, queue.size());
+        }
+        Assert.assertEquals(sent, consumer.getRecords());
+        Assert.assertEquals(200, consumer.getEmptyClaims());
+        queue.close();
+    }
+
+    @Test
+    public void testReleaseOutOfOrder() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(4096));
+        GroupConsumer first = GroupConsumer.join(queue);
+        GroupConsumer second = GroupConsumer.join(queue);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queue.offer(new Block(payload(i, 16))));
+        }
+        GroupConsumer.Batch a = first.claim(2);
+        GroupConsumer.Batch b = second.claim(2);
+        Assert.assertNull(first.claim(2));
+        long used = queue.bytesUsed();
+
+        // the read cursor waits for the first batch
+        second.release(b);
+        Assert.assertEquals(used, queue.bytesUsed());
+        first.release(a);
+        Assert.assertEquals(0, queue.bytesUsed());
+
+        try {
+            first.release(a);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        queue.close();
+    }
+
+    @Test
+    public void testCompeting() throws Exception {
+        final int total = 200000;
+        final Queue queue = Queue.map(HeapMemory.allocate(64 * 1024));
+        final AtomicIntegerArray seen = new AtomicIntegerArray(total);
+        final List<GroupConsumer> members = new ArrayList<GroupConsumer>();
+        List<Thread> threads = new ArrayList<Thread>();
+        final AtomicInteger received = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            final GroupConsumer consumer = GroupConsumer.join(queue);
+            members.add(consumer);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int last = -1;
+                    while (received.get() < total) {
+                        GroupConsumer.Batch batch = consumer.claim(16);
+                        if (batch == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        for (Block block : batch) {
+                            int value = ByteBuffer.wrap(block.getPayload()).getInt();
+                            // a single producer, so every member sees its share in order
+                            Assert.assertTrue(value > last);
+                            last = value;
+                            seen.incrementAndGet(value);
+                            received.incrementAndGet();
+                        }
+                        consumer.release(batch);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (int i = 0; i < total; i++) {
+            Block block = new Block(payload(i, 4 + (i % 40)));
+            while (!queue.offer(block)) {
+                Thread.yield();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < total; i++) {
+            Assert.assertEquals(1, seen.get(i));
+        }
+        Assert.assertEquals(total, count(members));
+        Assert.assertEquals(0, queue.bytesUsed());
+        queue.close();
+    }
+
+    private static long count(List<GroupConsumer> members) {
+        long records = 0;
+        for (GroupConsumer member : members) {
+            records += member.getRecords();
+        }
+        return records;
+    }
+
+    private static byte[] payload(int value, int length) {
+        return ByteBuffer.allocate(length).putInt(value).array();
+    }
+}
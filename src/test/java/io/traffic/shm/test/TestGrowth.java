@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.ClaimStrategy;
+import io.traffic.shm.async.GrowthPolicy;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author cuiyi
+ */
+public class TestGrowth {
+
+    @Test
+    public void testGrowUntilMaxSize() throws Exception {
+        File file = temp();
+        Options options = new Options().growthPolicy(GrowthPolicy.doubling(16384L, 0, TimeUnit.MILLISECONDS));
+        Queue queue = Queue.map(file.getPath(), 4096L, options);
+
+        int offered = 0;
+        while (queue.offer(new Block(message(offered, 100)))) {
+            offered++;
+        }
+        // 4096 + 8192 + 16384 bytes of rings
+        Assert.assertTrue(offered > 250);
+        Assert.assertTrue(new File(file.getPath() + ".1").exists());
+        Assert.assertTrue(new File(file.getPath() + ".2").exists());
+        Assert.assertFalse(new File(file.getPath() + ".3").exists());
+
+        Queue reader = Queue.attach(file.getPath());
+        for (int i = 0; i < offered; i++) {
+            Assert.assertEquals(i, sequence(reader.poll()));
+        }
+        Assert.assertNull(reader.poll());
+
+        reader.close();
+        queue.close();
+        delete(file);
+    }
+
+    @Test
+    public void testNoGrowthByDefault() throws Exception {
+        File file = temp();
+        Queue queue = Queue.map(file.getPath(), 4096L);
+        while (queue.offer(new Block(message(0, 100)))) {
+        }
+        Assert.assertFalse(new File(file.getPath() + ".1").exists());
+        queue.close();
+        delete(file);
+    }
+
+    @Test
+    public void testGrowWhileConsuming() throws Exception {
+        testGrowWhileConsuming(ClaimStrategy.CAS);
+    }
+
+    @Test
+    public void testGrowWhileConsumingXADD() throws Exception {
+        testGrowWhileConsuming(ClaimStrategy.XADD);
+    }
+
+    private void testGrowWhileConsuming(ClaimStrategy claimStrategy) throws Exception {
+        final File file = temp();
+        final int count = 20000;
+        Options options = new Options().claimStrategy(claimStrategy)
+                .growthPolicy(GrowthPolicy.doubling(1 << 18, 1, TimeUnit.MILLISECONDS));
+        final Queue queue = Queue.map(file.getPath(), 4096L, options);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; ) {
+                    if (queue.offer(new Block(message(i, 1 + i % 200)))) {
+                        i++;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        Queue reader = Queue.attach(file.getPath());
+        for (int i = 0; i < count; ) {
+            Block block = reader.poll();
+            if (block == null) {
+                Thread.yield();
+            } else {
+                Assert.assertEquals(i++, sequence(block));
+            }
+        }
+        producer.join();
+        Assert.assertNull(reader.poll());
+
+        reader.close();
+        queue.close();
+        delete(file);
+    }
+
+    private static byte[] message(int sequence, int length) {
+        return ByteBuffer.allocate(Math.max(4, length)).putInt(0, sequence).array();
+    }
+
+    private static int sequence(Block block) {
+        Assert.assertNotNull(block);
+        return ByteBuffer.wrap(block.getPayload()).getInt(0);
+    }
+
+    private static File temp() throws Exception {
+        File file = File.createTempFile("ashm", ".grow");
+        file.delete();
+        return file;
+    }
+
+    private static void delete(File file) {
+        for (int generation = 0; generation < 16; generation++) {
+            new File(generation == 0 ? file.getPath() : file.getPath() + "." + generation).delete();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.LaneQueue;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.async.QueueView;
+import io.traffic.shm.async.Stats;
+import io.traffic.shm.memory.HeapMemory;
+import io.traffic.shm.memory.Memory;
+import io.traffic.shm.tool.Inspect;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * @author cuiyi
+ */
+public class TestInspect {
+
+    @Test
+    public void testInspect() throws Exception {
+        File file = File.createTempFile("ashm", ".queue");
+        file.delete();
+        Queue queue = Queue.map(file.getPath(), 4096L, new Options().id(7).index(3));
+        for (int i = 0; i < 5; i++) {
+            queue.offer(new Block(("hello" + i).getBytes("UTF-8")));
+        }
+
+        String output = inspect(file.getPath(), "--dump", "2", "--tail", "1");
+        Assert.assertTrue(output, output.contains("magic      0x414E4E41"));
+        Assert.assertTrue(output, output.contains("id         7"));
+        Assert.assertTrue(output, output.contains("index      3"));
+        Assert.assertTrue(output, output.contains("count      5"));
+        Assert.assertTrue(output, output.contains("used       60 bytes"));
+        Assert.assertTrue(output, output.contains("hello0"));
+        Assert.assertTrue(output, output.contains("hello1"));
+        Assert.assertTrue(output, output.contains("hello4"));
+        Assert.assertFalse(output, output.contains("hello2"));
+
+        // nothing was consumed
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("hello" + i, new String(queue.poll().getPayload(), "UTF-8"));
+        }
+        queue.close();
+        file.delete();
+    }
+
+    @Test
+    public void testCountFromStats() throws Exception {
+        File file = File.createTempFile("ashm", ".queue");
+        file.delete();
+        Queue queue = Queue.map(file.getPath(), 4096L, new Options().stats(true));
+        for (int i = 0; i < 3; i++) {
+            queue.offer(new Block(new byte[10]));
+        }
+        String output = inspect(file.getPath());
+        Assert.assertTrue(output, output.contains("count      ~3 (stats)"));
+        queue.close();
+        file.delete();
+        new File(file.getPath() + Stats.SUFFIX).delete();
+    }
+
+    @Test
+    public void testLanes() throws Exception {
+        File file = File.createTempFile("ashm", ".lanes");
+        file.delete();
+        LaneQueue queue = LaneQueue.map(file.getPath(), 2, 1024L);
+        queue.offer(new Block("urgent".getBytes("UTF-8")), 0);
+        String output = inspect(file.getPath(), "--dump", "1");
+        Assert.assertTrue(output, output.contains("lanes      2"));
+        Assert.assertTrue(output, output.contains("urgent"));
+        queue.close();
+        file.delete();
+    }
+
+    @Test
+    public void testWalk() throws Exception {
+        Memory memory = HeapMemory.allocate(4096L);
+        Queue queue = Queue.map(memory, new Options().latency(true));
+        for (int i = 0; i < 20; i++) {
+            queue.offer(new Block(new byte[1 + i * 7]));
+            if (i % 3 == 0) {
+                queue.poll();
+            }
+        }
+
+        // the length words lead from record to record like the records themselves
+        QueueView view = QueueView.of(memory);
+        long position = view.readPosition();
+        for (QueueView.Record record : view.records(position, 100)) {
+            Assert.assertEquals(record.getPosition(), position);
+            Assert.assertEquals(record.getLength(), view.length(position));
+            Assert.assertEquals(record.getSize(), view.sizeOf(view.length(position)));
+            position += view.sizeOf(view.length(position));
+        }
+        Assert.assertEquals(view.writePosition(), position);
+        Assert.assertEquals(0, view.length(position));
+        queue.close();
+    }
+
+    private static String inspect(String... args) throws Exception {
+        PrintStream out = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buffer, true, "UTF-8"));
+        try {
+            Inspect.main(args);
+        } finally {
+            System.setOut(out);
+        }
+        return buffer.toString("UTF-8");
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.LaneMetadata;
+import io.traffic.shm.async.LaneQueue;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Stats;
+import io.traffic.shm.memory.HeapMemory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * @author cuiyi
+ */
+public class TestLaneQueue {
+
+    @Test
+    public void testUrgentFirst() throws Exception {
+        long[] laneSizes = {1024L, 4096L};
+        LaneQueue queue = LaneQueue.map(HeapMemory.allocate(LaneMetadata.sizeOf(laneSizes)), laneSizes, new Options());
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(queue.offer(new Block(("bulk" + i).getBytes("UTF-8")), 1));
+        }
+        Assert.assertTrue(queue.offer(new Block("cancel".getBytes("UTF-8")), 0));
+
+        Assert.assertEquals("cancel", new String(queue.poll().getPayload(), "UTF-8"));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("bulk" + i, new String(queue.poll().getPayload(), "UTF-8"));
+        }
+        Assert.assertNull(queue.poll());
+        queue.close();
+    }
+
+    @Test
+    public void testStarvationLimit() throws Exception {
+        long[] laneSizes = {4096L, 4096L};
+        LaneQueue queue = LaneQueue.map(HeapMemory.allocate(LaneMetadata.sizeOf(laneSizes)), laneSizes,
+                new Options().starvationLimit(4));
+
+        for (int i = 0; i < 20; i++) {
+            queue.offer(new Block(new byte[]{0}), 0);
+        }
+        for (int i = 0; i < 3; i++) {
+            queue.offer(new Block(new byte[]{1}), 1);
+        }
+
+        StringBuilder order = new StringBuilder();
+        Block block;
+        while ((block = queue.poll()) != null) {
+            order.append(block.getPayload()[0]);
+        }
+        Assert.assertEquals("00001" + "00001" + "00001" + "00000000", order.toString());
+        queue.close();
+    }
+
+    @Test
+    public void testAttachFollowsLayout() throws Exception {
+        File file = File.createTempFile("ashm", ".lanes");
+        file.delete();
+
+        LaneQueue writer = LaneQueue.map(file.getPath(), new long[]{1024L, 2048L, 8192L}, new Options());
+        LaneQueue reader = LaneQueue.attach(file.getPath());
+        Assert.assertEquals(3, reader.lanes());
+        Assert.assertEquals(2048L, reader.getMetadata().getLaneSize(1));
+
+        Assert.assertTrue(writer.offer(new Block("low".getBytes("UTF-8")), 2));
+        Assert.assertTrue(writer.offer(new Block("high".getBytes("UTF-8")), 0));
+        Assert.assertEquals("high", new String(reader.poll().getPayload(), "UTF-8"));
+        Assert.assertEquals("low", new String(reader.poll().getPayload(), "UTF-8"));
+        Assert.assertNull(reader.poll());
+
+        reader.close();
+        writer.close();
+        file.delete();
+    }
+
+    @Test
+    public void testSharedStats() throws Exception {
+        File file = File.createTempFile("ashm", ".lanes");
+        file.delete();
+
+        LaneQueue writer = LaneQueue.map(file.getPath(), 2, 1024L, new Options().stats(true));
+        LaneQueue reader = LaneQueue.attach(file.getPath(), new Options().stats(true));
+        Assert.assertTrue(writer.offer(new Block(new byte[8]), 1));
+        Assert.assertNotNull(reader.poll());
+
+        // the producer and the consumer count into the same region of the lane
+        Stats stats = Stats.attach(LaneQueue.laneOf(file.getPath(), 1));
+        Assert.assertEquals(1, stats.get(Stats.Counter.OFFERS));
+        Assert.assertEquals(1, stats.get(Stats.Counter.POLLS));
+        stats.close();
+
+        reader.close();
+        writer.close();
+        file.delete();
+        for (int lane = 0; lane < 2; lane++) {
+            new File(LaneQueue.laneOf(file.getPath(), lane) + Stats.SUFFIX).delete();
+        }
+    }
+}
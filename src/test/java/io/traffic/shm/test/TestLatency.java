@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.Histogram;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.OverflowPolicy;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.DirectMemory;
+import io.traffic.shm.memory.HeapMemory;
+import io.traffic.shm.memory.Memory;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * @author cuiyi
+ */
+public class TestLatency {
+
+    @Test
+    public void testFIFO() throws Exception {
+        // the odd sizes make the timestamps wrap at every position of the ring end
+        Queue queue = Queue.map(DirectMemory.allocate(1000L), new Options().latency(true));
+        long polled = Fixtures.fifo(queue, 100000, Fixtures.random(100));
+
+        Histogram.Snapshot snapshot = queue.getStats().getLatency().snapshot();
+        Assert.assertEquals(polled, snapshot.count());
+        Assert.assertTrue(snapshot.percentile(50) <= snapshot.percentile(99));
+        Assert.assertTrue(snapshot.percentile(99.9) <= snapshot.max());
+        // far below a second between offer and poll
+        Assert.assertTrue(snapshot.max() < 1000000000L);
+        queue.close();
+    }
+
+    @Test
+    public void testInterval() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(4096L), new Options().latency(true));
+        Histogram histogram = queue.getStats().getLatency();
+
+        queue.offer(new Block(new byte[8]));
+        queue.poll();
+        Histogram.Snapshot first = histogram.snapshot();
+
+        for (int i = 0; i < 10; i++) {
+            queue.offer(new Block(new byte[8]));
+        }
+        Thread.sleep(20);
+        for (int i = 0; i < 10; i++) {
+            queue.poll();
+        }
+        Histogram.Snapshot interval = histogram.snapshot().minus(first);
+        Assert.assertEquals(10, interval.count());
+        // within the 1/32 precision of a bucket
+        Assert.assertTrue(interval.percentile(50) >= 20000000L * 31 / 32);
+    }
+
+    @Test
+    public void testAttachFollowsTimestamps() throws Exception {
+        Memory memory = HeapMemory.allocate(4096L);
+        Queue writer = Queue.map(memory, new Options().latency(true));
+        Assert.assertTrue(writer.offer(new Block("hello".getBytes("UTF-8"))));
+
+        Queue reader = Queue.attach(memory);
+        Assert.assertEquals("hello", new String(reader.poll().getPayload(), "UTF-8"));
+        Assert.assertEquals(1, reader.getStats().getLatency().snapshot().count());
+    }
+
+    @Test
+    public void testOverwrite() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(1024L),
+                new Options().latency(true).overflowPolicy(OverflowPolicy.overwrite()));
+        for (int i = 0; i < 100; i++) {
+            queue.offer(new Block(new byte[]{(byte) i}));
+        }
+        int last = -1;
+        Block block;
+        while ((block = queue.poll()) != null) {
+            Assert.assertTrue(last < 0 || block.getPayload()[0] == last + 1);
+            last = block.getPayload()[0];
+        }
+        Assert.assertEquals(99, last);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.file.MappedFile;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * @author cuiyi
+ */
+public class TestMappingCache {
+
+    @Test
+    public void testShared() throws Exception {
+        File file = File.createTempFile("ashm", ".queue");
+        file.deleteOnExit();
+
+        MappedFile writer = MappedFile.with(file, 1 << 20);
+        MappedFile reader = MappedFile.as(file.getPath());
+        // another spelling of the same path
+        MappedFile other = MappedFile.as(file.getParent() + "/./" + file.getName());
+        Assert.assertEquals(writer.getAddress(), reader.getAddress());
+        Assert.assertEquals(writer.getAddress(), other.getAddress());
+        Assert.assertEquals(1, mappings(file));
+
+        writer.unmap();
+        other.unmap();
+        // closed twice, still one release
+        other.unmap();
+        Assert.assertEquals(1, mappings(file));
+
+        reader.unmap();
+        Assert.assertEquals(0, mappings(file));
+
+        // the last release unmapped it, the next one maps again
+        MappedFile again = MappedFile.as(file.getPath());
+        Assert.assertEquals(1, mappings(file));
+        again.unmap();
+        Assert.assertEquals(0, mappings(file));
+    }
+
+    @Test
+    public void testQueues() throws Exception {
+        File file = File.createTempFile("ashm", ".queue");
+        file.deleteOnExit();
+
+        Queue producer = Queue.map(file.getPath(), 1 << 16);
+        Queue consumer = Queue.attach(file.getPath());
+        Assert.assertEquals(1, mappings(file));
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(producer.offer(new Block(new byte[] {(byte) i})));
+        }
+        // the consumer keeps the mapping
+        producer.close();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertArrayEquals(new byte[] {(byte) i}, consumer.poll().getPayload());
+        }
+        Assert.assertNull(consumer.poll());
+        consumer.close();
+        Assert.assertEquals(0, mappings(file));
+    }
+
+    @Test
+    public void testReplaced() throws Exception {
+        File file = File.createTempFile("ashm", ".queue");
+        file.deleteOnExit();
+
+        MappedFile old = MappedFile.with(file, 1 << 16);
+        MappedFile replaced = MappedFile.with(file, true, 1 << 16);
+        Assert.assertNotEquals(old.getAddress(), replaced.getAddress());
+        Assert.assertEquals(replaced.getAddress(), MappedFile.as(file.getPath()).getAddress());
+
+        old.unmap();
+        replaced.unmap();
+    }
+
+    @Test
+    public void testResized() throws Exception {
+        File file = File.createTempFile("ashm", ".queue");
+        file.deleteOnExit();
+
+        MappedFile mapped = MappedFile.with(file, 1 << 16);
+        // the file is not resized under the live mapping
+        try {
+            MappedFile.with(file, 1 << 17);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertEquals(1 << 16, file.length());
+        Assert.assertEquals(1, mappings(file));
+        mapped.unmap();
+
+        // once unmapped, another size maps it again
+        MappedFile larger = MappedFile.with(file, 1 << 17);
+        Assert.assertEquals(1 << 17, file.length());
+        larger.unmap();
+    }
+
+    @Test
+    public void testReadOnly() throws Exception {
+        File file = File.createTempFile("ashm", ".queue");
+        file.deleteOnExit();
+
+        MappedFile writer = MappedFile.with(file, 1 << 16);
+        MappedFile view = MappedFile.readOnly(file.getPath());
+        Assert.assertNotEquals(writer.getAddress(), view.getAddress());
+        view.unmap();
+        writer.unmap();
+    }
+
+    /**
+     * the number of mappings of the file in /proc/self/maps
+     */
+    private static long mappings(File file) throws Exception {
+        Path maps = Paths.get("/proc/self/maps");
+        Assume.assumeTrue(Files.isReadable(maps));
+        String path = file.getCanonicalPath();
+        return Files.readAllLines(maps).stream().filter(line -> line.endsWith(path)).count();
+    }
+}
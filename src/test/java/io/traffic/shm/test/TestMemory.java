@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.DirectMemory;
+import io.traffic.shm.memory.HeapMemory;
+import io.traffic.shm.memory.Memory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+
+/**
+ * @author cuiyi
+ */
+public class TestMemory {
+
+    @Test
+    public void testHeapMemory() throws Exception {
+        testFIFO(HeapMemory.allocate(4096L));
+    }
+
+    @Test
+    public void testDirectMemory() throws Exception {
+        testFIFO(DirectMemory.allocate(4096L));
+    }
+
+    @Test
+    public void testNativeByteOrder() throws Exception {
+        testFIFO(DirectMemory.allocate(4096L), new Options().byteOrder(ByteOrder.nativeOrder()));
+    }
+
+    @Test
+    public void testAttachFollowsByteOrder() throws Exception {
+        Memory memory = HeapMemory.allocate(4096L);
+        Queue writer = Queue.map(memory, new Options().byteOrder(ByteOrder.LITTLE_ENDIAN));
+        Assert.assertTrue(writer.offer(new Block("hello".getBytes("UTF-8"))));
+
+        // the layout recorded in the metadata wins over the options of the attaching side
+        Queue reader = Queue.attach(memory, new Options().byteOrder(ByteOrder.BIG_ENDIAN));
+        Assert.assertEquals("hello", new String(reader.poll().getPayload(), "UTF-8"));
+        Assert.assertNull(reader.poll());
+    }
+
+    private void testFIFO(Memory memory) throws Exception {
+        testFIFO(memory, new Options());
+    }
+
+    private void testFIFO(Memory memory, Options options) throws Exception {
+        Queue queue = Queue.map(memory, options);
+        Fixtures.fifo(queue, 100000, Fixtures.random(300));
+        queue.close();
+    }
+}
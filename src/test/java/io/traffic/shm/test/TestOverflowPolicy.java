@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.IdleStrategy;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.OverflowPolicy;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.DirectMemory;
+import io.traffic.shm.memory.HeapMemory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author cuiyi
+ */
+public class TestOverflowPolicy {
+
+    @Test
+    public void testFail() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(1024L));
+        int offered = fill(queue);
+        Assert.assertFalse(queue.offer(new Block(message(offered, 60))));
+        Assert.assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    public void testBlockTimeout() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(1024L),
+                new Options().overflowPolicy(OverflowPolicy.block(IdleStrategy.yielding(), 20, TimeUnit.MILLISECONDS)));
+        int offered = fill(queue);
+        long start = System.nanoTime();
+        Assert.assertFalse(queue.offer(new Block(message(offered, 60))));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void testBlockUntilRoom() throws Exception {
+        final Queue queue = Queue.map(HeapMemory.allocate(1024L),
+                new Options().overflowPolicy(OverflowPolicy.block(10, TimeUnit.SECONDS)));
+        int offered = fill(queue);
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.poll();
+            }
+        });
+        consumer.start();
+        Assert.assertTrue(queue.offer(new Block(message(offered, 60))));
+        consumer.join();
+        for (int i = 1; i <= offered; i++) {
+            Assert.assertEquals(i, sequence(queue.poll()));
+        }
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testBackoffParks() throws Exception {
+        IdleStrategy backoff = IdleStrategy.backoff(0, 0, 1000L, TimeUnit.MILLISECONDS.toNanos(20));
+        // long past the attempt at which the park time stops growing, it must still park for the maximum
+        for (int attempt : new int[]{54, 62, 164, 1 << 20, Integer.MAX_VALUE - 1}) {
+            long start = System.nanoTime();
+            backoff.idle(attempt);
+            Assert.assertTrue("attempt " + attempt, System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(10));
+        }
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(1024L), new Options().overflowPolicy(OverflowPolicy.dropNewest()));
+        int offered = fill(queue);
+        // the offer that found the ring full
+        Assert.assertEquals(1, queue.getDropped());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertFalse(queue.offer(new Block(message(offered + i, 60))));
+        }
+        Assert.assertEquals(11, queue.getDropped());
+        for (int i = 0; i < offered; i++) {
+            Assert.assertEquals(i, sequence(queue.poll()));
+        }
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(1024L), new Options().overflowPolicy(OverflowPolicy.dropOldest()));
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            Assert.assertTrue(queue.offer(new Block(message(i, 1 + i % 100))));
+        }
+        assertNewest(queue, count, queue.getDropped());
+    }
+
+    @Test
+    public void testOverwrite() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(1024L), new Options().overflowPolicy(OverflowPolicy.overwrite()));
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            Assert.assertTrue(queue.offer(new Block(message(i, 1 + i % 100))));
+        }
+        assertNewest(queue, count, -1);
+        Assert.assertEquals(1, queue.getLapped());
+    }
+
+    @Test
+    public void testOverwriteFollowedOnAttach() throws Exception {
+        DirectMemory memory = DirectMemory.allocate(1024L);
+        Queue writer = Queue.map(memory, new Options().overflowPolicy(OverflowPolicy.overwrite()));
+        for (int i = 0; i < 100; i++) {
+            writer.offer(new Block(message(i, 40)));
+        }
+        Queue reader = Queue.attach(memory);
+        assertNewest(reader, 100, -1);
+        writer.close();
+    }
+
+    @Test
+    public void testOverwriteConcurrent() throws Exception {
+        final Queue queue = Queue.map(DirectMemory.allocate(4096L),
+                new Options().overflowPolicy(OverflowPolicy.overwrite()));
+        final int count = 200000;
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    queue.offer(new Block(message(i, 4 + i % 200)));
+                }
+            }
+        });
+        producer.start();
+
+        int last = -1;
+        while (last < count - 1) {
+            Block block = queue.poll();
+            if (block == null) {
+                Thread.yield();
+                continue;
+            }
+            int sequence = sequence(block);
+            Assert.assertTrue(sequence > last);
+            // a torn block would not match its own sequence
+            Assert.assertArrayEquals(message(sequence, 4 + sequence % 200), block.getPayload());
+            last = sequence;
+        }
+        producer.join();
+        queue.close();
+    }
+
+    private static void assertNewest(Queue queue, int count, long dropped) {
+        int polled = 0;
+        int first = -1;
+        Block block;
+        while ((block = queue.poll()) != null) {
+            int sequence = sequence(block);
+            if (first < 0) {
+                first = sequence;
+            }
+            Assert.assertEquals(first + polled++, sequence);
+        }
+        Assert.assertTrue(polled > 0);
+        Assert.assertEquals(count, first + polled);
+        if (dropped >= 0) {
+            Assert.assertEquals(first, dropped);
+        }
+    }
+
+    private static int fill(Queue queue) {
+        int offered = 0;
+        while (queue.offer(new Block(message(offered, 60)))) {
+            offered++;
+        }
+        return offered;
+    }
+
+    private static byte[] message(int sequence, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(4, length)).putInt(sequence);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) (sequence + buffer.position()));
+        }
+        return buffer.array();
+    }
+
+    private static int sequence(Block block) {
+        Assert.assertNotNull(block);
+        return ByteBuffer.wrap(block.getPayload()).getInt(0);
+    }
+}
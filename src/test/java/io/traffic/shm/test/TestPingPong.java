@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.FlushPolicy;
+import io.traffic.shm.async.Histogram;
+import io.traffic.shm.async.IdleStrategy;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * Round trip latency between two processes, the topology of a producer and a consumer sharing files under /dev/shm.
+ *
+ * This process sends a timestamped block through the ping queue, a second JVM echoes it back through the pong queue.
+ * At a target rate every send has an intended time, and the round trip is taken from that time rather than
+ * from the actual send, so a stall also delays the sends queued behind it (coordinated omission).
+ * The uncorrected round trips are reported beside them.
+ *
+ *  gradle pingpong -Ppingpong="--rate 100000 --messages 1000000 --payload 64 --output build/reports/pingpong.json"
+ *
+ *  --rate N        messages per second, 0 sends the next one as soon as the echo is back (default 0)
+ *  --messages N    measured round trips (default 1000000)
+ *  --warmup N      round trips before the measurement (default 100000)
+ *  --payload N     bytes, at least 8 (default 64)
+ *  --capacity N    bytes of each queue file (default 1048576)
+ *  --dir DIR       directory of the queue files (default /dev/shm, or java.io.tmpdir)
+ *  --idle NAME     spin, yield or backoff (default yield)
+ *  --output FILE   the results as a json object, printed if absent
+ *
+ * all values are in nanoseconds.
+ *
+ * @author cuiyi
+ */
+public class TestPingPong {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    @Test
+    public void testPingPong() throws Exception {
+        File output = File.createTempFile("pingpong", ".json");
+        try {
+            run(new String[]{"--rate", "10000", "--messages", "2000", "--warmup", "200",
+                    "--dir", System.getProperty("java.io.tmpdir"), "--output", output.getPath()});
+
+            String json = new String(Files.readAllBytes(output.toPath()), "UTF-8");
+            Assert.assertTrue(json, json.contains("\"rtt\":{\"count\":2000,"));
+            Assert.assertTrue(json, json.contains("\"uncorrected\":{\"count\":2000,"));
+        } finally {
+            output.delete();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "--echo".equals(args[0])) {
+            echo(args[1], args[2], Long.parseLong(args[3]), idle(args[4]));
+        } else {
+            run(args);
+        }
+    }
+
+    private static void run(String[] args) throws Exception {
+        long rate = 0;
+        long messages = 1000000;
+        long warmup = 100000;
+        int payload = 64;
+        long capacity = 1 << 20;
+        String dir = new File("/dev/shm").isDirectory() ? "/dev/shm" : System.getProperty("java.io.tmpdir");
+        String idle = "yield";
+        String output = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if ("--rate".equals(args[i])) {
+                rate = Long.parseLong(value);
+            } else if ("--messages".equals(args[i])) {
+                messages = Long.parseLong(value);
+            } else if ("--warmup".equals(args[i])) {
+                warmup = Long.parseLong(value);
+            } else if ("--payload".equals(args[i])) {
+                payload = Integer.parseInt(value);
+            } else if ("--capacity".equals(args[i])) {
+                capacity = Long.parseLong(value);
+            } else if ("--dir".equals(args[i])) {
+                dir = value;
+            } else if ("--idle".equals(args[i])) {
+                idle = value;
+            } else if ("--output".equals(args[i])) {
+                output = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+            i++;
+        }
+        if (payload < 8) {
+            throw new IllegalArgumentException("The payload must hold a timestamp of 8 bytes");
+        }
+
+        String name = "pingpong-" + ProcessHandle.current().pid();
+        File pingFile = new File(dir, name + ".ping");
+        File pongFile = new File(dir, name + ".pong");
+        Options options = new Options().flushPolicy(FlushPolicy.none());
+        Queue ping = Queue.map(pingFile.getPath(), capacity, options);
+        Queue pong = Queue.map(pongFile.getPath(), capacity, options);
+
+        Process echo = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED",
+                "-cp", System.getProperty("java.class.path"),
+                TestPingPong.class.getName(), "--echo", pingFile.getPath(), pongFile.getPath(),
+                String.valueOf(warmup + messages), idle)
+                .inheritIO().start();
+
+        Histogram rtt = Histogram.allocate();
+        Histogram uncorrected = Histogram.allocate();
+        try {
+            IdleStrategy strategy = idle(idle);
+            long interval = rate > 0 ? 1000000000L / rate : 0;
+            byte[] bytes = new byte[payload];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long start = System.nanoTime();
+
+            for (long i = 0; i < warmup + messages; i++) {
+                long intended = start + i * interval;
+                if (interval == 0) {
+                    intended = System.nanoTime();
+                } else {
+                    for (int attempt = 0; System.nanoTime() < intended; attempt++) {
+                        strategy.idle(attempt);
+                    }
+                }
+
+                long sent = System.nanoTime();
+                buffer.putLong(0, intended);
+                Block block = new Block(bytes);
+                for (int attempt = 0; !ping.offer(block); attempt++) {
+                    strategy.idle(attempt);
+                }
+
+                Block back;
+                for (int attempt = 0; (back = pong.poll()) == null; attempt++) {
+                    if (!echo.isAlive()) {
+                        throw new IllegalStateException("The echo process exited with " + echo.exitValue());
+                    }
+                    strategy.idle(attempt);
+                }
+                long received = System.nanoTime();
+                if (ByteBuffer.wrap(back.getPayload()).getLong(0) != intended) {
+                    throw new IllegalStateException("Unexpected echo of message " + i);
+                }
+
+                if (i >= warmup) {
+                    rtt.record(received - intended);
+                    uncorrected.record(received - sent);
+                }
+            }
+            if (echo.waitFor() != 0) {
+                throw new IllegalStateException("The echo process exited with " + echo.exitValue());
+            }
+        } finally {
+            echo.destroy();
+            ping.close();
+            pong.close();
+            pingFile.delete();
+            pongFile.delete();
+        }
+
+        Histogram.Snapshot corrected = rtt.snapshot();
+        System.out.println("rtt (ns) " + corrected);
+        System.out.println("uncorrected (ns) " + uncorrected.snapshot());
+
+        String json = "{\"harness\":\"pingpong\",\"rate\":" + rate + ",\"payload\":" + payload
+                + ",\"capacity\":" + capacity + ",\"idle\":\"" + idle + "\",\"unit\":\"ns\""
+                + ",\"rtt\":" + json(corrected) + ",\"uncorrected\":" + json(uncorrected.snapshot()) + "}";
+        if (output == null) {
+            System.out.println(json);
+        } else {
+            PrintStream out = new PrintStream(new FileOutputStream(output), true, "UTF-8");
+            try {
+                out.println(json);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private static void echo(String pingFile, String pongFile, long count, IdleStrategy strategy) throws Exception {
+        Options options = new Options().flushPolicy(FlushPolicy.none());
+        Queue ping = Queue.attach(pingFile, options);
+        Queue pong = Queue.attach(pongFile, options);
+        try {
+            for (long i = 0; i < count; i++) {
+                Block block;
+                for (int attempt = 0; (block = ping.poll()) == null; attempt++) {
+                    strategy.idle(attempt);
+                }
+                for (int attempt = 0; !pong.offer(block); attempt++) {
+                    strategy.idle(attempt);
+                }
+            }
+        } finally {
+            ping.close();
+            pong.close();
+        }
+    }
+
+    private static IdleStrategy idle(String name) {
+        if ("spin".equals(name)) {
+            return IdleStrategy.busySpin();
+        } else if ("backoff".equals(name)) {
+            return IdleStrategy.backoff();
+        } else if ("yield".equals(name)) {
+            return IdleStrategy.yielding();
+        }
+        throw new IllegalArgumentException("Unknown idle strategy " + name);
+    }
+
+    private static String json(Histogram.Snapshot snapshot) {
+        StringBuilder sb = new StringBuilder("{\"count\":").append(snapshot.count());
+        for (double percentile : PERCENTILES) {
+            String key = percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile);
+            sb.append(",\"p").append(key).append("\":").append(snapshot.percentile(percentile));
+        }
+        return sb.append(",\"max\":").append(snapshot.max()).append("}").toString();
+    }
+}
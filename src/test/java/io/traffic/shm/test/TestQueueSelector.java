@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.IdleStrategy;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.async.QueueSelector;
+import io.traffic.shm.memory.HeapMemory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * @author cuiyi
+ */
+public class TestQueueSelector {
+
+    @Test
+    public void testManyQueues() throws Exception {
+        final int count = 300;
+        final int messages = 100;
+        Queue[] queues = new Queue[count];
+        final int[] expected = new int[count];
+        final AtomicInteger handled = new AtomicInteger();
+        final AtomicInteger disorder = new AtomicInteger();
+        QueueSelector selector = QueueSelector.create(8, Long.MAX_VALUE, IdleStrategy.backoff());
+        for (int i = 0; i < count; i++) {
+            queues[i] = Queue.map(HeapMemory.allocate(4096));
+            final int id = i;
+            selector.register(queues[i], new Consumer<Block>() {
+                @Override
+                public void accept(Block block) {
+                    if (ByteBuffer.wrap(block.getPayload()).getInt() != expected[id]++) {
+                        disorder.incrementAndGet();
+                    }
+                    handled.incrementAndGet();
+                }
+            });
+        }
+        Assert.assertEquals(count, selector.size());
+        selector.start();
+
+        Random random = new Random(0);
+        int[] sent = new int[count];
+        int remaining = count * messages;
+        while (remaining > 0) {
+            int i = random.nextInt(count);
+            if (sent[i] < messages && queues[i].offer(new Block(bytes(sent[i])))) {
+                sent[i]++;
+                remaining--;
+            }
+        }
+        long deadline = System.currentTimeMillis() + 30000;
+        while (handled.get() < count * messages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        selector.close();
+
+        Assert.assertEquals(count * messages, handled.get());
+        Assert.assertEquals(0, disorder.get());
+        for (Queue queue : queues) {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void testFairness() throws Exception {
+        Queue busy = Queue.map(HeapMemory.allocate(1 << 16));
+        Queue quiet = Queue.map(HeapMemory.allocate(1 << 16));
+        for (int i = 0; i < 1000; i++) {
+            busy.offer(new Block(bytes(i)));
+        }
+        quiet.offer(new Block(bytes(0)));
+
+        final List<String> order = new ArrayList<String>();
+        QueueSelector selector = QueueSelector.create(4, Long.MAX_VALUE, IdleStrategy.busySpin());
+        selector.register(busy, block -> order.add("busy"));
+        selector.register(quiet, block -> order.add("quiet"));
+
+        Assert.assertEquals(5, selector.selectNow());
+        Assert.assertEquals(5, order.size());
+        Assert.assertTrue(order.contains("quiet"));
+        Assert.assertEquals(4, selector.selectNow());
+
+        // the byte limit, 8 bytes per block
+        QueueSelector bytes = QueueSelector.create(100, 20, IdleStrategy.busySpin());
+        bytes.register(busy, block -> { });
+        Assert.assertEquals(3, bytes.selectNow());
+
+        busy.close();
+        quiet.close();
+    }
+
+    @Test
+    public void testRegistration() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(4096));
+        final AtomicInteger handled = new AtomicInteger();
+        QueueSelector selector = QueueSelector.create();
+        selector.register(queue, block -> handled.incrementAndGet());
+        try {
+            selector.register(queue, block -> { });
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        Assert.assertEquals(0, selector.selectNow());
+        queue.offer(new Block(bytes(1)));
+        Assert.assertEquals(1, selector.selectNow());
+
+        Assert.assertTrue(selector.deregister(queue));
+        Assert.assertFalse(selector.deregister(queue));
+        queue.offer(new Block(bytes(2)));
+        Assert.assertEquals(0, selector.selectNow());
+        Assert.assertEquals(1, handled.get());
+        Assert.assertEquals(3, selector.getRounds());
+        Assert.assertEquals(2, selector.getIdleRounds());
+        queue.close();
+    }
+
+    @Test
+    public void testIdle() throws Exception {
+        final AtomicInteger idles = new AtomicInteger();
+        final AtomicInteger handled = new AtomicInteger();
+        QueueSelector selector = QueueSelector.create(64, Long.MAX_VALUE, new IdleStrategy() {
+            @Override
+            public void idle(int attempt) {
+                idles.incrementAndGet();
+                Thread.yield();
+            }
+        });
+        Queue queue = Queue.map(HeapMemory.allocate(4096));
+        selector.register(queue, block -> {
+            handled.incrementAndGet();
+            throw new IllegalStateException("a failing handler");
+        });
+        selector.start();
+        Thread.sleep(50);
+        Assert.assertTrue(idles.get() > 0);
+
+        // a failing handler does not stop the selector
+        queue.offer(new Block(bytes(1)));
+        queue.offer(new Block(bytes(2)));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handled.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        selector.close();
+        Assert.assertEquals(2, handled.get());
+        queue.close();
+    }
+
+    private static byte[] bytes(int value) {
+        return ByteBuffer.allocate(8).putInt(value).array();
+    }
+}
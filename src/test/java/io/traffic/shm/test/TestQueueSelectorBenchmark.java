@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.async.QueueSelector;
+import io.traffic.shm.memory.DirectMemory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a round of {@link QueueSelector} over many queues, all empty or with one of them ready.
+ *
+ * gradle jmh -Pjmh="TestQueueSelectorBenchmark"
+ *
+ * @author cuiyi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 3, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+public class TestQueueSelectorBenchmark {
+
+    @Param({"300"})
+    int queues;
+
+    Queue[] rings;
+    QueueSelector selector;
+    Block block;
+
+    @Setup(Level.Trial)
+    public void setup(final Blackhole blackhole) {
+        rings = new Queue[queues];
+        selector = QueueSelector.create();
+        for (int i = 0; i < queues; i++) {
+            rings[i] = Queue.map(DirectMemory.allocate(1 << 16));
+            selector.register(rings[i], blackhole::consume);
+        }
+        block = new Block(new byte[64]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (Queue ring : rings) {
+            ring.close();
+        }
+    }
+
+    @Benchmark
+    public int empty() {
+        return selector.selectNow();
+    }
+
+    @Benchmark
+    public int oneReady() {
+        rings[queues / 2].offer(block);
+        return selector.selectNow();
+    }
+}
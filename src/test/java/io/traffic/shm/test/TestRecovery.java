@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.ClaimStrategy;
+import io.traffic.shm.async.Cursor;
+import io.traffic.shm.async.Metadata;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.memory.Accessor;
+import io.traffic.shm.memory.HeapMemory;
+import io.traffic.shm.memory.Memory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a crashed producer is simulated by the pending slot it leaves behind, owned by a process that has exited
+ *
+ * @author cuiyi
+ */
+public class TestRecovery {
+
+    private static final int PENDING = Integer.MIN_VALUE;
+
+    @Test
+    public void testFIFO() throws Exception {
+        fifo(new Options().recovery(1, TimeUnit.SECONDS));
+        fifo(new Options().recovery(1, TimeUnit.SECONDS).latency(true));
+        fifo(new Options().recovery(1, TimeUnit.SECONDS).claimStrategy(ClaimStrategy.XADD));
+    }
+
+    @Test
+    public void testClaimedButNotPublished() throws Exception {
+        Memory memory = HeapMemory.allocate(4096);
+        Queue queue = Queue.map(memory, new Options().recovery(50, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(queue.offer(Fixtures.block(1)));
+
+        // the producer died after it moved the write cursor
+        Metadata metadata = metadata(memory);
+        long position = metadata.writeCursor().offset();
+        long size = 4 + 4 + 16;
+        pending(memory, position, size, deadPid());
+        Assert.assertTrue(metadata.writeCursor().update(position, position + size));
+        Assert.assertTrue(queue.offer(Fixtures.block(2)));
+
+        Assert.assertEquals(1, queue.poll().getPayload()[0]);
+        Assert.assertNull(queue.poll());
+        Thread.sleep(100);
+        Assert.assertEquals(2, queue.poll().getPayload()[0]);
+        Assert.assertEquals(1, queue.getAbandoned());
+        Assert.assertNull(queue.poll());
+        queue.close();
+    }
+
+    @Test
+    public void testLiveOwner() throws Exception {
+        Memory memory = HeapMemory.allocate(4096);
+        Queue queue = Queue.map(memory, new Options().recovery(10, TimeUnit.MILLISECONDS));
+
+        // a producer that is merely slow keeps its slot
+        Metadata metadata = metadata(memory);
+        long position = metadata.writeCursor().offset();
+        pending(memory, position, 24, (int) ProcessHandle.current().pid());
+        Assert.assertTrue(metadata.writeCursor().update(position, position + 24));
+
+        Assert.assertNull(queue.poll());
+        Thread.sleep(50);
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.getAbandoned());
+        queue.close();
+    }
+
+    private static void fifo(Options options) throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(1024), options);
+        Fixtures.fifo(queue, 100000, Fixtures.random(100));
+        Assert.assertEquals(0, queue.getAbandoned());
+        queue.close();
+    }
+
+    private static Metadata metadata(Memory memory) {
+        return new Metadata(memory.size(), new Accessor(memory, Metadata.byteOrder(memory, ByteOrder.BIG_ENDIAN)));
+    }
+
+    private static void pending(Memory memory, long position, long size, int owner) {
+        Accessor accessor = new Accessor(memory, Metadata.byteOrder(memory, ByteOrder.BIG_ENDIAN));
+        long offset = Cursor.rescale(position, Metadata.ORIGIN_OFFSET, memory.size());
+        accessor.putInt(offset + 4, owner);
+        accessor.putIntVolatile(offset, PENDING | (int) size);
+    }
+
+    private static int deadPid() throws Exception {
+        Process process = new ProcessBuilder("true").start();
+        process.waitFor();
+        return (int) process.pid();
+    }
+}
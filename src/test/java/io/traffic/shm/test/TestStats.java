@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.Codec;
+import io.traffic.shm.async.FragmentHandler;
+import io.traffic.shm.async.GroupConsumer;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import io.traffic.shm.async.Stats;
+import io.traffic.shm.memory.HeapMemory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * @author cuiyi
+ */
+public class TestStats {
+
+    @Test
+    public void testSidecar() throws Exception {
+        File file = File.createTempFile("ashm", ".queue");
+        file.delete();
+
+        Queue queue = Queue.map(file.getPath(), 4096L, new Options().stats(true));
+        int offered = 0;
+        while (queue.offer(new Block(new byte[100]))) {
+            offered++;
+        }
+        for (int i = 0; i < offered; i++) {
+            Assert.assertNotNull(queue.poll());
+        }
+        Assert.assertNull(queue.poll());
+
+        // read by another process without attaching to the queue
+        Stats stats = Stats.attach(file.getPath());
+        Assert.assertEquals(offered, stats.get(Stats.Counter.OFFERS));
+        Assert.assertEquals(1, stats.get(Stats.Counter.FAILED_OFFERS));
+        Assert.assertEquals(offered, stats.get(Stats.Counter.POLLS));
+        Assert.assertEquals(1, stats.get(Stats.Counter.EMPTY_POLLS));
+        Assert.assertEquals(offered * 100L, stats.get(Stats.Counter.BYTES_IN));
+        Assert.assertEquals(offered * 100L, stats.get(Stats.Counter.BYTES_OUT));
+        Assert.assertEquals(offered * 104L, stats.get(Stats.Counter.HIGH_WATER_MARK));
+        stats.close();
+
+        queue.close();
+        file.delete();
+        new File(file.getPath() + Stats.SUFFIX).delete();
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(1024L));
+        Assert.assertNull(queue.getStats());
+        Queue counted = Queue.map(HeapMemory.allocate(1024L), new Options().stats(true));
+        counted.offer(new Block(new byte[8]));
+        Assert.assertEquals(1, counted.getStats().get(Stats.Counter.OFFERS));
+    }
+
+    @Test
+    public void testEncodedBytes() throws Exception {
+        Queue queue = Queue.map(HeapMemory.allocate(1 << 16), new Options().stats(true).codec(Codec.lz4(), 64));
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(queue.offer(new Block(new byte[1000])));
+        }
+        // the ring holds far fewer bytes, both sides count the payloads as the application sees them
+        Assert.assertEquals(1000, queue.poll().getPayload().length);
+        Assert.assertTrue(queue.poll(new FragmentHandler() {
+            @Override
+            public void onFragment(int message, byte[] fragment, int offset, boolean last) {
+                Assert.assertEquals(1000, fragment.length);
+            }
+        }));
+        Assert.assertEquals(1, GroupConsumer.join(queue).poll(1, block -> Assert.assertEquals(1000, block.getPayload().length)));
+
+        Stats stats = queue.getStats();
+        Assert.assertEquals(3000, stats.get(Stats.Counter.BYTES_IN));
+        Assert.assertEquals(3000, stats.get(Stats.Counter.BYTES_OUT));
+        queue.close();
+    }
+}
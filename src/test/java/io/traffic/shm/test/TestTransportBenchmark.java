@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.traffic.shm.test;
+
+import io.traffic.shm.async.Block;
+import io.traffic.shm.async.FlushPolicy;
+import io.traffic.shm.async.Options;
+import io.traffic.shm.async.Queue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the same workload through a {@link Queue} on /dev/shm, a unix domain socket (JDK 16+), an os pipe
+ * and, as the in-process baseline, an {@link ArrayBlockingQueue} and a {@link ConcurrentLinkedQueue}.
+ *
+ * <ul>
+ * <li>transfer: one message in and out on a single thread, sample-time gives its latency percentiles</li>
+ * <li>stream: a producer and a consumer thread, throughput gives the messages per microsecond</li>
+ * </ul>
+ *
+ * every transport copies the payload once on each side, the in-process queues included,
+ * and none of them blocks, so the threads spin until the iteration is over.
+ * the pipe is pipe(2), the same kernel path as a named pipe without a name to clean up.
+ *
+ * gradle jmh -Pjmh="TestTransportBenchmark -p payload=64,4096"
+ *
+ * @author cuiyi
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Group)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 3, jvmArgsAppend = "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+public class TestTransportBenchmark {
+
+    private static final int CAPACITY = 1 << 20;
+
+    @Param({"8", "64", "512", "4096", "65536"})
+    int payload;
+
+    @Param({"QUEUE", "UNIX_SOCKET", "PIPE", "ARRAY_BLOCKING_QUEUE", "CONCURRENT_LINKED_QUEUE"})
+    String transport;
+
+    File directory;
+    Transport channel;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory(new File("/dev/shm").isDirectory()
+                ? new File("/dev/shm").toPath() : new File(System.getProperty("java.io.tmpdir")).toPath(),
+                "traffic-shm-jmh").toFile();
+        if ("QUEUE".equals(transport)) {
+            channel = new QueueTransport(new File(directory, "ashm").getPath(), payload);
+        } else if ("UNIX_SOCKET".equals(transport)) {
+            channel = UnixSocketTransport.open(new File(directory, "socket").getPath(), payload);
+        } else if ("PIPE".equals(transport)) {
+            Pipe pipe = Pipe.open();
+            channel = new StreamTransport(pipe.sink(), pipe.source(), payload);
+        } else if ("ARRAY_BLOCKING_QUEUE".equals(transport)) {
+            channel = new InProcessTransport(new ArrayBlockingQueue<byte[]>(CAPACITY / payload), payload);
+        } else {
+            channel = new InProcessTransport(new ConcurrentLinkedQueue<byte[]>(), payload);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        channel.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    @Group("transfer")
+    @GroupThreads(1)
+    public boolean transfer() throws IOException {
+        boolean sent = false;
+        while (true) {
+            sent = sent || channel.send();
+            if (sent && channel.receive()) {
+                return true;
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("stream")
+    @GroupThreads(1)
+    public boolean send(Control control) throws IOException {
+        while (!channel.send()) {
+            if (control.stopMeasurement) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+    @Benchmark
+    @Group("stream")
+    @GroupThreads(1)
+    public boolean receive(Control control) throws IOException {
+        while (!channel.receive()) {
+            if (control.stopMeasurement) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+    /**
+     * moves one message at a time without blocking, a message may take several calls
+     */
+    interface Transport extends Closeable {
+
+        /**
+         * @return true once the whole message is sent
+         */
+        boolean send() throws IOException;
+
+        /**
+         * @return true once a whole message is received
+         */
+        boolean receive() throws IOException;
+    }
+
+    static final class QueueTransport implements Transport {
+
+        private final Queue queue;
+        private final byte[] payload;
+
+        QueueTransport(String file, int payload) {
+            this.queue = Queue.map(file, CAPACITY + payload, new Options().flushPolicy(FlushPolicy.none()));
+            this.payload = new byte[payload];
+        }
+
+        @Override
+        public boolean send() {
+            return queue.offer(new Block(payload));
+        }
+
+        @Override
+        public boolean receive() {
+            return queue.poll() != null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            queue.close();
+        }
+    }
+
+    /**
+     * an unbounded queue is bounded by a counter, or a consumer that falls behind runs out of heap
+     */
+    static final class InProcessTransport implements Transport {
+
+        private final java.util.Queue<byte[]> queue;
+        private final byte[] payload;
+        private final byte[] received;
+        private final int limit;
+        private final AtomicInteger size = new AtomicInteger();
+
+        InProcessTransport(java.util.Queue<byte[]> queue, int payload) {
+            this.queue = queue;
+            this.payload = new byte[payload];
+            this.received = new byte[payload];
+            this.limit = CAPACITY / payload;
+        }
+
+        @Override
+        public boolean send() {
+            if (size.get() >= limit || !queue.offer(payload.clone())) {
+                return false;
+            }
+            size.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean receive() {
+            byte[] polled = queue.poll();
+            if (polled == null) {
+                return false;
+            }
+            size.decrementAndGet();
+            System.arraycopy(polled, 0, received, 0, polled.length);
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * messages of a fixed size need no framing on a byte stream
+     */
+    static class StreamTransport implements Transport {
+
+        private final WritableByteChannel sink;
+        private final ReadableByteChannel source;
+        private final ByteBuffer out;
+        private final ByteBuffer in;
+
+        StreamTransport(WritableByteChannel sink, ReadableByteChannel source, int payload) throws IOException {
+            this.sink = sink;
+            this.source = source;
+            this.out = ByteBuffer.allocateDirect(payload);
+            this.in = ByteBuffer.allocateDirect(payload);
+            ((SelectableChannel) sink).configureBlocking(false);
+            ((SelectableChannel) source).configureBlocking(false);
+        }
+
+        @Override
+        public boolean send() throws IOException {
+            sink.write(out);
+            if (out.hasRemaining()) {
+                return false;
+            }
+            out.clear();
+            return true;
+        }
+
+        @Override
+        public boolean receive() throws IOException {
+            source.read(in);
+            if (in.hasRemaining()) {
+                return false;
+            }
+            in.clear();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            sink.close();
+            source.close();
+        }
+    }
+
+    static final class UnixSocketTransport extends StreamTransport {
+
+        private final ServerSocketChannel server;
+
+        private UnixSocketTransport(ServerSocketChannel server, SocketChannel client, SocketChannel accepted,
+                                    int payload) throws IOException {
+            super(client, accepted, payload);
+            this.server = server;
+        }
+
+        static UnixSocketTransport open(String path, int payload) throws IOException {
+            UnixDomainSocketAddress address = UnixDomainSocketAddress.of(path);
+            ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(address);
+            SocketChannel client = SocketChannel.open(StandardProtocolFamily.UNIX);
+            client.connect(address);
+            return new UnixSocketTransport(server, client, server.accept(), payload);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            server.close();
+        }
+    }
+}